@@ -0,0 +1,40 @@
+# r14 = 1
+# r16 = 0x55667788
+# r17 = 0x55667788
+# r18 = 0x55667788
+# r19 = 0xA
+
+	.data
+	.global main
+	.equ LEDS, 0x810
+	.equ TIMER, 0x820
+	.equ RAM, 0x01000000
+
+value:	.word 0x11223344
+
+	.text
+main:	movia r8, value
+	movia r9, 0x55667788
+	stw r9, 0(r8)
+	movia r10, RAM
+	stw r9, 0(r10)
+	stw r9, 0x1000(r10)
+	movia r11, LEDS
+	movi r12, 0x2A
+	stw r12, 0(r11)
+	movia r13, TIMER
+	movi r12, 0x40
+	stw r12, 8(r13)
+	stw r0, 12(r13)
+	movi r12, 0x4
+	stw r12, 4(r13)
+wait:	ldw r14, 0(r13)
+	andi r14, r14, 1
+	beq r14, r0, wait
+	stw r0, 16(r13)
+	ldw r15, 16(r13)
+	stw r0, 0(r13)
+	ldw r16, 0(r8)
+	ldw r17, 0(r10)
+	ldw r18, 0x1000(r10)
+	ldw r19, 0(r11)
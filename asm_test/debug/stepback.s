@@ -0,0 +1,31 @@
+# r2 = 10
+# r3 = 10
+# r4 = 10
+# r5 = 0x11110A0A
+
+	.data
+	.global main
+
+buffer:	.word 0x11111111, 0x11111111, 0x11111111
+
+	.text
+store:	addi sp, sp, -4
+	stw ra, 0(sp)
+	stw r9, 0(r8)
+	stb r9, 4(r8)
+	sth r9, 8(r8)
+	stb r9, 9(r8)
+	ldw ra, 0(sp)
+	addi sp, sp, 4
+	ret
+
+main:	movia r8, buffer
+	movi r9, 0
+	movi r10, 10
+loop:	addi r9, r9, 1
+	call store
+	bne r9, r10, loop
+	ldw r2, 0(r8)
+	ldb r3, 4(r8)
+	ldbu r4, 8(r8)
+	ldw r5, 8(r8)
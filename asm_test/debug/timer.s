@@ -0,0 +1,34 @@
+# r11 = 3
+# r13 = 99
+# timeouts = 111 217 320 420
+
+	.data
+	.global main
+	.equ TIMER, 0x820
+	.equ PERIOD, 100
+
+	.text
+main:	movia r8, TIMER
+	movi r9, PERIOD
+	stw r9, 8(r8)
+	stw r0, 12(r8)
+	movi r9, 0x4
+	stw r9, 4(r8)
+	stw r0, 16(r8)
+	ldw r13, 16(r8)
+wait:	ldw r10, 0(r8)
+	andi r10, r10, 1
+	beq r10, r0, wait
+	stw r0, 0(r8)		# timeout
+	movi r9, 0x6
+	stw r9, 4(r8)
+	movi r11, 0
+again:	ldw r10, 0(r8)
+	andi r10, r10, 1
+	beq r10, r0, again
+	stw r0, 0(r8)		# timeout
+	addi r11, r11, 1
+	movi r12, 3
+	bne r11, r12, again
+	movi r9, 0x8
+	stw r9, 4(r8)
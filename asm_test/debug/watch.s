@@ -0,0 +1,14 @@
+	.data
+	.global main
+
+buffer:	.word 0, 0, 0, 0
+
+	.text
+main:	movia r8, buffer
+	movi r9, 0
+	movi r10, 5
+loop:	addi r9, r9, 1
+	ldw r11, 4(r8)
+	stw r9, 8(r8)
+	stw r9, 12(r8)
+	bne r9, r10, loop
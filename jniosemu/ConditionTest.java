@@ -0,0 +1,216 @@
+package jniosemu;
+
+import java.io.*;
+import jniosemu.events.EventManager;
+import jniosemu.emulator.Breakpoints;
+import jniosemu.emulator.Condition;
+import jniosemu.emulator.EmulatorException;
+import jniosemu.emulator.EmulatorManager;
+import jniosemu.emulator.memory.MemoryManager;
+import jniosemu.editor.Editor;
+
+/**
+ * Checks how conditions are compiled and that watchpoints and
+ * conditional breakpoints stop on the right instruction.
+ */
+public class ConditionTest {
+
+	public static final int TEST_FAILED = -1;
+
+	/**
+	 * Conditions, the values of r1, r2, r3 and hits they are tested
+	 * with, and the expected result.
+	 */
+	private static final String[] CONDITIONS = {
+		"r1 == 1 && r2 == 2 || r3 == 3",
+		"r1 == 1 && r2 == 2 || r3 == 3",
+		"r1 == 1 && r2 == 2 || r3 == 3",
+		"r3 == 3 || r1 == 1 && r2 == 2",
+		"r3 == 3 || r1 == 1 && r2 == 2",
+		"hits > 3",
+		"hits > 3",
+		"r1 < 0",
+		"r1 >= 0x10 && r1 != 17"
+	};
+	private static final int[][] VALUES = {
+		{0, 2, 3, 0},
+		{1, 0, 0, 0},
+		{1, 2, 0, 0},
+		{0, 0, 3, 0},
+		{1, 0, 0, 0},
+		{0, 0, 0, 3},
+		{0, 0, 0, 4},
+		{-1, 0, 0, 0},
+		{16, 0, 0, 0}
+	};
+	private static final boolean[] RESULTS = {true, false, true, true, false, false, true, true, true};
+
+	/**
+	 * Conditions that can't be compiled.
+	 */
+	private static final String[] ERRORS = {"r32 == 1", "rx == 1", "r1 = 1", "r1 == 0x1G", "r1 == 1 &&", "|| r1 == 1", "r1 == 1 ||", ""};
+
+	/**
+	 * Watchpoints in asm_test/debug/watch.s: first and last address,
+	 * access and condition, and the pc and instruction count the
+	 * emulation stops at. A pc of 0 means it runs to the end.
+	 */
+	private static final int BUFFER = MemoryManager.VARIABLESTARTADDR;
+	private static final int[][] WATCHPOINTS = {
+		{BUFFER + 8, BUFFER + 11, Breakpoints.WRITE, 0x2001C, 17},
+		{BUFFER + 4, BUFFER + 7, Breakpoints.READ, 0x20018, 21},
+		{BUFFER + 10, BUFFER + 13, Breakpoints.WRITE, 0x2001C, 7},
+		{BUFFER, BUFFER + 3, Breakpoints.READ | Breakpoints.WRITE, 0, 29}
+	};
+	private static final String[] WATCHCONDITIONS = {"hits > 2", "r9 == 4", null, null};
+
+	/**
+	 * Line of the bne instruction in asm_test/debug/watch.s, its
+	 * condition, its address and the instruction count the emulation
+	 * stops at.
+	 */
+	private static final int BREAKLINE = 14;
+	private static final int BREAKPC = 0x20020;
+	private static final String BREAKCONDITION = "r9 == 4 && hits > 3";
+	private static final int BREAKCOUNT = 23;
+
+	static String error_msg;
+
+	public static void main(String [] args) {
+
+		String filename = "asm_test/debug/watch.s";
+		if (args.length > 0) {
+			filename = args[0];
+		}
+
+		String fileContent;
+		try {
+			fileContent = Editor.read(filename);
+		}
+		catch(IOException e) {
+			System.out.println("Error: " + e.getMessage());
+			return;
+		}
+
+		int numTests = 0;
+		int numSucceded = 0;
+
+		for (int i = 0; i < CONDITIONS.length; i++) {
+			System.out.print("Test [" + numTests++ + "] (" + CONDITIONS[i] + ")");
+			if (testCondition(i)) {
+				numSucceded++;
+				System.out.println("\t successful");
+			} else {
+				System.out.println("\t failed: (" + error_msg + ")");
+			}
+		}
+
+		for (int i = 0; i < ERRORS.length; i++) {
+			System.out.print("Test [" + numTests++ + "] (\"" + ERRORS[i] + "\" is an error)");
+			try {
+				Condition.compile(ERRORS[i]);
+				System.out.println("\t failed: (compiled)");
+			}
+			catch(EmulatorException e) {
+				numSucceded++;
+				System.out.println("\t successful");
+			}
+		}
+
+		EmulatorManager.SPEED[] speeds = {EmulatorManager.SPEED.NORMAL, EmulatorManager.SPEED.FAST, EmulatorManager.SPEED.ULTRA};
+		for (int i = 0; i < speeds.length; i++) {
+			for (int j = 0; j <= WATCHPOINTS.length; j++) {
+				String name = (j < WATCHPOINTS.length) ? "watchpoint " + j : "breakpoint on line " + BREAKLINE;
+				System.out.print("Test [" + numTests++ + "] (" + name + " in " + speeds[i] + ")");
+
+				if (processFile(fileContent, speeds[i], j) == TEST_FAILED) {
+					System.out.println("\t failed: (" + error_msg + ")");
+				} else {
+					numSucceded++;
+					System.out.println("\t successful");
+				}
+			}
+		}
+
+		System.out.println("Tests done. ("+numTests+" total: " + numSucceded + " successful, "+(numTests - numSucceded)+" failed.)");
+
+		System.exit(0);
+	}
+
+	/**
+	 * Compile a condition and test it.
+	 *
+	 * @param  index  index in CONDITIONS
+	 * @return  true if the result is the expected
+	 */
+	public static boolean testCondition(int index) {
+		int[] registers = new int[32];
+		System.arraycopy(VALUES[index], 0, registers, 1, 3);
+
+		try {
+			if (Condition.compile(CONDITIONS[index]).test(registers, VALUES[index][3]) != RESULTS[index]) {
+				error_msg = "not " + RESULTS[index] + " with r1=" + registers[1] + " r2=" + registers[2] + " r3=" + registers[3] + " hits=" + VALUES[index][3];
+				return false;
+			}
+		}
+		catch(EmulatorException e) {
+			error_msg = e.getMessage();
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Run the program with a watchpoint or the conditional breakpoint
+	 * and check where it stops.
+	 *
+	 * @param  fileContent  source of the program
+	 * @param  speed        speed to run at
+	 * @param  index        index in WATCHPOINTS, or its length for the breakpoint
+	 * @return  instruction count where it stopped, or TEST_FAILED
+	 */
+	public static long processFile(String fileContent, EmulatorManager.SPEED speed, int index) {
+
+		EmulatorManager emulatorManager = new EmulatorManager(new EventManager(true));
+		emulatorManager.compile(fileContent);
+		emulatorManager.setSpeed(speed);
+
+		int pc;
+		long count;
+		try {
+			if (index < WATCHPOINTS.length) {
+				int[] watchpoint = WATCHPOINTS[index];
+				emulatorManager.addWatchpoint(watchpoint[0], watchpoint[1], watchpoint[2], WATCHCONDITIONS[index]);
+				pc = watchpoint[3];
+				count = watchpoint[4];
+			} else {
+				emulatorManager.toggleBreakpoint(BREAKLINE);
+				if (!emulatorManager.setBreakpointCondition(BREAKLINE, BREAKCONDITION)) {
+					error_msg = "no breakpoint on line " + BREAKLINE;
+					return TEST_FAILED;
+				}
+				pc = BREAKPC;
+				count = BREAKCOUNT;
+			}
+		}
+		catch(EmulatorException e) {
+			error_msg = e.getMessage();
+			return TEST_FAILED;
+		}
+
+		emulatorManager.execRun(true, false);
+
+		if (pc == 0 ? !emulatorManager.isEnded() : emulatorManager.readPC() != pc) {
+			error_msg = "stopped at pc=0x" + Integer.toHexString(emulatorManager.readPC()) + (pc == 0 ? " before the end" : ", expected 0x" + Integer.toHexString(pc));
+			return TEST_FAILED;
+		}
+		if (emulatorManager.getInstructionCount() != count) {
+			error_msg = "stopped after " + emulatorManager.getInstructionCount() + " instructions, expected " + count;
+			return TEST_FAILED;
+		}
+
+		return count;
+	}
+
+}
@@ -0,0 +1,104 @@
+package jniosemu;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import jniosemu.instruction.InstructionInfo;
+import jniosemu.instruction.InstructionManager;
+import jniosemu.instruction.InstructionSyntax;
+import jniosemu.instruction.emulator.Instruction;
+
+/**
+ * Micro-benchmark of instruction decoding. Compares the table based
+ * InstructionManager.get() with the decoding it replaced (boxed HashMap
+ * lookup, class lookup by name and Constructor.newInstance()).
+ *
+ * Usage: java jniosemu.DecodeBenchmark [decodes per round]
+ */
+public class DecodeBenchmark
+{
+	private static final int ROUNDS = 5;
+
+	/**
+	 * Keeps decoded instructions alive so the JIT can't remove the work.
+	 */
+	private static Instruction[] sink = new Instruction[1024];
+
+	/**
+	 * InstructionInfo by opcode hash, as InstructionManager used to keep it.
+	 */
+	private static HashMap<Integer, InstructionInfo> opCodeHash = new HashMap<Integer, InstructionInfo>();
+
+	public static void main(String[] args) throws Exception {
+		int count = 2000000;
+		if (args.length > 0)
+			count = Integer.parseInt(args[0]);
+
+		int[] opCodes = opCodes(count);
+
+		for (int round = 1; round <= ROUNDS; round++) {
+			long reflection = reflectionDecode(opCodes);
+			long table = tableDecode(opCodes);
+
+			System.out.println("Round "+ round +": reflection "+ nsPerDecode(reflection, count) +" ns/decode, table "+ nsPerDecode(table, count) +" ns/decode");
+		}
+	}
+
+	/**
+	 * Build random opcodes of every implemented instruction.
+	 */
+	private static int[] opCodes(int count) {
+		ArrayList<InstructionInfo> infos = new ArrayList<InstructionInfo>();
+		for (InstructionSyntax syntax : InstructionManager.getAllInstructionSyntax()) {
+			if (syntax instanceof InstructionInfo && ((InstructionInfo)syntax).getFactory() != null) {
+				infos.add((InstructionInfo)syntax);
+				opCodeHash.put(((InstructionInfo)syntax).getHash(), (InstructionInfo)syntax);
+			}
+		}
+
+		Random random = new Random(4711);
+		int[] opCodes = new int[count];
+		for (int i = 0; i < count; i++) {
+			InstructionInfo info = infos.get(random.nextInt(infos.size()));
+			int opCode = info.getOpCode();
+			if ((opCode & 0x3F) == 0x3A)
+				opCode |= random.nextInt() & 0xFFFE07C0;
+			else
+				opCode |= random.nextInt() & 0xFFFFFFC0;
+
+			opCodes[i] = opCode;
+		}
+
+		return opCodes;
+	}
+
+	private static long tableDecode(int[] opCodes) throws Exception {
+		long start = System.nanoTime();
+		for (int i = 0; i < opCodes.length; i++)
+			sink[i & 1023] = InstructionManager.get(opCodes[i]);
+
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Decode the way InstructionManager.get() used to do it.
+	 */
+	private static long reflectionDecode(int[] opCodes) throws Exception {
+		long start = System.nanoTime();
+		for (int i = 0; i < opCodes.length; i++) {
+			int opCode = opCodes[i];
+			InstructionInfo info = opCodeHash.get(InstructionManager.getHash(opCode));
+			Constructor<?> c = Class.forName(info.getClassName()).getConstructors()[0];
+			Object[] args = new Object[]{opCode};
+			sink[i & 1023] = (Instruction)c.newInstance(args);
+		}
+
+		return System.nanoTime() - start;
+	}
+
+	private static String nsPerDecode(long time, int count) {
+		return String.format("%.1f", (double)time / count);
+	}
+}
@@ -0,0 +1,114 @@
+package jniosemu;
+
+import java.util.regex.*;
+import jniosemu.emulator.EmulatorManager;
+import jniosemu.emulator.compiler.Compiler;
+import jniosemu.emulator.memory.MemoryManager;
+
+/**
+ * Registers, pc, instruction count and some bytes of memory, copied
+ * from an EmulatorManager so tests can compare states.
+ */
+class EmulatorState
+{
+	/**
+	 * Pairs of first and last address of the bytes copied.
+	 */
+	private final int[] ranges;
+
+	int[] registers;
+	int pc;
+	long count;
+	byte[] bytes;
+
+	/**
+	 * Copy the state of the emulation.
+	 *
+	 * @param  emulatorManager  emulation to copy
+	 * @param  ranges           pairs of first and last address of the bytes to copy
+	 */
+	public EmulatorState(EmulatorManager emulatorManager, int[] ranges) {
+		this.ranges = ranges;
+		this.registers = emulatorManager.getRegisterManager().getValues().clone();
+		this.pc = emulatorManager.readPC();
+		this.count = emulatorManager.getInstructionCount();
+
+		int length = 0;
+		for (int i = 0; i < ranges.length; i += 2)
+			length += ranges[i + 1] - ranges[i] + 1;
+
+		MemoryManager memory = emulatorManager.getMemoryManager();
+		this.bytes = new byte[length];
+		int index = 0;
+		for (int i = 0; i < ranges.length; i += 2) {
+			for (int addr = ranges[i]; addr <= ranges[i + 1]; addr++)
+				this.bytes[index++] = memory.getBlock(addr).readRawByte(addr);
+		}
+	}
+
+	/**
+	 * Find the first byte in a range that differs.
+	 *
+	 * @param  other  state with the same ranges to compare with
+	 * @param  first  first address of the range
+	 * @param  last   last address of the range
+	 * @return  address of the byte, or null if they are the same
+	 */
+	public Integer differs(EmulatorState other, int first, int last) {
+		int index = 0;
+		for (int i = 0; i < this.ranges.length; i += 2) {
+			for (int addr = this.ranges[i]; addr <= this.ranges[i + 1]; addr++, index++) {
+				if (addr >= first && addr <= last && this.bytes[index] != other.bytes[index])
+					return addr;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Compare with another state.
+	 *
+	 * @param  other  state with the same ranges to compare with
+	 * @param  when   when the other state was taken, for the message
+	 * @return  the first difference, or null if they are the same
+	 */
+	public String compare(EmulatorState other, String when) {
+		for (int i = 0; i < this.registers.length; i++) {
+			if (this.registers[i] != other.registers[i])
+				return "r" + i + "=" + other.registers[i] + " " + when + ", expected " + this.registers[i];
+		}
+		if (this.pc != other.pc)
+			return "pc=0x" + Integer.toHexString(other.pc) + " " + when + ", expected 0x" + Integer.toHexString(this.pc);
+		if (this.count != other.count)
+			return other.count + " instructions " + when + ", expected " + this.count;
+
+		Integer addr = this.differs(other, Integer.MIN_VALUE, Integer.MAX_VALUE);
+		if (addr != null)
+			return "byte at 0x" + Integer.toHexString(addr) + " differs " + when;
+
+		return null;
+	}
+
+	/**
+	 * Check the registers against the "# rN = value" lines in a program.
+	 *
+	 * @param  fileContent  source of the program
+	 * @return  the first register that differs, or null if all are as expected
+	 */
+	public String check(String fileContent) {
+		Matcher mLabels = Pattern.compile("# r(\\d+) = (.*)\n").matcher(fileContent);
+		while (mLabels.find()) {
+			int registerNum = java.lang.Integer.parseInt(mLabels.group(1));
+			int registerValue;
+			try {
+				registerValue = (int)Compiler.parseValue(mLabels.group(2));
+			}
+			catch(Exception e) {
+				return e.getMessage();
+			}
+			if (this.registers[registerNum] != registerValue)
+				return "Register r"+registerNum+"="+registerValue+" failed";
+		}
+		return null;
+	}
+}
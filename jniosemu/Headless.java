@@ -0,0 +1,556 @@
+package jniosemu;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Vector;
+
+import jniosemu.editor.Editor;
+import jniosemu.emulator.Breakpoints;
+import jniosemu.emulator.Condition;
+import jniosemu.emulator.EmulatorException;
+import jniosemu.emulator.EmulatorManager;
+import jniosemu.emulator.Pacer;
+import jniosemu.emulator.memory.SparseMemory;
+import jniosemu.emulator.memory.io.SerialDevice;
+import jniosemu.emulator.register.Register;
+import jniosemu.events.EventManager;
+import jniosemu.events.EventObserver;
+
+/**
+ * Compile and run programs without a GUI. Every file is run to the end,
+ * or until an error or a limit is reached, and the result is written to
+ * stdout as one JSON object per line.
+ * <p>
+ * Events are sent synchronously so no threads are started and many
+ * files can be run in the same JVM. With -j the files are run in
+ * parallel by ParallelRunner.
+ * <p>
+ * With -in and -out uart_0 reads from and writes to a file, or stdin and
+ * stdout if the name is -. Output written to -out isn't part of the
+ * result.
+ * <p>
+ * With -ram a RAM is added at an address, like the SDRAM of the board.
+ * It is only allocated where it is written to, or kept in a file if one
+ * is given. The file is overwritten and holds the RAM after the run.
+ * <p>
+ * With -break and -watch the run stops at a breakpoint on a line, or
+ * after an instruction that reads or writes a range of memory, when the
+ * condition is true, see Condition. The status is then "breakpoint".
+ * <p>
+ * Usage: java jniosemu.Headless [-i instructions] [-t milliseconds] [-r rate] [-in file] [-out file] [-ram address:size[:file]] [-break line[:condition]] [-watch start:end:access[:condition]] [-j threads] file ...
+ */
+public class Headless implements EventObserver
+{
+	/**
+	 * Default max number of instructions per file
+	 */
+	public static final long INSTRUCTIONLIMIT = 100000000L;
+	/**
+	 * Default max run time per file in ms
+	 */
+	public static final long TIMELIMIT = 10000L;
+
+	private String compileError = null;
+	private String emulatorError = null;
+	private StringBuffer uart0 = new StringBuffer();
+	private StringBuffer uart1 = new StringBuffer();
+	/**
+	 * File that uart_0 reads from, - for stdin, null to read nothing
+	 */
+	private String input = null;
+	/**
+	 * Channel that uart_0 writes to, null to put the output in the result
+	 */
+	private WritableByteChannel output = null;
+	/**
+	 * RAM added to the memory map, as address:size[:file]
+	 */
+	private ArrayList<String> ram = new ArrayList<String>();
+	/**
+	 * Breakpoints, as line[:condition]
+	 */
+	private ArrayList<String> breakpoints = new ArrayList<String>();
+	/**
+	 * Watchpoints, as start:end:access[:condition]
+	 */
+	private ArrayList<String> watchpoints = new ArrayList<String>();
+
+	public Headless() {
+	}
+
+	/**
+	 * Init Headless with host endpoints for uart_0
+	 *
+	 * @param input  File that uart_0 reads from, - for stdin, null to read nothing
+	 * @param output  Channel that uart_0 writes to, null to put the output in the result
+	 */
+	public Headless(String input, WritableByteChannel output) {
+		this.input = input;
+		this.output = output;
+	}
+
+	/**
+	 * Add a RAM to the memory map of every file that is run
+	 *
+	 * @param ram  address:size[:file], address and size may be hex with 0x
+	 * @throws NumberFormatException  If ram isn't address:size[:file]
+	 */
+	public void addRam(String ram) {
+		splitRam(ram);
+		this.ram.add(ram);
+	}
+
+	/**
+	 * Add a breakpoint to every file that is run
+	 *
+	 * @param breakpoint  line[:condition]
+	 * @throws NumberFormatException  If breakpoint isn't line[:condition]
+	 * @throws EmulatorException  If the condition can't be parsed
+	 */
+	public void addBreakpoint(String breakpoint) throws EmulatorException {
+		splitBreakpoint(breakpoint);
+		this.breakpoints.add(breakpoint);
+	}
+
+	/**
+	 * Add a watchpoint to every file that is run
+	 *
+	 * @param watchpoint  start:end:access[:condition]
+	 * @throws NumberFormatException  If watchpoint isn't start:end:access[:condition]
+	 * @throws EmulatorException  If the condition can't be parsed
+	 */
+	public void addWatchpoint(String watchpoint) throws EmulatorException {
+		splitWatchpoint(watchpoint);
+		this.watchpoints.add(watchpoint);
+	}
+
+	/**
+	 * Split a breakpoint given as line[:condition]
+	 *
+	 * @calledby main(), addBreakpoint(), run()
+	 * @calls Condition.compile()
+	 *
+	 * @param breakpoint  line[:condition]
+	 * @return Line and optionally condition
+	 * @throws NumberFormatException  If breakpoint isn't line[:condition]
+	 * @throws EmulatorException  If the condition can't be parsed
+	 */
+	private static String[] splitBreakpoint(String breakpoint) throws EmulatorException {
+		String[] parts = breakpoint.split(":", 2);
+		if (Integer.parseInt(parts[0]) <= 0)
+			throw new NumberFormatException(breakpoint);
+
+		if (parts.length > 1)
+			Condition.compile(parts[1]);
+
+		return parts;
+	}
+
+	/**
+	 * Split a watchpoint given as start:end:access[:condition], where
+	 * access is r, w or rw
+	 *
+	 * @calledby main(), addWatchpoint(), run()
+	 * @calls Condition.compile()
+	 *
+	 * @param watchpoint  start:end:access[:condition]
+	 * @return Start, end, access and optionally condition
+	 * @throws NumberFormatException  If watchpoint isn't start:end:access[:condition]
+	 * @throws EmulatorException  If the condition can't be parsed
+	 */
+	private static String[] splitWatchpoint(String watchpoint) throws EmulatorException {
+		String[] parts = watchpoint.split(":", 4);
+		if (parts.length < 3)
+			throw new NumberFormatException(watchpoint);
+
+		long start = Long.decode(parts[0]);
+		long end = Long.decode(parts[1]);
+		if (start < 0 || end < start || end > Integer.MAX_VALUE || access(parts[2]) == 0)
+			throw new NumberFormatException(watchpoint);
+
+		if (parts.length > 3)
+			Condition.compile(parts[3]);
+
+		return parts;
+	}
+
+	/**
+	 * Get the access types of a watchpoint
+	 *
+	 * @calledby splitWatchpoint(), run()
+	 *
+	 * @param access  r, w or rw
+	 * @return Breakpoints.READ and Breakpoints.WRITE bits, 0 if access is none of them
+	 */
+	private static int access(String access) {
+		if (access.equals("r"))
+			return Breakpoints.READ;
+		else if (access.equals("w"))
+			return Breakpoints.WRITE;
+		else if (access.equals("rw"))
+			return Breakpoints.READ | Breakpoints.WRITE;
+
+		return 0;
+	}
+
+	/**
+	 * Split a RAM given as address:size[:file]
+	 *
+	 * @calledby main(), addRam(), newRam()
+	 *
+	 * @param ram  address:size[:file]
+	 * @return Address, size and optionally file
+	 * @throws NumberFormatException  If ram isn't address:size[:file]
+	 */
+	private static String[] splitRam(String ram) {
+		String[] parts = ram.split(":", 3);
+		if (parts.length < 2)
+			throw new NumberFormatException(ram);
+
+		long start = Long.decode(parts[0]);
+		long length = Long.decode(parts[1]);
+		if (start < 0 || length <= 0 || start + length > Integer.MAX_VALUE)
+			throw new NumberFormatException(ram);
+
+		return parts;
+	}
+
+	/**
+	 * Create a RAM given as address:size[:file]
+	 *
+	 * @calledby run()
+	 *
+	 * @param name  Name of the RAM
+	 * @param ram  address:size[:file]
+	 * @return The RAM
+	 * @throws IOException  If the file can't be created
+	 */
+	private static SparseMemory newRam(String name, String ram) throws IOException {
+		String[] parts = splitRam(ram);
+		File file = (parts.length > 2) ? new File(parts[2]) : null;
+		return new SparseMemory(name, Long.decode(parts[0]).intValue(), Long.decode(parts[1]).intValue(), file);
+	}
+
+	public static void main(String[] args) {
+		long instructionLimit = INSTRUCTIONLIMIT;
+		long timeLimit = TIMELIMIT;
+		long rate = 0;
+		String input = null;
+		String output = null;
+		ArrayList<String> ram = new ArrayList<String>();
+		ArrayList<String> breakpoints = new ArrayList<String>();
+		ArrayList<String> watchpoints = new ArrayList<String>();
+		int threads = 1;
+
+		int i = 0;
+		try {
+			for (; i < args.length && args[i].startsWith("-"); i++) {
+				if (args[i].equals("-i")) {
+					instructionLimit = Long.parseLong(args[++i]);
+				} else if (args[i].equals("-t")) {
+					timeLimit = Long.parseLong(args[++i]);
+				} else if (args[i].equals("-r")) {
+					rate = Long.parseLong(args[++i]);
+				} else if (args[i].equals("-in")) {
+					input = args[++i];
+				} else if (args[i].equals("-out")) {
+					output = args[++i];
+				} else if (args[i].equals("-ram")) {
+					splitRam(args[++i]);
+					ram.add(args[i]);
+				} else if (args[i].equals("-break")) {
+					splitBreakpoint(args[++i]);
+					breakpoints.add(args[i]);
+				} else if (args[i].equals("-watch")) {
+					splitWatchpoint(args[++i]);
+					watchpoints.add(args[i]);
+				} else if (args[i].equals("-j")) {
+					threads = Integer.parseInt(args[++i]);
+				} else {
+					usage();
+					return;
+				}
+			}
+		} catch (Exception e) {
+			usage();
+			return;
+		}
+
+		// The endpoints and RAM files can't be shared by files running in
+		// parallel, and ParallelRunner only runs with the default options
+		if (i == args.length || (threads != 1 && (input != null || output != null || !ram.isEmpty() || !breakpoints.isEmpty() || !watchpoints.isEmpty()))) {
+			usage();
+			return;
+		}
+
+		if (threads == 1) {
+			WritableByteChannel channel = null;
+			try {
+				if (output != null)
+					channel = output.equals("-") ? new FileOutputStream(FileDescriptor.out).getChannel() : new FileOutputStream(output).getChannel();
+			} catch (IOException e) {
+				System.err.println("Error: "+ e.getMessage());
+				return;
+			}
+
+			try {
+				for (; i < args.length; i++) {
+					Headless headless = new Headless(input, channel);
+					for (String spec : ram)
+						headless.addRam(spec);
+					for (String spec : breakpoints)
+						headless.addBreakpoint(spec);
+					for (String spec : watchpoints)
+						headless.addWatchpoint(spec);
+					System.out.println(headless.run(args[i], instructionLimit, timeLimit, rate));
+				}
+			} catch (EmulatorException e) {
+				// the options were checked above
+				System.err.println("Error: "+ e.getMessage());
+			} finally {
+				// stdout is left open for the results
+				if (channel != null && !output.equals("-")) {
+					try {
+						channel.close();
+					} catch (IOException e) {
+						System.err.println("Error: "+ e.getMessage());
+					}
+				}
+			}
+		} else {
+			String[] files = new String[args.length - i];
+			System.arraycopy(args, i, files, 0, files.length);
+			for (String result : ParallelRunner.run(files, instructionLimit, timeLimit, rate, threads))
+				System.out.println(result);
+		}
+	}
+
+	private static void usage() {
+		System.err.println("Usage: java jniosemu.Headless [-i instructions] [-t milliseconds] [-r rate] [-in file] [-out file] [-ram address:size[:file]] [-break line[:condition]] [-watch start:end:access[:condition]] [-j threads] file ...");
+		System.err.println("  -i  Max number of instructions per file, 0 for no limit (default "+ INSTRUCTIONLIMIT +")");
+		System.err.println("  -t  Max run time per file in ms, 0 for no limit (default "+ TIMELIMIT +")");
+		System.err.println("  -r  Run in real time at this many instructions per second, 0 for as fast as possible (default 0)");
+		System.err.println("  -in  File that uart_0 reads from, - for stdin");
+		System.err.println("  -out  File that uart_0 writes to, - for stdout");
+		System.err.println("  -ram  Add a RAM of size bytes at address, kept in file if given, can be repeated");
+		System.err.println("  -break  Stop at a breakpoint on line when condition is true, can be repeated");
+		System.err.println("  -watch  Stop after an instruction reads (r), writes (w) or either (rw) a byte from start to end when condition is true, can be repeated");
+		System.err.println("  Conditions compare registers and hits with constants, like \"r2 == 0x10 && hits > 3\"");
+		System.err.println("  -j  Number of files to run in parallel, 0 for one per processor (default 1)");
+	}
+
+	/**
+	 * Compile and run a file
+	 *
+	 * @calledby main(), ParallelRunner
+	 * @calls EmulatorManager.compile(), EmulatorManager.execRun()
+	 *
+	 * @param filename  Source file
+	 * @param instructionLimit  Max number of instructions, 0 for no limit
+	 * @param timeLimit  Max run time in ms, 0 for no limit
+	 * @param rate  Instructions per second in real time, 0 for as fast as possible
+	 * @return Result as JSON
+	 */
+	public String run(String filename, long instructionLimit, long timeLimit, long rate) {
+		StringBuffer json = new StringBuffer();
+		json.append("{\"file\":").append(quote(filename));
+
+		String source;
+		try {
+			source = Editor.read(filename);
+		} catch (IOException e) {
+			return json.append(",\"status\":\"io-error\",\"error\":").append(quote(e.getMessage())).append("}").toString();
+		}
+
+		EventManager eventManager = new EventManager(true);
+		EventManager.EVENT[] events = {
+			EventManager.EVENT.COMPILER_ERROR,
+			EventManager.EVENT.EMULATOR_ERROR,
+			EventManager.EVENT.UART0_OUTPUT,
+			EventManager.EVENT.UART1_OUTPUT
+		};
+		eventManager.addEventObserver(events, this);
+
+		EmulatorManager emulatorManager = new EmulatorManager(eventManager);
+
+		// Include files are relative to the source file
+		String dir = new File(filename).getAbsoluteFile().getParent();
+		eventManager.sendEvent(EventManager.EVENT.CURRENT_DIRECTORY, dir);
+
+		emulatorManager.compile(source);
+		if (this.compileError != null || emulatorManager.getProgram() == null)
+			return json.append(",\"status\":\"compile-error\",\"error\":").append(quote(this.compileError)).append("}").toString();
+
+		try {
+			for (int i = 0; i < this.ram.size(); i++)
+				emulatorManager.addRam(newRam("ram_"+ i, this.ram.get(i)));
+		} catch (IOException e) {
+			return json.append(",\"status\":\"io-error\",\"error\":").append(quote(e.getMessage())).append("}").toString();
+		} catch (IllegalArgumentException e) {
+			return json.append(",\"status\":\"error\",\"error\":").append(quote(e.getMessage())).append("}").toString();
+		}
+
+		try {
+			for (String spec : this.breakpoints) {
+				String[] parts = splitBreakpoint(spec);
+				int lineNumber = Integer.parseInt(parts[0]);
+				String condition = (parts.length > 1) ? parts[1] : null;
+				// The same line may be given twice, so only toggle it on
+				if (!emulatorManager.setBreakpointCondition(lineNumber, condition)) {
+					emulatorManager.toggleBreakpoint(lineNumber);
+					if (!emulatorManager.setBreakpointCondition(lineNumber, condition))
+						return json.append(",\"status\":\"error\",\"error\":").append(quote("No instruction on line "+ lineNumber)).append("}").toString();
+				}
+			}
+			for (String spec : this.watchpoints) {
+				String[] parts = splitWatchpoint(spec);
+				String condition = (parts.length > 3) ? parts[3] : null;
+				emulatorManager.addWatchpoint(Long.decode(parts[0]).intValue(), Long.decode(parts[1]).intValue(), access(parts[2]), condition);
+			}
+		} catch (EmulatorException e) {
+			return json.append(",\"status\":\"error\",\"error\":").append(quote(e.getMessage())).append("}").toString();
+		}
+
+		SerialDevice uart = emulatorManager.getMemoryManager().getSerialDevice(0);
+		try {
+			if (this.input != null)
+				uart.setInput(this.input.equals("-") ? stdin() : new FileInputStream(this.input).getChannel());
+		} catch (IOException e) {
+			return json.append(",\"status\":\"io-error\",\"error\":").append(quote(e.getMessage())).append("}").toString();
+		}
+		uart.setOutput(this.output);
+
+		if (rate > 0) {
+			emulatorManager.setSpeed(EmulatorManager.SPEED.REALTIME);
+			emulatorManager.setRealTimeRate(rate);
+		} else {
+			emulatorManager.setSpeed(EmulatorManager.SPEED.ULTRA);
+		}
+		emulatorManager.setLimits(instructionLimit, timeLimit);
+		try {
+			emulatorManager.execRun(true, false);
+		} finally {
+			// Closes the input however the run ended
+			uart.setInput(null);
+		}
+
+		long count = emulatorManager.getInstructionCount();
+		String status;
+		if (this.emulatorError != null)
+			status = "error";
+		else if (emulatorManager.isEnded())
+			status = "ended";
+		else if (instructionLimit > 0 && count >= instructionLimit)
+			status = "instruction-limit";
+		else if (emulatorManager.limitReached())
+			status = "time-limit";
+		else
+			status = "breakpoint";
+
+		json.append(",\"status\":").append(quote(status));
+		json.append(",\"error\":").append(quote(this.emulatorError));
+		json.append(",\"instructions\":").append(count);
+		json.append(",\"pc\":").append(emulatorManager.readPC());
+		json.append(",\"registers\":[");
+		Vector<Register> registers = emulatorManager.getRegisterManager().get();
+		for (int i = 0; i < registers.size(); i++) {
+			if (i > 0)
+				json.append(",");
+			json.append(registers.get(i).getValue());
+		}
+		json.append("]");
+		if (rate > 0) {
+			Pacer pacer = emulatorManager.getPacer();
+			json.append(",\"rate\":").append(pacer.getRate(count));
+			json.append(",\"drift\":").append(pacer.getDrift());
+			json.append(",\"lost\":").append(pacer.getLostTime());
+		}
+		json.append(",\"uart0\":").append(quote(this.uart0.toString()));
+		json.append(",\"uart1\":").append(quote(this.uart1.toString()));
+		json.append("}");
+
+		return json.toString();
+	}
+
+	public void update(EventManager.EVENT eventIdentifier, Object obj) {
+		switch (eventIdentifier) {
+			case COMPILER_ERROR:
+				this.compileError = (String)obj;
+				break;
+			case EMULATOR_ERROR:
+				this.emulatorError = (String)obj;
+				break;
+			case UART0_OUTPUT:
+				this.uart0.append(((Character)obj).charValue());
+				break;
+			case UART1_OUTPUT:
+				this.uart1.append(((Character)obj).charValue());
+				break;
+		}
+	}
+
+	/**
+	 * Get a channel of stdin that leaves stdin open when it is closed, so
+	 * the next file can read on from where this one stopped
+	 *
+	 * @calledby run()
+	 *
+	 * @return Channel of stdin
+	 */
+	private static ReadableByteChannel stdin() {
+		return Channels.newChannel(new FilterInputStream(System.in) {
+			public void close() {
+			}
+		});
+	}
+
+	/**
+	 * Quote a string as a JSON string
+	 *
+	 * @param value  String to quote, may be null
+	 * @return JSON string or null
+	 */
+	private static String quote(String value) {
+		if (value == null)
+			return "null";
+
+		StringBuffer ret = new StringBuffer(value.length() + 2);
+		ret.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"':
+					ret.append("\\\"");
+					break;
+				case '\\':
+					ret.append("\\\\");
+					break;
+				case '\n':
+					ret.append("\\n");
+					break;
+				case '\r':
+					ret.append("\\r");
+					break;
+				case '\t':
+					ret.append("\\t");
+					break;
+				default:
+					if (c < 0x20 || c > 0x7E)
+						ret.append(String.format("\\u%04x", (int)c));
+					else
+						ret.append(c);
+			}
+		}
+		ret.append('"');
+
+		return ret.toString();
+	}
+}
@@ -80,7 +80,7 @@ public class InstructionsTest {
 
 		int regCount = 0;
 
-		Pattern pLabels = Pattern.compile("# r(\\d) = (.*)\n");
+		Pattern pLabels = Pattern.compile("# r(\\d+) = (.*)\n");
 		Matcher mLabels = pLabels.matcher(fileContent);
 		while (mLabels.find()) {
 			regNum.add(mLabels.group(1));
@@ -88,15 +88,22 @@ public class InstructionsTest {
 			regCount++;
 		}
 
-		EventManager eventManager = new EventManager();
+		EventManager eventManager = new EventManager(true);
 
 		// Add listener for COMPILE_ERROR, EMULATOR_ERROR
 
 		EmulatorManager emulatorManager = new EmulatorManager(eventManager);
 		emulatorManager.compile(fileContent);
-		emulatorManager.setSpeed(EmulatorManager.SPEED.ULTRA);
 
-		for (int i = 0; i < 2; i++) {
+		// Interpreted first, then with every block compiled to bytecode the
+		// first time it is run, so the compiler is checked against the
+		// interpreter
+		emulatorManager.setCompileThreshold(1);
+		EmulatorManager.SPEED[] speeds = {EmulatorManager.SPEED.NORMAL, EmulatorManager.SPEED.ULTRA};
+		int[] interpreted = null;
+
+		for (int i = 0; i < speeds.length; i++) {
+			emulatorManager.setSpeed(speeds[i]);
 			emulatorManager.execRun(true, false);
 
 			// Wait until EMULATOR_DONE
@@ -114,11 +121,23 @@ public class InstructionsTest {
 					return TEST_FAILED;
 				}
 				if(registerManager.read(registerNum) != registerValue) {
-					error_msg = new String("Register r"+registerNum+"="+registerValue+" failed");
+					error_msg = new String("Register r"+registerNum+"="+registerValue+" failed in "+speeds[i]);
 					return TEST_FAILED;
 				}
 			}
 
+			int[] values = registerManager.getValues();
+			if (interpreted == null) {
+				interpreted = values.clone();
+			} else {
+				for (int j = 0; j < values.length; j++) {
+					if (values[j] != interpreted[j]) {
+						error_msg = new String("Register r"+j+"="+values[j]+" in "+speeds[i]+", "+interpreted[j]+" in "+speeds[0]);
+						return TEST_FAILED;
+					}
+				}
+			}
+
 			emulatorManager.reset();
 		}
 	
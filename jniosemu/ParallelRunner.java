@@ -0,0 +1,83 @@
+package jniosemu;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Run many programs at the same time on a fork-join pool. Every program
+ * gets its own Headless instance with its own EventManager,
+ * EmulatorManager, MemoryManager and RegisterManager, so nothing but the
+ * read-only instruction tables is shared between the threads.
+ * <p>
+ * The results are returned in the same order as the files, whatever
+ * order they finish in. Results that depend on a time limit may still
+ * differ between runs.
+ */
+public class ParallelRunner
+{
+	/**
+	 * Run files in parallel
+	 *
+	 * @calledby Headless.main()
+	 * @calls Headless.run()
+	 *
+	 * @param files  Source files
+	 * @param instructionLimit  Max number of instructions per file, 0 for no limit
+	 * @param timeLimit  Max run time per file in ms, 0 for no limit
+	 * @param rate  Instructions per second in real time, 0 for as fast as possible
+	 * @param parallelism  Number of threads, 0 for one per processor
+	 * @return The JSON result of every file, in the same order as files
+	 */
+	public static String[] run(String[] files, long instructionLimit, long timeLimit, long rate, int parallelism) {
+		if (parallelism <= 0)
+			parallelism = Runtime.getRuntime().availableProcessors();
+
+		String[] results = new String[files.length];
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new RunTask(files, results, 0, files.length, instructionLimit, timeLimit, rate));
+		} finally {
+			pool.shutdown();
+		}
+
+		return results;
+	}
+
+	/**
+	 * Runs a range of the files, split in halves until only one file is left
+	 */
+	private static class RunTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final String[] files;
+		private final String[] results;
+		private final int start;
+		private final int end;
+		private final long instructionLimit;
+		private final long timeLimit;
+		private final long rate;
+
+		public RunTask(String[] files, String[] results, int start, int end, long instructionLimit, long timeLimit, long rate) {
+			this.files = files;
+			this.results = results;
+			this.start = start;
+			this.end = end;
+			this.instructionLimit = instructionLimit;
+			this.timeLimit = timeLimit;
+			this.rate = rate;
+		}
+
+		protected void compute() {
+			if (this.end - this.start == 1) {
+				this.results[this.start] = new Headless().run(this.files[this.start], this.instructionLimit, this.timeLimit, this.rate);
+			} else if (this.end - this.start > 1) {
+				int middle = (this.start + this.end) >>> 1;
+				invokeAll(
+					new RunTask(this.files, this.results, this.start, middle, this.instructionLimit, this.timeLimit, this.rate),
+					new RunTask(this.files, this.results, middle, this.end, this.instructionLimit, this.timeLimit, this.rate)
+				);
+			}
+		}
+	}
+}
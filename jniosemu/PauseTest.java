@@ -0,0 +1,248 @@
+package jniosemu;
+
+import java.io.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import jniosemu.events.EventManager;
+import jniosemu.events.EventObserver;
+import jniosemu.emulator.EmulatorManager;
+import jniosemu.editor.Editor;
+
+/**
+ * Runs a program that writes to uart_0 forever, with a console that is
+ * slower than the program, and checks that EMULATOR_PAUSE stops it and
+ * EMULATOR_RESET loads it again however full the event queue is.
+ */
+public class PauseTest {
+
+	public static final int TEST_FAILED = -1;
+
+	/**
+	 * Time the program runs before it is paused, in milliseconds.
+	 */
+	public static final int RUNTIME = 200;
+
+	/**
+	 * Max time from the pause until no more instructions are run, in
+	 * milliseconds.
+	 */
+	public static final int BOUND = 50;
+
+	/**
+	 * Max time the EmulatorManager may take to reset, in milliseconds.
+	 * It waits up to 1000 ms for the emulation thread to stop.
+	 */
+	public static final int RESETBOUND = 100;
+
+	/**
+	 * Max time until the reset is sent after the queued characters, in
+	 * milliseconds.
+	 */
+	public static final int DISPATCHBOUND = 5000;
+
+	/**
+	 * Time each character takes in the console, in nanoseconds.
+	 */
+	public static final int CHARTIME = 100000;
+
+	static String error_msg;
+
+	public static void main(String [] args) {
+
+		String filename = "asm_test/uartloop.s";
+		if (args.length > 0) {
+			filename = args[0];
+		}
+
+		String fileContent;
+		try {
+			fileContent = Editor.read(filename);
+		}
+		catch(IOException e) {
+			System.out.println("Error: " + e.getMessage());
+			return;
+		}
+
+		EmulatorManager.SPEED[] speeds = {EmulatorManager.SPEED.FAST, EmulatorManager.SPEED.ULTRA};
+		String[] tests = {"pause", "reset"};
+		int numTests = 0;
+		int numSucceded = 0;
+
+		for (int i = 0; i < speeds.length; i++) {
+			for (int j = 0; j < tests.length; j++) {
+				System.out.print("Test [" + numTests++ + "] (" + tests[j] + " " + filename + " " + speeds[i] + ")");
+
+				long result = (j == 0) ? testPause(fileContent, speeds[i]) : testReset(fileContent, speeds[i]);
+
+				if (result == TEST_FAILED) {
+					System.out.println("\t failed: (" + error_msg + ")");
+				} else {
+					numSucceded++;
+					System.out.println("\t" + (j == 0 ? " stopped" : " reset") + " in " + result + " ms \t successful");
+				}
+			}
+		}
+
+		System.out.println("Tests done. ("+numTests+" total: " + numSucceded + " successful, "+(numTests - numSucceded)+" failed.)");
+
+		System.exit(0);
+	}
+
+	/**
+	 * Create an EventManager with a console that is slower than the
+	 * program.
+	 *
+	 * @param  received  set to the number of characters received
+	 * @return  EventManager with an event sender thread
+	 */
+	private static EventManager slowConsole(final int[] received) {
+		EventManager eventManager = new EventManager();
+		eventManager.addEventObserver(EventManager.EVENT.UART0_OUTPUT, new EventObserver() {
+			public void update(EventManager.EVENT eventIdentifier, Object obj) {
+				received[0]++;
+				LockSupport.parkNanos(CHARTIME);
+			}
+		});
+		return eventManager;
+	}
+
+	/**
+	 * Check that the program has run and written to uart_0.
+	 *
+	 * @param  emulatorManager  emulation
+	 * @param  received         number of characters received
+	 * @return  true if it has
+	 */
+	private static boolean checkRunning(EmulatorManager emulatorManager, int[] received) {
+		if (emulatorManager.getInstructionCount() == 0) {
+			error_msg = "no instructions were run";
+			return false;
+		}
+		if (received[0] == 0) {
+			error_msg = "nothing was written to uart_0";
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Run the program, pause it and wait until it has stopped.
+	 *
+	 * @param  fileContent  source of the program
+	 * @param  speed        speed to run at
+	 * @return  milliseconds from the pause until it stopped, or TEST_FAILED
+	 */
+	public static long testPause(String fileContent, EmulatorManager.SPEED speed) {
+
+		int[] received = new int[1];
+		EventManager eventManager = slowConsole(received);
+
+		final EmulatorManager emulatorManager = new EmulatorManager(eventManager);
+		emulatorManager.compile(fileContent);
+		emulatorManager.setSpeed(speed);
+
+		Thread runningThread = new Thread(new Runnable() {
+			public void run() {
+				emulatorManager.execRun(true, false);
+			}
+		});
+		runningThread.start();
+
+		try {
+			Thread.sleep(RUNTIME);
+			if (!checkRunning(emulatorManager, received))
+				return TEST_FAILED;
+
+			long start = System.currentTimeMillis();
+			eventManager.sendEvent(EventManager.EVENT.EMULATOR_PAUSE);
+
+			runningThread.join(BOUND);
+			long stopped = System.currentTimeMillis() - start;
+
+			long count = emulatorManager.getInstructionCount();
+			Thread.sleep(100);
+			if (runningThread.isAlive() || emulatorManager.getInstructionCount() != count) {
+				error_msg = "instructions were still run " + BOUND + " ms after the pause";
+				return TEST_FAILED;
+			}
+
+			return stopped;
+		}
+		catch(InterruptedException e) {
+			error_msg = e.getMessage();
+			return TEST_FAILED;
+		}
+	}
+
+	/**
+	 * Run the program with EMULATOR_RUN and reset it with EMULATOR_RESET,
+	 * which waits for the emulation thread in the event sender thread.
+	 * Check that the reset doesn't wait for the join to time out and that
+	 * the old run is stopped when the program is loaded again.
+	 *
+	 * @param  fileContent  source of the program
+	 * @param  speed        speed to run at
+	 * @return  milliseconds the reset took, or TEST_FAILED
+	 */
+	public static long testReset(String fileContent, EmulatorManager.SPEED speed) {
+
+		int[] received = new int[1];
+		EventManager eventManager = slowConsole(received);
+
+		// observers are called in the order they are added, so these are
+		// called before and after the reset of the EmulatorManager
+		final long[] resetTime = new long[2];
+		eventManager.addEventObserver(EventManager.EVENT.EMULATOR_RESET, new EventObserver() {
+			public void update(EventManager.EVENT eventIdentifier, Object obj) {
+				resetTime[0] = System.currentTimeMillis();
+			}
+		});
+
+		final EmulatorManager emulatorManager = new EmulatorManager(eventManager);
+		emulatorManager.compile(fileContent);
+		emulatorManager.setSpeed(speed);
+
+		final CountDownLatch reset = new CountDownLatch(1);
+		eventManager.addEventObserver(EventManager.EVENT.EMULATOR_RESET, new EventObserver() {
+			public void update(EventManager.EVENT eventIdentifier, Object obj) {
+				resetTime[1] = System.currentTimeMillis();
+				reset.countDown();
+			}
+		});
+
+		try {
+			eventManager.sendEvent(EventManager.EVENT.EMULATOR_RUN);
+			Thread.sleep(RUNTIME);
+			if (!checkRunning(emulatorManager, received))
+				return TEST_FAILED;
+
+			// the reset is sent after the queued characters
+			eventManager.sendEvent(EventManager.EVENT.EMULATOR_RESET);
+			if (!reset.await(DISPATCHBOUND, TimeUnit.MILLISECONDS)) {
+				error_msg = "the reset wasn't sent within " + DISPATCHBOUND + " ms";
+				return TEST_FAILED;
+			}
+
+			long resetting = resetTime[1] - resetTime[0];
+			if (resetting > RESETBOUND) {
+				error_msg = "the reset took " + resetting + " ms";
+				return TEST_FAILED;
+			}
+
+			int startAddr = emulatorManager.getProgram().getStartAddr();
+			Thread.sleep(100);
+			if (emulatorManager.getInstructionCount() != 0 || emulatorManager.readPC() != startAddr) {
+				error_msg = "the old run continued after the reset, pc=0x" + Integer.toHexString(emulatorManager.readPC()) + " and " + emulatorManager.getInstructionCount() + " instructions";
+				return TEST_FAILED;
+			}
+
+			return resetting;
+		}
+		catch(InterruptedException e) {
+			error_msg = e.getMessage();
+			return TEST_FAILED;
+		}
+	}
+
+}
@@ -0,0 +1,144 @@
+package jniosemu;
+
+import java.io.*;
+import jniosemu.events.EventManager;
+import jniosemu.emulator.EmulatorManager;
+import jniosemu.emulator.Snapshot;
+import jniosemu.emulator.memory.MemoryManager;
+import jniosemu.emulator.memory.SparseMemory;
+import jniosemu.editor.Editor;
+
+/**
+ * Runs a program that writes to Memory, SparseMemory and devices and
+ * checks that restore() brings back the state of a snapshot, and that
+ * the program then runs to the same end again.
+ */
+public class SnapshotTest {
+
+	/**
+	 * Start of the SparseMemory the program writes to.
+	 */
+	public static final int RAMADDR = 0x01000000;
+
+	/**
+	 * Number of instructions run before the snapshot in the middle.
+	 */
+	public static final int MIDDLE = 20;
+
+	/**
+	 * Bytes compared, pairs of first and last address: the data, two
+	 * pages of the RAM, the leds and the timer.
+	 */
+	private static final int[] RANGES = {
+		MemoryManager.VARIABLESTARTADDR, MemoryManager.VARIABLESTARTADDR + 3,
+		RAMADDR, RAMADDR + 3,
+		RAMADDR + 0x1000, RAMADDR + 0x1003,
+		0x810, 0x813,
+		0x820, 0x837
+	};
+
+	static String error_msg;
+
+	public static void main(String [] args) {
+
+		String filename = "asm_test/debug/snapshot.s";
+		if (args.length > 0) {
+			filename = args[0];
+		}
+
+		String[] tests = {"restore the middle", "restore the start", "restore a discarded snapshot"};
+		int numSucceded = 0;
+		int passed = processFile(filename);
+
+		for (int i = 0; i < tests.length; i++) {
+			System.out.print("Test [" + i + "] (" + tests[i] + ")");
+			if (i < passed) {
+				numSucceded++;
+				System.out.println("\t successful");
+			} else if (i == passed) {
+				System.out.println("\t failed: (" + error_msg + ")");
+			} else {
+				System.out.println("\t not run");
+			}
+		}
+
+		System.out.println("Tests done. ("+tests.length+" total: " + numSucceded + " successful, "+(tests.length - numSucceded)+" failed.)");
+
+		System.exit(0);
+	}
+
+	/**
+	 * Run the program to the end from the start and from a snapshot in
+	 * the middle, restoring each snapshot in turn.
+	 *
+	 * @param  filename  file with the program
+	 * @return  number of tests that passed, they are run in order
+	 */
+	public static int processFile(String filename) {
+
+		EmulatorManager emulatorManager = new EmulatorManager(new EventManager(true));
+		try {
+			String fileContent = Editor.read(filename);
+			emulatorManager.compile(fileContent);
+			emulatorManager.addRam(new SparseMemory("ram", RAMADDR, 0x1000000, null));
+			emulatorManager.setSpeed(EmulatorManager.SPEED.FAST);
+
+			Snapshot start = emulatorManager.snapshot();
+			EmulatorState atStart = new EmulatorState(emulatorManager, RANGES);
+
+			emulatorManager.setLimits(MIDDLE, 0);
+			emulatorManager.execRun(true, false);
+			Snapshot middle = emulatorManager.snapshot();
+			EmulatorState atMiddle = new EmulatorState(emulatorManager, RANGES);
+
+			emulatorManager.setLimits(0, 0);
+			emulatorManager.execRun(true, false);
+			EmulatorState atEnd = new EmulatorState(emulatorManager, RANGES);
+
+			if (!emulatorManager.isEnded()) {
+				error_msg = "the program didn't end";
+				return 0;
+			}
+			error_msg = atEnd.check(fileContent);
+			if (error_msg != null)
+				return 0;
+			for (int i = 0; i < RANGES.length; i += 2) {
+				if (atStart.differs(atEnd, RANGES[i], RANGES[i + 1]) == null) {
+					error_msg = "0x" + Integer.toHexString(RANGES[i]) + " wasn't written";
+					return 0;
+				}
+			}
+
+			Snapshot[] snapshots = {middle, start};
+			EmulatorState[] states = {atMiddle, atStart};
+			for (int i = 0; i < snapshots.length; i++) {
+				if (!emulatorManager.restore(snapshots[i])) {
+					error_msg = "restore() failed";
+					return i;
+				}
+
+				error_msg = states[i].compare(new EmulatorState(emulatorManager, RANGES), "after restore()");
+				if (error_msg != null)
+					return i;
+
+				emulatorManager.execRun(true, false);
+				error_msg = atEnd.compare(new EmulatorState(emulatorManager, RANGES), "at the end after restore()");
+				if (error_msg != null)
+					return i;
+			}
+
+			// restoring the start discarded the snapshot in the middle
+			if (emulatorManager.restore(middle)) {
+				error_msg = "restore() of a discarded snapshot succeeded";
+				return 2;
+			}
+		}
+		catch(Exception e) {
+			error_msg = e.toString();
+			return 0;
+		}
+
+		return 3;
+	}
+
+}
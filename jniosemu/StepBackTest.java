@@ -0,0 +1,170 @@
+package jniosemu;
+
+import java.io.*;
+import java.util.ArrayList;
+import jniosemu.events.EventManager;
+import jniosemu.emulator.EmulatorManager;
+import jniosemu.emulator.memory.MemoryManager;
+import jniosemu.editor.Editor;
+
+/**
+ * Steps a program that writes to the data and the stack forward and
+ * back again, and checks that every step back brings back the state
+ * from before the instruction.
+ */
+public class StepBackTest {
+
+	/**
+	 * Entries in the undo log for the bounded window test, every size
+	 * from MINWINDOW to MAXWINDOW is tested.
+	 */
+	public static final int MINWINDOW = 16;
+	public static final int MAXWINDOW = 48;
+
+	/**
+	 * Bytes compared, pairs of first and last address: the data and
+	 * the stack.
+	 */
+	private static final int[] RANGES = {
+		MemoryManager.VARIABLESTARTADDR, MemoryManager.VARIABLESTARTADDR + 11,
+		MemoryManager.STACKSTARTADDR - MemoryManager.STACKSIZE, MemoryManager.STACKSTARTADDR - 1
+	};
+
+	private static final String[] TESTS = {"step back to the start", "run forward again", "run back to the start", "step back through a bounded window"};
+
+	static String error_msg;
+
+	public static void main(String [] args) {
+
+		String filename = "asm_test/debug/stepback.s";
+		if (args.length > 0) {
+			filename = args[0];
+		}
+
+		String fileContent;
+		try {
+			fileContent = Editor.read(filename);
+		}
+		catch(IOException e) {
+			System.out.println("Error: " + e.getMessage());
+			return;
+		}
+
+		EmulatorManager.SPEED[] speeds = {EmulatorManager.SPEED.NORMAL, EmulatorManager.SPEED.FAST};
+		int numTests = 0;
+		int numSucceded = 0;
+
+		for (int i = 0; i < speeds.length; i++) {
+			int passed = processFile(fileContent, speeds[i]);
+
+			for (int j = 0; j < TESTS.length; j++) {
+				System.out.print("Test [" + numTests++ + "] (" + TESTS[j] + " in " + speeds[i] + ")");
+				if (j < passed) {
+					numSucceded++;
+					System.out.println("\t successful");
+				} else if (j == passed) {
+					System.out.println("\t failed: (" + error_msg + ")");
+				} else {
+					System.out.println("\t not run");
+				}
+			}
+		}
+
+		System.out.println("Tests done. ("+numTests+" total: " + numSucceded + " successful, "+(numTests - numSucceded)+" failed.)");
+
+		System.exit(0);
+	}
+
+	/**
+	 * Step the program to the end, recording the state after every step,
+	 * and step and run back to the start.
+	 *
+	 * @param  fileContent  source of the program
+	 * @param  speed        speed to run at
+	 * @return  number of TESTS that passed, they are run in order
+	 */
+	public static int processFile(String fileContent, EmulatorManager.SPEED speed) {
+
+		EmulatorManager emulatorManager = new EmulatorManager(new EventManager(true));
+		emulatorManager.compile(fileContent);
+		emulatorManager.setSpeed(speed);
+
+		ArrayList<EmulatorState> states = new ArrayList<EmulatorState>();
+		states.add(new EmulatorState(emulatorManager, RANGES));
+		while (!emulatorManager.isEnded()) {
+			emulatorManager.execRun(false, false);
+
+			// the last step finds the end without running an instruction
+			if (emulatorManager.getInstructionCount() > states.get(states.size() - 1).count)
+				states.add(new EmulatorState(emulatorManager, RANGES));
+		}
+
+		EmulatorState atEnd = states.get(states.size() - 1);
+		error_msg = atEnd.check(fileContent);
+		if (error_msg != null)
+			return 0;
+
+		// every step back must give the state before that step
+		for (int i = states.size() - 2; i >= 0; i--) {
+			if (!emulatorManager.stepBack()) {
+				error_msg = "nothing to step back to at step " + i;
+				return 0;
+			}
+
+			error_msg = states.get(i).compare(new EmulatorState(emulatorManager, RANGES), "after stepping back to step " + i);
+			if (error_msg != null)
+				return 0;
+		}
+		if (emulatorManager.stepBack()) {
+			error_msg = "stepped back from the start";
+			return 0;
+		}
+
+		emulatorManager.execRun(true, false);
+		error_msg = atEnd.compare(new EmulatorState(emulatorManager, RANGES), "at the end after stepping back");
+		if (error_msg != null)
+			return 1;
+
+		emulatorManager.runBack(true);
+		error_msg = states.get(0).compare(new EmulatorState(emulatorManager, RANGES), "after running back");
+		if (error_msg != null)
+			return 2;
+
+		// with a small window only the last instructions can be undone,
+		// and whole instructions are dropped wherever the window ends
+		for (int window = MINWINDOW; window <= MAXWINDOW; window++) {
+			emulatorManager.reset();
+			emulatorManager.setUndoWindow(window);
+			emulatorManager.execRun(true, false);
+			while (emulatorManager.stepBack());
+
+			error_msg = compareWith(states, new EmulatorState(emulatorManager, RANGES), atEnd.count, "after stepping back through a window of " + window);
+			if (error_msg != null)
+				return 3;
+		}
+
+		return 4;
+	}
+
+	/**
+	 * Compare a state with the one recorded at the same instruction.
+	 *
+	 * @param  states  recorded states, one per instruction
+	 * @param  state   state to compare
+	 * @param  end     instruction count at the end
+	 * @param  when    when the state was taken, for the message
+	 * @return  the first difference, or null if they are the same
+	 */
+	private static String compareWith(ArrayList<EmulatorState> states, EmulatorState state, long end, String when) {
+		if (state.count == 0 || state.count >= end)
+			return "stepped back to instruction " + state.count + " " + when;
+
+		for (EmulatorState recorded : states) {
+			if (recorded.count == state.count)
+				return recorded.compare(state, when);
+		}
+
+		return "instruction " + state.count + " wasn't run";
+	}
+
+}
@@ -0,0 +1,112 @@
+package jniosemu;
+
+import java.io.*;
+import java.util.regex.*;
+import jniosemu.events.EventManager;
+import jniosemu.emulator.EmulatorManager;
+import jniosemu.editor.Editor;
+
+/**
+ * Runs a program that polls the timer status register for time outs
+ * and checks the instruction count each time out is seen at. Lines
+ * marked "# timeout" get a breakpoint, and the expected instruction
+ * counts are listed in a "# timeouts = ..." line.
+ */
+public class TimerTest {
+
+	public static final int TEST_FAILED = -1;
+
+	static String error_msg;
+
+	public static void main(String [] args) {
+
+		String filename = "asm_test/debug/timer.s";
+		if (args.length > 0) {
+			filename = args[0];
+		}
+
+		String fileContent;
+		try {
+			fileContent = Editor.read(filename);
+		}
+		catch(IOException e) {
+			System.out.println("Error: " + e.getMessage());
+			return;
+		}
+
+		EmulatorManager.SPEED[] speeds = {EmulatorManager.SPEED.NORMAL, EmulatorManager.SPEED.ULTRA};
+		int numSucceded = 0;
+
+		for (int i = 0; i < speeds.length; i++) {
+			System.out.print("Test [" + i + "] (" + filename + " " + speeds[i] + ")");
+
+			int result = processFile(fileContent, speeds[i]);
+
+			if (result == TEST_FAILED) {
+				System.out.println("\t failed: (" + error_msg + ")");
+			} else {
+				numSucceded++;
+				System.out.println("\t" + result + " time outs \t successful");
+			}
+		}
+
+		System.out.println("Tests done. ("+speeds.length+" total: " + numSucceded + " successful, "+(speeds.length - numSucceded)+" failed.)");
+
+		System.exit(0);
+	}
+
+	/**
+	 * Run the program from breakpoint to breakpoint and compare the
+	 * instruction counts.
+	 *
+	 * @param  fileContent  source of the program
+	 * @param  speed        speed to run at
+	 * @return  number of time outs checked, or TEST_FAILED
+	 */
+	public static int processFile(String fileContent, EmulatorManager.SPEED speed) {
+
+		Matcher mTimeouts = Pattern.compile("# timeouts = (.*)\n").matcher(fileContent);
+		if (!mTimeouts.find()) {
+			error_msg = "no \"# timeouts\" line";
+			return TEST_FAILED;
+		}
+		String expected = mTimeouts.group(1).trim();
+
+		EmulatorManager emulatorManager = new EmulatorManager(new EventManager(true));
+		emulatorManager.compile(fileContent);
+
+		// compile every block the first time it is run in ULTRA
+		emulatorManager.setCompileThreshold(1);
+		emulatorManager.setSpeed(speed);
+
+		String[] lines = fileContent.split("\n");
+		for (int i = 0; i < lines.length; i++) {
+			if (lines[i].trim().endsWith("# timeout"))
+				emulatorManager.toggleBreakpoint(i + 1);
+		}
+
+		int numTimeouts = expected.split("\\s+").length;
+		String seen = "";
+		for (int i = 0; ; i++) {
+			emulatorManager.execRun(true, false);
+			if (emulatorManager.isEnded())
+				break;
+
+			seen += (i > 0 ? " " : "") + emulatorManager.getInstructionCount();
+			if (i >= numTimeouts)
+				break;
+		}
+
+		if (!seen.equals(expected)) {
+			error_msg = "time outs seen at " + seen + ", expected " + expected;
+			return TEST_FAILED;
+		}
+
+		error_msg = new EmulatorState(emulatorManager, new int[0]).check(fileContent);
+		if (error_msg != null)
+			return TEST_FAILED;
+
+		return numTimeouts;
+	}
+
+}
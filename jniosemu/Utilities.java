@@ -67,15 +67,19 @@ public class Utilities
 		return byteArrayToInt(value, 0);
 	}
 
-	public static long byteArrayToLong(byte[] value) {
+	public static long byteArrayToLong(byte[] value, int offset) {
 		long ret = 0;
 
 		for (int i = 0; i < 8; i++)
-			ret |= ((long)value[i] << (8 * i));
+			ret |= ((long)value[i+offset] << (8 * i));
 
 		return ret;
 	}
 
+	public static long byteArrayToLong(byte[] value) {
+		return byteArrayToLong(value, 0);
+	}
+
 	public static Vector<Boolean> intToVector(int value, int size) {
 		Vector<Boolean> ret = new Vector<Boolean>(size);
 
@@ -0,0 +1,183 @@
+package jniosemu.emulator;
+
+import java.util.ArrayList;
+
+import jniosemu.emulator.jit.CompiledBlock;
+import jniosemu.emulator.memory.MemoryBlock;
+import jniosemu.instruction.emulator.Instruction;
+
+/**
+ * A straight run of decoded instructions that is entered at the top and
+ * left at the bottom. A block ends after an instruction that may change
+ * the program counter, before an opcode 0 and before a breakpoint.
+ */
+public class BasicBlock
+{
+	/**
+	 * Address of the first instruction
+	 */
+	private final int start;
+	/**
+	 * The decoded instructions of the block
+	 */
+	private final Instruction[] instructions;
+	/**
+	 * MemoryBlock the instructions was read from
+	 */
+	private final MemoryBlock memoryBlock;
+	/**
+	 * Code version of memoryBlock when the block was translated
+	 */
+	private final int codeVersion;
+	/**
+	 * Blocks that have been executed after this one. A block has at most
+	 * two successors except when it ends with a jmp, callr or ret.
+	 */
+	private BasicBlock[] successors = new BasicBlock[2];
+	/**
+	 * Slot in successors that will be replaced next
+	 */
+	private int nextSuccessor = 0;
+	/**
+	 * Number of times the block has been executed
+	 */
+	private int executions = 0;
+	/**
+	 * The block compiled to bytecode, null until it has been compiled
+	 */
+	private CompiledBlock compiledBlock = null;
+
+	private BasicBlock(int start, Instruction[] instructions, MemoryBlock memoryBlock, int codeVersion) {
+		this.start = start;
+		this.instructions = instructions;
+		this.memoryBlock = memoryBlock;
+		this.codeVersion = codeVersion;
+	}
+
+	/**
+	 * Translate the code starting at an address into a block
+	 *
+	 * @calledby EmulatorManager.stepBlock()
+	 * @calls MemoryBlock.readInstruction()
+	 *
+	 * @param memoryBlock  MemoryBlock that contains addr
+	 * @param addr  Address of the first instruction
+	 * @param breakpoints  Breakpoint addresses, a block is never continued over one
+	 * @return The block or null if there is no instruction at addr that can be translated
+	 */
+	public static BasicBlock translate(MemoryBlock memoryBlock, int addr, Breakpoints breakpoints) {
+		int codeVersion = memoryBlock.getCodeVersion();
+		if (codeVersion < 0)
+			return null;
+
+		ArrayList<Instruction> instructions = new ArrayList<Instruction>();
+		for (int pc = addr; pc + 3 <= memoryBlock.getEnd(); pc += 4) {
+			Instruction instruction;
+			try {
+				instruction = memoryBlock.readInstruction(pc);
+			} catch (Exception e) {
+				// Leave the error to be reported when the instruction is executed
+				break;
+			}
+
+			if (instruction == null)
+				break;
+
+			instructions.add(instruction);
+
+			if (instruction.isControlFlow() || breakpoints.contains(pc + 4))
+				break;
+		}
+
+		if (instructions.isEmpty())
+			return null;
+
+		return new BasicBlock(addr, instructions.toArray(new Instruction[instructions.size()]), memoryBlock, codeVersion);
+	}
+
+	/**
+	 * Get the address of the first instruction
+	 *
+	 * @return Start address
+	 */
+	public int getStart() {
+		return this.start;
+	}
+
+	/**
+	 * Get the instructions of the block
+	 *
+	 * @return Instructions in execution order
+	 */
+	public Instruction[] getInstructions() {
+		return this.instructions;
+	}
+
+	/**
+	 * Check that the code the block was translated from is unchanged
+	 *
+	 * @return True if the block may be executed
+	 */
+	public boolean isValid() {
+		return this.memoryBlock.getCodeVersion() == this.codeVersion;
+	}
+
+	/**
+	 * Get a block that has been linked as successor of this block
+	 *
+	 * @param addr  Address of the successor
+	 * @return The successor or null if no block starting at addr is linked
+	 */
+	public BasicBlock getSuccessor(int addr) {
+		for (BasicBlock successor : this.successors) {
+			if (successor != null && successor.start == addr)
+				return successor;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Link a block that was executed directly after this block
+	 *
+	 * @param successor  Block that was executed next
+	 */
+	public void link(BasicBlock successor) {
+		for (int i = 0; i < this.successors.length; i++) {
+			if (this.successors[i] == null || this.successors[i].start == successor.start) {
+				this.successors[i] = successor;
+				return;
+			}
+		}
+
+		this.successors[this.nextSuccessor] = successor;
+		this.nextSuccessor = (this.nextSuccessor + 1) % this.successors.length;
+	}
+
+	/**
+	 * Count an execution of the block
+	 *
+	 * @calledby EmulatorManager.stepBlock()
+	 *
+	 * @return Number of executions including this one
+	 */
+	public int countExecution() {
+		if (this.executions < Integer.MAX_VALUE)
+			this.executions++;
+
+		return this.executions;
+	}
+
+	/**
+	 * Get the compiled version of the block
+	 *
+	 * @return The compiled block or null if it hasn't been compiled
+	 */
+	public CompiledBlock getCompiledBlock() {
+		return this.compiledBlock;
+	}
+
+	public void setCompiledBlock(CompiledBlock compiledBlock) {
+		this.compiledBlock = compiledBlock;
+	}
+}
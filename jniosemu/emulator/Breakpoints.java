@@ -0,0 +1,363 @@
+package jniosemu.emulator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import jniosemu.emulator.memory.MemoryManager;
+
+/**
+ * Breakpoints and watchpoints. The breakpoint addresses are kept in a
+ * bitset with one bit per instruction word from the start of the
+ * program, so checking the pc after every instruction doesn't box or
+ * lock. The line number of every breakpoint is kept as well for toggling
+ * them from the editor.
+ * <p>
+ * The bitset is replaced, never changed, when a breakpoint is toggled,
+ * so it can be read by the emulation thread while the GUI toggles.
+ * <p>
+ * Watchpoints are checked by MemoryManager, which only calls access()
+ * for pages that carry a watchpoint. Both may have a Condition, which is
+ * tested after the instruction that reached them.
+ */
+public class Breakpoints
+{
+	/**
+	 * Watchpoint access types
+	 */
+	public static final int READ = 1;
+	public static final int WRITE = 2;
+
+	/**
+	 * Address of the first bit. Breakpoints can only be set in the code,
+	 * which is placed from here and up.
+	 */
+	private static final int BASE = MemoryManager.PROGRAMSTARTADDR;
+
+	/**
+	 * One bit per word from BASE, null if there are no breakpoints
+	 */
+	private volatile long[] bits = null;
+	/**
+	 * Every breakpoint by address
+	 */
+	private HashMap<Integer, Breakpoint> breakpoints = new HashMap<Integer, Breakpoint>();
+	/**
+	 * Every watchpoint, replaced when one is added or removed
+	 */
+	private volatile Watchpoint[] watchpoints = new Watchpoint[0];
+	/**
+	 * True if a watchpoint has been accessed since the last stop()
+	 */
+	private boolean watchTriggered = false;
+
+	/**
+	 * A breakpoint
+	 */
+	private static class Breakpoint
+	{
+		private final int lineNumber;
+		private Condition condition = null;
+		private int hits = 0;
+
+		public Breakpoint(int lineNumber) {
+			this.lineNumber = lineNumber;
+		}
+	}
+
+	/**
+	 * A watchpoint on the bytes from start to end
+	 */
+	private static class Watchpoint
+	{
+		private final int start;
+		private final int end;
+		private final int access;
+		private final Condition condition;
+		private int hits = 0;
+		private boolean triggered = false;
+
+		public Watchpoint(int start, int end, int access, Condition condition) {
+			this.start = start;
+			this.end = end;
+			this.access = access;
+			this.condition = condition;
+		}
+	}
+
+	/**
+	 * Check if there is a breakpoint at an address
+	 *
+	 * @calledby EmulatorManager, BasicBlock.translate()
+	 *
+	 * @param addr  Address
+	 * @return True if there is a breakpoint at addr
+	 */
+	public boolean contains(int addr) {
+		long[] bits = this.bits;
+		if (bits == null)
+			return false;
+
+		int word = (addr - BASE) >>> 2;
+		return (word >>> 6) < bits.length && (bits[word >>> 6] & 1L << word) != 0;
+	}
+
+	/**
+	 * Check if there are any breakpoints
+	 *
+	 * @return True if there are no breakpoints
+	 */
+	public boolean isEmpty() {
+		return this.bits == null;
+	}
+
+	/**
+	 * Add a breakpoint
+	 *
+	 * @calledby EmulatorManager.toggleBreakpoint()
+	 *
+	 * @param addr  Address of the instruction
+	 * @param lineNumber  Line of the instruction
+	 */
+	public synchronized void add(int addr, int lineNumber) {
+		if (addr < BASE || (addr & 3) != 0)
+			return;
+
+		this.breakpoints.put(addr, new Breakpoint(lineNumber));
+		this.update();
+	}
+
+	/**
+	 * Remove a breakpoint
+	 *
+	 * @calledby EmulatorManager.toggleBreakpoint()
+	 *
+	 * @param addr  Address of the instruction
+	 */
+	public synchronized void remove(int addr) {
+		if (this.breakpoints.remove(addr) != null)
+			this.update();
+	}
+
+	/**
+	 * Get the line of a breakpoint
+	 *
+	 * @param addr  Address of the breakpoint
+	 * @return Line number, -1 if there is no breakpoint at addr
+	 */
+	public synchronized int getLineNumber(int addr) {
+		Breakpoint breakpoint = this.breakpoints.get(addr);
+		return (breakpoint == null) ? -1 : breakpoint.lineNumber;
+	}
+
+	/**
+	 * Set the condition of a breakpoint and reset its hit count
+	 *
+	 * @calledby EmulatorManager.setBreakpointCondition()
+	 *
+	 * @param addr  Address of the breakpoint
+	 * @param condition  Condition, null to always stop
+	 * @return False if there is no breakpoint at addr
+	 */
+	public synchronized boolean setCondition(int addr, Condition condition) {
+		Breakpoint breakpoint = this.breakpoints.get(addr);
+		if (breakpoint == null)
+			return false;
+
+		breakpoint.condition = condition;
+		breakpoint.hits = 0;
+		return true;
+	}
+
+	/**
+	 * Rebuild the bitset from breakpoints
+	 *
+	 * @calledby add(), remove()
+	 */
+	private void update() {
+		if (this.breakpoints.isEmpty()) {
+			this.bits = null;
+			return;
+		}
+
+		int last = 0;
+		for (int addr : this.breakpoints.keySet())
+			last = Math.max(last, (addr - BASE) >>> 2);
+
+		long[] bits = new long[(last >>> 6) + 1];
+		for (int addr : this.breakpoints.keySet()) {
+			int word = (addr - BASE) >>> 2;
+			bits[word >>> 6] |= 1L << word;
+		}
+
+		this.bits = bits;
+	}
+
+	/**
+	 * Add a watchpoint
+	 *
+	 * @calledby EmulatorManager.addWatchpoint()
+	 *
+	 * @param start  Address of the first byte
+	 * @param end  Address of the last byte
+	 * @param access  READ, WRITE or both
+	 * @param condition  Condition, null to always stop
+	 */
+	public synchronized void addWatchpoint(int start, int end, int access, Condition condition) {
+		Watchpoint[] watchpoints = new Watchpoint[this.watchpoints.length + 1];
+		System.arraycopy(this.watchpoints, 0, watchpoints, 0, this.watchpoints.length);
+		watchpoints[this.watchpoints.length] = new Watchpoint(start, end, access, condition);
+		this.watchpoints = watchpoints;
+	}
+
+	/**
+	 * Remove the watchpoints that start at an address
+	 *
+	 * @calledby EmulatorManager.removeWatchpoint()
+	 *
+	 * @param start  Address of the first byte
+	 */
+	public synchronized void removeWatchpoint(int start) {
+		ArrayList<Watchpoint> watchpoints = new ArrayList<Watchpoint>();
+		for (Watchpoint watchpoint : this.watchpoints) {
+			if (watchpoint.start != start)
+				watchpoints.add(watchpoint);
+		}
+
+		this.watchpoints = watchpoints.toArray(new Watchpoint[watchpoints.size()]);
+	}
+
+	/**
+	 * Check if there are any watchpoints
+	 *
+	 * @calledby EmulatorManager, MemoryManager
+	 *
+	 * @return True if there is at least one watchpoint
+	 */
+	public boolean hasWatchpoints() {
+		return this.watchpoints.length > 0;
+	}
+
+	/**
+	 * Check if a watchpoint has been accessed since the last stop()
+	 *
+	 * @calledby EmulatorManager.stepBlock()
+	 *
+	 * @return True if stop() should be called
+	 */
+	public boolean isTriggered() {
+		return this.watchTriggered;
+	}
+
+	/**
+	 * Get the access types watched in a range
+	 *
+	 * @calledby MemoryManager.updateWatchPages()
+	 *
+	 * @param start  Address of the first byte
+	 * @param end  Address of the last byte
+	 * @return READ and WRITE bits of the watchpoints that overlap the range
+	 */
+	public int getWatchAccess(int start, int end) {
+		int access = 0;
+		for (Watchpoint watchpoint : this.watchpoints) {
+			if (watchpoint.start <= end && start <= watchpoint.end)
+				access |= watchpoint.access;
+		}
+
+		return access;
+	}
+
+	/**
+	 * Mark the watchpoints that an access hits. The emulation stops at the
+	 * next call to stop().
+	 *
+	 * @calledby MemoryManager
+	 *
+	 * @param addr  Address of the first byte
+	 * @param count  Number of bytes
+	 * @param access  READ or WRITE
+	 */
+	public void access(int addr, int count, int access) {
+		for (Watchpoint watchpoint : this.watchpoints) {
+			if ((watchpoint.access & access) != 0 && watchpoint.start <= addr + count - 1 && addr <= watchpoint.end) {
+				watchpoint.triggered = true;
+				this.watchTriggered = true;
+			}
+		}
+	}
+
+	/**
+	 * Check if the emulation should stop after an instruction, that is if
+	 * it accessed a watchpoint or pc is at a breakpoint, and the condition
+	 * is true. Every watchpoint or breakpoint that is reached counts a hit.
+	 *
+	 * @calledby EmulatorManager.step(), EmulatorManager.stepBlock()
+	 *
+	 * @param pc  Address of the next instruction
+	 * @param registers  Register values
+	 * @return True if the emulation should stop
+	 */
+	public boolean stop(int pc, int[] registers) {
+		boolean stop = false;
+		if (this.watchTriggered) {
+			this.watchTriggered = false;
+			for (Watchpoint watchpoint : this.watchpoints) {
+				if (watchpoint.triggered) {
+					watchpoint.triggered = false;
+					watchpoint.hits++;
+					if (watchpoint.condition == null || watchpoint.condition.test(registers, watchpoint.hits))
+						stop = true;
+				}
+			}
+		}
+
+		if (this.contains(pc)) {
+			synchronized (this) {
+				Breakpoint breakpoint = this.breakpoints.get(pc);
+				if (breakpoint != null) {
+					breakpoint.hits++;
+					if (breakpoint.condition == null || breakpoint.condition.test(registers, breakpoint.hits))
+						stop = true;
+				}
+			}
+		}
+
+		return stop;
+	}
+
+	/**
+	 * Check the condition of the breakpoint at an address without
+	 * counting a hit
+	 *
+	 * @calledby EmulatorManager.runBack()
+	 *
+	 * @param pc  Address of the instruction
+	 * @param registers  Register values
+	 * @return True if there is a breakpoint at pc and its condition is true
+	 */
+	public boolean matches(int pc, int[] registers) {
+		if (!this.contains(pc))
+			return false;
+
+		synchronized (this) {
+			Breakpoint breakpoint = this.breakpoints.get(pc);
+			return breakpoint != null && (breakpoint.condition == null || breakpoint.condition.test(registers, breakpoint.hits));
+		}
+	}
+
+	/**
+	 * Reset the hit count of every breakpoint and watchpoint
+	 *
+	 * @calledby EmulatorManager.load()
+	 */
+	public synchronized void resetHits() {
+		for (Breakpoint breakpoint : this.breakpoints.values())
+			breakpoint.hits = 0;
+
+		for (Watchpoint watchpoint : this.watchpoints) {
+			watchpoint.hits = 0;
+			watchpoint.triggered = false;
+		}
+		this.watchTriggered = false;
+	}
+}
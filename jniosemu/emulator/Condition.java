@@ -0,0 +1,225 @@
+package jniosemu.emulator;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import jniosemu.emulator.register.RegisterException;
+import jniosemu.emulator.register.RegisterManager;
+
+/**
+ * Condition of a breakpoint or watchpoint, compiled once from a string
+ * like "r4 == 0x10 && hits > 100". A condition is one or more
+ * comparisons joined by && and ||, where && binds harder. The operands
+ * are registers, numbers and hits, the number of times the breakpoint
+ * or watchpoint has been reached including this time. Comparisons are
+ * signed.
+ */
+public abstract class Condition
+{
+	/**
+	 * Operand kinds
+	 */
+	private static final int CONSTANT = 0;
+	private static final int REGISTER = 1;
+	private static final int HITS = 2;
+
+	/**
+	 * Comparison operators
+	 */
+	private static final String[] OPERATORS = {"==", "!=", "<", "<=", ">", ">="};
+
+	private static final Pattern COMPARISON = Pattern.compile("\\s*(\\S+?)\\s*(==|!=|<=|>=|<|>)\\s*(\\S+)\\s*");
+
+	/**
+	 * Test the condition
+	 *
+	 * @calledby Breakpoints
+	 *
+	 * @param registers  Register values
+	 * @param hits  Number of times the breakpoint or watchpoint has been reached
+	 * @return True if the emulation should stop
+	 */
+	public abstract boolean test(int[] registers, int hits);
+
+	/**
+	 * Compile a condition
+	 *
+	 * @calledby EmulatorManager.setBreakpointCondition(), EmulatorManager.addWatchpoint(), Headless.splitBreakpoint(), Headless.splitWatchpoint()
+	 *
+	 * @param text  Condition
+	 * @return Compiled condition
+	 * @throws EmulatorException  If the condition can't be parsed
+	 */
+	public static Condition compile(String text) throws EmulatorException {
+		// keep empty terms, so "a &&" is an error and not "a"
+		String[] terms = text.split("\\|\\|", -1);
+		Condition[] or = new Condition[terms.length];
+		for (int i = 0; i < terms.length; i++) {
+			String[] factors = terms[i].split("&&", -1);
+			Condition[] and = new Condition[factors.length];
+			for (int j = 0; j < factors.length; j++)
+				and[j] = comparison(factors[j]);
+
+			or[i] = (and.length == 1) ? and[0] : new And(and);
+		}
+
+		return (or.length == 1) ? or[0] : new Or(or);
+	}
+
+	/**
+	 * Compile one comparison
+	 *
+	 * @calledby compile()
+	 *
+	 * @param text  Comparison
+	 * @return Compiled comparison
+	 * @throws EmulatorException  If the comparison can't be parsed
+	 */
+	private static Condition comparison(String text) throws EmulatorException {
+		Matcher m = COMPARISON.matcher(text);
+		if (!m.matches())
+			throw new EmulatorException("Invalid condition: "+ text.trim());
+
+		int operator = 0;
+		while (!OPERATORS[operator].equals(m.group(2)))
+			operator++;
+
+		Comparison comparison = new Comparison(operator);
+		comparison.leftKind = kind(m.group(1));
+		comparison.left = operand(m.group(1), comparison.leftKind);
+		comparison.rightKind = kind(m.group(3));
+		comparison.right = operand(m.group(3), comparison.rightKind);
+		return comparison;
+	}
+
+	/**
+	 * Get the kind of an operand
+	 *
+	 * @param text  Operand
+	 * @return CONSTANT, REGISTER or HITS
+	 */
+	private static int kind(String text) {
+		if (text.equals("hits"))
+			return HITS;
+
+		return Character.isDigit(text.charAt(0)) || text.charAt(0) == '-' ? CONSTANT : REGISTER;
+	}
+
+	/**
+	 * Parse an operand
+	 *
+	 * @calls RegisterManager.parseRegister()
+	 *
+	 * @param text  Operand
+	 * @param kind  Kind returned by kind()
+	 * @return Register number or value
+	 * @throws EmulatorException  If the operand is not a register or number
+	 */
+	private static int operand(String text, int kind) throws EmulatorException {
+		try {
+			switch (kind) {
+				case REGISTER:
+					int index = RegisterManager.parseRegister(text);
+					if (index < 0 || index > 31)
+						throw new EmulatorException("Invalid register in condition: "+ text);
+					return index;
+				case CONSTANT:
+					return (int)Long.decode(text).longValue();
+				default:
+					return 0;
+			}
+		} catch (RegisterException e) {
+			throw new EmulatorException("Invalid register in condition: "+ text);
+		} catch (NumberFormatException e) {
+			throw new EmulatorException("Invalid number in condition: "+ text);
+		}
+	}
+
+	/**
+	 * Comparison of two operands
+	 */
+	private static class Comparison extends Condition
+	{
+		private final int operator;
+		private int leftKind;
+		private int left;
+		private int rightKind;
+		private int right;
+
+		public Comparison(int operator) {
+			this.operator = operator;
+		}
+
+		public boolean test(int[] registers, int hits) {
+			int a = value(this.leftKind, this.left, registers, hits);
+			int b = value(this.rightKind, this.right, registers, hits);
+			switch (this.operator) {
+				case 0:
+					return a == b;
+				case 1:
+					return a != b;
+				case 2:
+					return a < b;
+				case 3:
+					return a <= b;
+				case 4:
+					return a > b;
+				default:
+					return a >= b;
+			}
+		}
+
+		private static int value(int kind, int value, int[] registers, int hits) {
+			switch (kind) {
+				case REGISTER:
+					return registers[value];
+				case HITS:
+					return hits;
+				default:
+					return value;
+			}
+		}
+	}
+
+	/**
+	 * True if all conditions are true
+	 */
+	private static class And extends Condition
+	{
+		private final Condition[] conditions;
+
+		public And(Condition[] conditions) {
+			this.conditions = conditions;
+		}
+
+		public boolean test(int[] registers, int hits) {
+			for (Condition condition : this.conditions) {
+				if (!condition.test(registers, hits))
+					return false;
+			}
+
+			return true;
+		}
+	}
+
+	/**
+	 * True if any condition is true
+	 */
+	private static class Or extends Condition
+	{
+		private final Condition[] conditions;
+
+		public Or(Condition[] conditions) {
+			this.conditions = conditions;
+		}
+
+		public boolean test(int[] registers, int hits) {
+			for (Condition condition : this.conditions) {
+				if (condition.test(registers, hits))
+					return true;
+			}
+
+			return false;
+		}
+	}
+}
@@ -1,19 +1,21 @@
 package jniosemu.emulator;
 
 import java.util.ArrayList;
-import java.util.Hashtable;
+import java.util.HashMap;
 import java.lang.Thread;
 
 import jniosemu.events.EventManager;
 import jniosemu.events.EventObserver;
 import jniosemu.emulator.compiler.Compiler;
 import jniosemu.emulator.compiler.CompilerException;
+import jniosemu.emulator.jit.BlockCompiler;
+import jniosemu.emulator.jit.CompiledBlock;
 import jniosemu.emulator.memory.MemoryBlock;
+import jniosemu.emulator.memory.MemoryChange;
 import jniosemu.emulator.memory.MemoryException;
 import jniosemu.emulator.memory.MemoryManager;
+import jniosemu.emulator.memory.SparseMemory;
 import jniosemu.emulator.register.RegisterManager;
-import jniosemu.instruction.InstructionException;
-import jniosemu.instruction.InstructionManager;
 import jniosemu.instruction.emulator.Instruction;
 
 /**
@@ -22,9 +24,10 @@ import jniosemu.instruction.emulator.Instruction;
 public class EmulatorManager implements EventObserver
 {
 	/**
-	 * The different speed that is possible to run the emulator in
+	 * The different speed that is possible to run the emulator in. REALTIME
+	 * runs like ULTRA but paced to a number of instructions per second.
 	 */
-	public static enum SPEED {SLOW, NORMAL, FAST, ULTRA};
+	public static enum SPEED {SLOW, NORMAL, FAST, ULTRA, REALTIME};
 	/**
 	 * Program counter address
 	 */
@@ -71,11 +74,91 @@ public class EmulatorManager implements EventObserver
 	/**
 	 * Breakpoints
 	 */
-	private Hashtable<Integer, Integer> breakpoints = new Hashtable<Integer, Integer>();
+	private Breakpoints breakpoints = new Breakpoints();
+	/**
+	 * Number of instructions executed since the program was loaded
+	 */
+	private long instructionCount = 0;
+	/**
+	 * Translated basic blocks by start address
+	 */
+	private HashMap<Integer, BasicBlock> blocks = new HashMap<Integer, BasicBlock>();
+	/**
+	 * Block that was executed last, used to link it to its successor
+	 */
+	private BasicBlock lastBlock = null;
+	/**
+	 * Number of executions before a block is compiled to bytecode in ULTRA speed
+	 */
+	private static final int COMPILETHRESHOLD = 64;
+	/**
+	 * Number of executions before a block is compiled, COMPILETHRESHOLD
+	 * unless it has been set
+	 */
+	private int compileThreshold = COMPILETHRESHOLD;
+	/**
+	 * Set when the breakpoints change so the translated blocks are thrown away
+	 */
+	private volatile boolean flushBlocks = false;
+	/**
+	 * Default number of GUI updates per second while running FAST or ULTRA
+	 */
+	public static final int FRAMERATE = 30;
+	/**
+	 * Number of instructions between reading the time while running FAST or
+	 * ULTRA, so the clock isn't read after every block
+	 */
+	private static final int FRAMECHECK = 1 << 14;
+	/**
+	 * Time in ns between GUI updates while running FAST or ULTRA, 0 for none
+	 */
+	private long frameInterval = 1000000000L / FRAMERATE;
+	/**
+	 * Paces the emulation in REALTIME speed
+	 */
+	private Pacer pacer = new Pacer();
+	/**
+	 * Instructions per second in REALTIME speed
+	 */
+	private volatile long realTimeRate = Pacer.RATE;
+	/**
+	 * Max number of instructions since the program was loaded, 0 for no limit
+	 */
+	private long instructionLimit = 0;
+	/**
+	 * Time in ms when execRun() stops, 0 for no limit
+	 */
+	private long deadline = 0;
 	/**
 	 * Thread that the emulation runs in
 	 */
 	private Thread runningThread = null;
+	/**
+	 * Generations of the memory blocks in the last MEMORY_CHANGE event, null
+	 * if the next event should contain the whole memory
+	 */
+	private int[] memoryGenerations = null;
+	/**
+	 * Snapshot taken when the program was loaded, restored by load() as
+	 * long as the program is the same
+	 */
+	private Snapshot loadedState = null;
+	/**
+	 * RAM added by addRam(), added to the MemoryManager when it is created
+	 */
+	private ArrayList<SparseMemory> ram = new ArrayList<SparseMemory>();
+	/**
+	 * Default number of entries in the undo log
+	 */
+	public static final int UNDOWINDOW = 1 << 18;
+	/**
+	 * Changes made by the executed instructions, used to step back
+	 */
+	private UndoLog undoLog = new UndoLog(UNDOWINDOW);
+	/**
+	 * True if executed instructions are recorded in undoLog
+	 */
+	private boolean recording = true;
 
 	/**
 	 * Init EmulatorManager
@@ -94,6 +177,8 @@ public class EmulatorManager implements EventObserver
 			EventManager.EVENT.EMULATOR_PAUSE,
 			EventManager.EVENT.EMULATOR_STEP,
 			EventManager.EVENT.EMULATOR_STEP_OVER,
+			EventManager.EVENT.EMULATOR_STEP_BACK,
+			EventManager.EVENT.EMULATOR_RUN_BACK,
 			EventManager.EVENT.EMULATOR_TOGGLE_STEP_OVER,
 			EventManager.EVENT.EMULATOR_RESET,
 			EventManager.EVENT.EMULATOR_RUN,
@@ -155,8 +240,16 @@ public class EmulatorManager implements EventObserver
 		this.running = true;
 		this.startEvent();
 
+		// Nothing is highlighted while running fast, so don't record it
+		boolean trace = !(all && this.isBlockSpeed());
+		this.setTrace(trace);
+		// Compiled blocks write registers directly, so they can't be undone
+		this.setRecording(!(all && this.isCompileSpeed()));
+
 		int nextInstruction = 0;
-		int instructionCount = 0;
+		long nextCheck = this.instructionCount + FRAMECHECK;
+		long nextFrame = System.nanoTime() + this.frameInterval;
+		boolean paced = false;
 		int endPc;
 
 		do {
@@ -167,6 +260,8 @@ public class EmulatorManager implements EventObserver
 					endPc += 4;
 					while (this.step(false, false) > 0 && this.running && this.pc != endPc);
 				}
+			} else if (all && this.isBlockSpeed()) {
+				nextInstruction = this.stepBlock();
 			} else {
 				nextInstruction = this.step(true, false);
 			}
@@ -177,23 +272,207 @@ public class EmulatorManager implements EventObserver
 					try {
 						Thread.sleep(500);
 					} catch (InterruptedException e) {}
+					paced = false;
 					break;
 				case NORMAL:
 					this.pcChange();
+					paced = false;
 					break;
 				case FAST:
-					if ((++instructionCount) % 1009 == 0)
-						this.pcChange();
+				case ULTRA:
+					// Update the GUI at the frame rate however fast the instructions run
+					if (this.instructionCount >= nextCheck) {
+						nextCheck = this.instructionCount + FRAMECHECK;
+						long now = System.nanoTime();
+						if (this.frameInterval > 0 && now >= nextFrame) {
+							nextFrame = now + this.frameInterval;
+							this.pcChange();
+						}
+					}
+					paced = false;
+					break;
+				case REALTIME:
+					if (!paced) {
+						this.pacer.start(this.instructionCount, this.realTimeRate);
+						nextCheck = this.instructionCount;
+						paced = true;
+					}
+					// Pace once per batch, and update the GUI at the frame rate however slow the rate is
+					if (this.instructionCount >= nextCheck) {
+						while (!this.pacer.pace(this.instructionCount) && this.running);
+						nextCheck = this.instructionCount + this.pacer.getBatch();
+						long now = System.nanoTime();
+						if (this.frameInterval > 0 && now >= nextFrame) {
+							nextFrame = now + this.frameInterval;
+							this.pcChange();
+						}
+					}
 					break;
 			}
-		} while (nextInstruction > 0 && this.running && all);
+		} while (nextInstruction > 0 && this.running && all && !this.limitReached());
+
+		this.setRecording(true);
+
+		// Nothing is run after a pause, so the states stay empty until the
+		// next step
+		if (!trace)
+			this.setTrace(true);
 
 		this.pcChange();
+		this.memory.flush();
 
 		this.running = false;
 		this.stopEvent();
 	}
 
+	/**
+	 * Turn recording of READ/WRITE states on or off
+	 *
+	 * @calledby execRun()
+	 * @calls RegisterManager.setTrace(), MemoryManager.setTrace()
+	 *
+	 * @param trace  True if states should be recorded
+	 */
+	private void setTrace(boolean trace) {
+		this.register.setTrace(trace);
+		this.memory.setTrace(trace);
+	}
+
+	/**
+	 * Turn recording of executed instructions in the undo log on or off
+	 *
+	 * @post The log is cleared when recording is turned off
+	 * @calledby execRun(), load(), restore(), setUndoWindow()
+	 * @calls RegisterManager.setUndoLog(), MemoryManager.setUndoLog()
+	 *
+	 * @param recording  True if instructions should be recorded
+	 */
+	private void setRecording(boolean recording) {
+		if (!recording)
+			this.undoLog.clear();
+
+		this.recording = recording;
+		this.register.setUndoLog(recording ? this.undoLog : null);
+		this.memory.setUndoLog(recording ? this.undoLog : null);
+	}
+
+	/**
+	 * Set how many times a block is run before it is compiled to bytecode
+	 * in ULTRA speed. Blocks that have already been run that many times are
+	 * left as they are.
+	 *
+	 * @pre The emulation must not be running
+	 * @calledby InstructionsTest
+	 *
+	 * @param threshold  Number of executions, 1 to compile every block the first time it is run
+	 */
+	public void setCompileThreshold(int threshold) {
+		this.compileThreshold = threshold;
+	}
+
+	/**
+	 * Set how much history is kept for stepping back
+	 *
+	 * @pre The emulation must not be running
+	 *
+	 * @param entries  Max number of entries in the undo log, every instruction uses one plus one per write
+	 */
+	public void setUndoWindow(int entries) {
+		this.undoLog = new UndoLog(entries);
+		if (this.memory != null)
+			this.setRecording(this.recording);
+	}
+
+	/**
+	 * Undo the last executed instruction
+	 *
+	 * @pre The emulation must not be running
+	 * @calledby runBack()
+	 * @calls UndoLog.undo()
+	 *
+	 * @return False if there is nothing to undo
+	 */
+	public boolean stepBack() {
+		if (this.undoLog.isEmpty())
+			return false;
+
+		this.register.resetState();
+
+		int pc = this.undoLog.getPc();
+		this.instructionCount = this.undoLog.getInstructionCount(this.instructionCount);
+		this.undoLog.undo(this.register, this.memory);
+
+		this.pc = pc;
+		this.ended = false;
+		this.lastBlock = null;
+		return true;
+	}
+
+	/**
+	 * Step back one instruction, or until a breakpoint or the start of the
+	 * undo log is reached
+	 *
+	 * @calledby update()
+	 * @calls stepBack(), pcChange(), stopEvent()
+	 *
+	 * @param all  True if stepping back should continue to a breakpoint
+	 */
+	public void runBack(boolean all) {
+		if (this.running || this.memory == null)
+			return;
+
+		boolean stepped = false;
+		while (this.stepBack()) {
+			stepped = true;
+			if (!all || this.breakpoints.matches(this.pc, this.register.getValues()))
+				break;
+		}
+
+		if (stepped) {
+			this.pcChange();
+			this.stopEvent();
+		}
+	}
+
+	/**
+	 * Limit how long execRun() may run. Used when running without a GUI
+	 * where a program that never ends must still be stopped. The limits
+	 * are checked between blocks so a run may pass the instruction limit
+	 * by the length of a block.
+	 *
+	 * @calledby Headless
+	 *
+	 * @param instructions  Max number of instructions since the program was loaded, 0 for no limit
+	 * @param millis  Max run time in ms from now, 0 for no limit
+	 */
+	public void setLimits(long instructions, long millis) {
+		this.instructionLimit = instructions;
+		this.deadline = (millis > 0) ? System.currentTimeMillis() + millis : 0;
+	}
+
+	/**
+	 * Check the limits set by setLimits()
+	 *
+	 * @calledby execRun()
+	 *
+	 * @return True if the emulation should stop
+	 */
+	public boolean limitReached() {
+		if (this.instructionLimit > 0 && this.instructionCount >= this.instructionLimit)
+			return true;
+
+		return this.deadline > 0 && System.currentTimeMillis() >= this.deadline;
+	}
+
+	/**
+	 * Check if the program has ended
+	 *
+	 * @return True if the program ended or an error occured
+	 */
+	public boolean isEnded() {
+		return this.ended;
+	}
+
 	/**
 	 * Run next instruction
 	 *
@@ -201,7 +480,7 @@ public class EmulatorManager implements EventObserver
 	 * @post update pc to next instruction
 	 * @checks If Instruction.run() throws an error send EVENTID_RUNTIME_ERROR
 	 * @calledby runAll(), runOne()
-	 * @calls MemoryManager.readInt(), InstructionManager.get(), Instruction.run(), pcChange(), EventManager.sendEvent()
+	 * @calls MemoryManager.readInstruction(), Instruction.run(), pcChange(), EventManager.sendEvent()
 	 *
 	 * @return True if the emulation can continue
 	 */
@@ -215,16 +494,20 @@ public class EmulatorManager implements EventObserver
 
 		Instruction instruction;
 		try {
-			int opCode = this.memory.readInt(this.pc);
-			if (opCode == 0) {
+			instruction = this.memory.readInstruction(this.pc);
+			if (instruction == null) {
 				this.ended = true;
 				return 0;
 			}
 
-			instruction = InstructionManager.get(opCode);
+			if (this.recording)
+				this.undoLog.step(this.pc, this.instructionCount);
 			instruction.run(this.emulator);
 			this.pc += 4;
+			this.instructionCount++;
 		} catch (Exception e) {
+			if (this.recording)
+				this.undoLog.cancelStep();
 			this.eventManager.sendEvent(EventManager.EVENT.EMULATOR_ERROR, e.getMessage());
 			this.ended = true;
 			return 0;
@@ -235,7 +518,7 @@ public class EmulatorManager implements EventObserver
 			return 0;
 		}
 
-		if (this.breakpoints.containsKey(this.pc)) {
+		if (this.breakpoints.stop(this.pc, this.register.getValues())) {
 			return 0;
 		}
 
@@ -246,6 +529,125 @@ public class EmulatorManager implements EventObserver
 		return 1;
 	}
 
+	/**
+	 * Run the basic block that starts at pc
+	 *
+	 * @pre program must be loaded
+	 * @post update pc to the instruction after the block
+	 * @checks If Instruction.run() throws an error send EMULATOR_ERROR
+	 * @calledby execRun()
+	 * @calls BasicBlock.translate(), BlockCompiler.compile(), CompiledBlock.execute(), Instruction.run(), step(), EventManager.sendEvent()
+	 *
+	 * @return 1 if the emulation can continue, otherwise 0
+	 */
+	private int stepBlock() {
+		if (this.flushBlocks) {
+			this.flushBlocks = false;
+			this.blocks.clear();
+			this.lastBlock = null;
+		}
+
+		BasicBlock block = null;
+		if (this.lastBlock != null)
+			block = this.lastBlock.getSuccessor(this.pc);
+
+		if (block == null || !block.isValid()) {
+			block = this.blocks.get(this.pc);
+			if (block == null || !block.isValid()) {
+				try {
+					block = BasicBlock.translate(this.memory.getBlock(this.pc), this.pc, this.breakpoints);
+				} catch (MemoryException e) {
+					block = null;
+				}
+
+				// Nothing to translate, let step() run it or report the error
+				if (block == null) {
+					this.lastBlock = null;
+					return this.step(true, false);
+				}
+
+				this.blocks.put(this.pc, block);
+			}
+
+			if (this.lastBlock != null)
+				this.lastBlock.link(block);
+		}
+
+		this.register.resetState();
+
+		int executions = block.countExecution();
+		if (this.isCompileSpeed() && executions == this.compileThreshold)
+			block.setCompiledBlock(BlockCompiler.compile(block));
+
+		// Compiled blocks can't stop at the instruction that hit a watchpoint
+		boolean watching = this.breakpoints.hasWatchpoints();
+
+		int lastPc = this.pc;
+		CompiledBlock compiledBlock = (this.isCompileSpeed() && !watching) ? block.getCompiledBlock() : null;
+		try {
+			if (compiledBlock != null) {
+				int start = this.pc;
+				boolean completed = false;
+				try {
+					this.pc = compiledBlock.execute(this.register, this.memory);
+					completed = true;
+				} finally {
+					int executed = compiledBlock.getExecuted();
+					this.instructionCount += executed;
+					lastPc = start + 4 * (executed - 1);
+					if (!completed)
+						this.pc = start + 4 * executed;
+				}
+			} else {
+				for (Instruction instruction : block.getInstructions()) {
+					lastPc = this.pc;
+					this.memory.resetState();
+					if (this.recording)
+						this.undoLog.step(this.pc, this.instructionCount);
+					instruction.run(this.emulator);
+					this.pc += 4;
+					this.instructionCount++;
+
+					// The block overwrote its own code
+					if (!block.isValid())
+						break;
+
+					if (watching && this.breakpoints.isTriggered())
+						break;
+				}
+			}
+		} catch (Exception e) {
+			if (this.recording)
+				this.undoLog.cancelStep();
+			this.eventManager.sendEvent(EventManager.EVENT.EMULATOR_ERROR, e.getMessage());
+			this.ended = true;
+			this.lastBlock = null;
+			return 0;
+		}
+
+		this.lastBlock = block;
+
+		if (this.pc == lastPc) {
+			this.ended = true;
+			return 0;
+		}
+
+		if (this.breakpoints.stop(this.pc, this.register.getValues())) {
+			return 0;
+		}
+
+		return 1;
+	}
+
+	/**
+	 * Get the number of instructions executed since the program was loaded
+	 *
+	 * @return Instruction count
+	 */
+	public long getInstructionCount() {
+		return this.instructionCount;
+	}
+
 	/**
 	 * Helpfunction that returns the current MemoryManager
 	 *
@@ -257,6 +659,28 @@ public class EmulatorManager implements EventObserver
 		return this.memory;
 	}
 
+	/**
+	 * Add a RAM to the memory map, like the SDRAM of the board. A loaded
+	 * program is loaded again so the snapshot it is reset to includes the
+	 * RAM.
+	 *
+	 * @pre The emulation must not be running
+	 * @calledby Headless
+	 * @calls MemoryManager.addRam(), load()
+	 *
+	 * @param ram  The RAM
+	 * @throws IllegalArgumentException  If the RAM overlaps another block
+	 */
+	public void addRam(SparseMemory ram) {
+		if (this.memory != null) {
+			this.memory.addRam(ram);
+			this.loadedState = null;
+			this.load();
+		}
+
+		this.ram.add(ram);
+	}
+
 	/**
 	 * Helpfunction that returns the current RegisterManager
 	 *
@@ -332,13 +756,19 @@ public class EmulatorManager implements EventObserver
 	 * Reset the emulation
 	 *
 	 * @calledby update()
-	 * @calls RegisterManager(), MemoryManager.reset(), Program.getStartAddr(), EventManager.sendEvent(), pcChange()
+	 * @calls RegisterManager(), MemoryManager.reset(), MemoryManager.addRam(), snapshot(), Program.getStartAddr(), EventManager.sendEvent(), pcChange()
 	 */
 	public void load() {
 		if (this.memory == null) {
 			this.memory = new MemoryManager(this.eventManager, this.program.getBinaryProgram(), this.program.getBinaryVariables(), this.program.getSourceCode());
-		} else {
+			for (SparseMemory ram : this.ram)
+				this.memory.addRam(ram);
+		} else if (this.loadedState == null || this.loadedState.getProgram() != this.program || !this.memory.reset(this.loadedState.getMemory())) {
+			// A new program, the translated blocks are only kept when the
+			// memory is restored since restoring drops changed instructions
 			this.memory.reset(this.program.getBinaryProgram(), this.program.getBinaryVariables(), this.program.getSourceCode());
+			this.loadedState = null;
+			this.blocks.clear();
 		}
 
 		for (MemoryBlock memoryBlock : this.memory.getMemoryBlocks()) {
@@ -348,6 +778,16 @@ public class EmulatorManager implements EventObserver
 
 		this.pc = this.program.getStartAddr();
 		this.register = new RegisterManager();
+		this.instructionCount = 0;
+		this.lastBlock = null;
+		this.memoryGenerations = null;
+		this.undoLog.clear();
+		this.setRecording(true);
+		this.breakpoints.resetHits();
+		this.memory.setWatchpoints(this.breakpoints);
+
+		if (this.loadedState == null)
+			this.loadedState = this.snapshot();
 
 		this.ended = false;
 		this.eventManager.sendEvent(EventManager.EVENT.EMULATOR_READY);
@@ -356,6 +796,47 @@ public class EmulatorManager implements EventObserver
 		this.pcChange();
 	}
 
+	/**
+	 * Take a snapshot of the emulation. The memory is copied on write so
+	 * this is cheap, and restoring only copies what has changed since.
+	 *
+	 * @pre Program must be loaded and the emulation must not be running
+	 * @calledby load()
+	 * @calls MemoryManager.snapshot()
+	 *
+	 * @return Snapshot
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(this.program, this.memory.snapshot(), this.register.getValues().clone(), this.pc, this.instructionCount, this.ended);
+	}
+
+	/**
+	 * Restore a snapshot. Snapshots taken after it can't be restored
+	 * anymore.
+	 *
+	 * @pre The emulation must not be running
+	 * @calls MemoryManager.restore(), pcChange()
+	 *
+	 * @param snapshot  Snapshot returned by snapshot()
+	 * @return False if the snapshot is of another program or can't be restored anymore
+	 */
+	public boolean restore(Snapshot snapshot) {
+		if (snapshot.getProgram() != this.program || !this.memory.restore(snapshot.getMemory()))
+			return false;
+
+		this.register = new RegisterManager();
+		System.arraycopy(snapshot.getRegisters(), 0, this.register.getValues(), 0, snapshot.getRegisters().length);
+		this.pc = snapshot.getPc();
+		this.instructionCount = snapshot.getInstructionCount();
+		this.ended = snapshot.isEnded();
+		this.lastBlock = null;
+		this.undoLog.clear();
+		this.setRecording(true);
+
+		this.pcChange();
+		return true;
+	}
+
 	public void reset() {
 		this.running = false;
 		this.ended = false;
@@ -375,7 +856,7 @@ public class EmulatorManager implements EventObserver
 	 * Toggle breakpoint
 	 *
 	 * @post Add breakpoint to breakpoints and update Program
-	 * @calledby update()
+	 * @calledby update(), Headless.run()
 	 * @calls Program.toggleBreakpoint(), EMULATOR_BREAKPOINT_TOGGLE
 	 *
 	 * @param lineNumber  Line to toggle breakpoint
@@ -386,14 +867,68 @@ public class EmulatorManager implements EventObserver
 
 		int addr = this.latestSourceCode.getAddress(lineNumber);
 		if (this.latestSourceCode.toggleBreakpoint(lineNumber)) {
-			this.breakpoints.put(addr, lineNumber);
+			this.breakpoints.add(addr, lineNumber);
 		} else {
 			this.breakpoints.remove(addr);
 		}
+		this.flushBlocks = true;
 
 		this.eventManager.sendEvent(EventManager.EVENT.EMULATOR_BREAKPOINT_UPDATE, lineNumber);
 	}
 
+	/**
+	 * Set the condition of the breakpoint on a line. The emulation only
+	 * stops at it when the condition is true, see Condition.
+	 *
+	 * @calledby Headless.run()
+	 * @calls Condition.compile(), Breakpoints.setCondition()
+	 *
+	 * @param lineNumber  Line of the breakpoint
+	 * @param condition  Condition, null or empty to always stop
+	 * @return False if there is no breakpoint on the line
+	 * @throws EmulatorException  If the condition can't be parsed
+	 */
+	public boolean setBreakpointCondition(int lineNumber, String condition) throws EmulatorException {
+		if (this.latestSourceCode == null)
+			return false;
+
+		Condition compiled = (condition == null || condition.trim().length() == 0) ? null : Condition.compile(condition);
+		return this.breakpoints.setCondition(this.latestSourceCode.getAddress(lineNumber), compiled);
+	}
+
+	/**
+	 * Add a watchpoint. The emulation stops after an instruction that
+	 * reads or writes a byte in the range.
+	 *
+	 * @calledby Headless.run()
+	 * @calls Condition.compile(), Breakpoints.addWatchpoint(), MemoryManager.setWatchpoints()
+	 *
+	 * @param start  Address of the first byte
+	 * @param end  Address of the last byte
+	 * @param access  Breakpoints.READ, Breakpoints.WRITE or both
+	 * @param condition  Condition, null or empty to always stop
+	 * @throws EmulatorException  If the condition can't be parsed
+	 */
+	public void addWatchpoint(int start, int end, int access, String condition) throws EmulatorException {
+		Condition compiled = (condition == null || condition.trim().length() == 0) ? null : Condition.compile(condition);
+		this.breakpoints.addWatchpoint(start, end, access, compiled);
+		if (this.memory != null)
+			this.memory.setWatchpoints(this.breakpoints);
+	}
+
+	/**
+	 * Remove the watchpoints that start at an address
+	 *
+	 * @calls Breakpoints.removeWatchpoint(), MemoryManager.setWatchpoints()
+	 *
+	 * @param start  Address of the first byte
+	 */
+	public void removeWatchpoint(int start) {
+		this.breakpoints.removeWatchpoint(start);
+		if (this.memory != null)
+			this.memory.setWatchpoints(this.breakpoints);
+	}
+
 	/**
 	 * Listen for events and acts on them
 	 *
@@ -418,6 +953,12 @@ public class EmulatorManager implements EventObserver
 			case EMULATOR_STEP_OVER:
 				this.initRun(false, true);
 				break;
+			case EMULATOR_STEP_BACK:
+				this.runBack(false);
+				break;
+			case EMULATOR_RUN_BACK:
+				this.runBack(true);
+				break;
 			case EMULATOR_RUN:
 				this.initRun(true, false);
 				break;
@@ -438,7 +979,7 @@ public class EmulatorManager implements EventObserver
 				break;
 			case MEMORY_REQUEST_UPDATE:
 				if (this.memory != null)
-					this.eventManager.sendEvent(EventManager.EVENT.MEMORY_CHANGE, this.memory.getMemoryBlocks());
+					this.memoryChange();
 				break;
 			case VARIABLE_REQUEST_UPDATE:
 				if (this.program != null)
@@ -453,6 +994,54 @@ public class EmulatorManager implements EventObserver
 		this.speed = speed;
 	}
 
+	/**
+	 * Check if the current speed runs a basic block at a time
+	 *
+	 * @return True in FAST, ULTRA and REALTIME
+	 */
+	private boolean isBlockSpeed() {
+		return this.speed == SPEED.FAST || this.speed == SPEED.ULTRA || this.speed == SPEED.REALTIME;
+	}
+
+	/**
+	 * Check if the current speed compiles blocks to bytecode
+	 *
+	 * @return True in ULTRA and REALTIME
+	 */
+	private boolean isCompileSpeed() {
+		return this.speed == SPEED.ULTRA || this.speed == SPEED.REALTIME;
+	}
+
+	/**
+	 * Set how many instructions per second are run in REALTIME speed. A
+	 * new rate is used from the next run.
+	 *
+	 * @param rate  Instructions per second
+	 */
+	public void setRealTimeRate(long rate) {
+		if (rate > 0)
+			this.realTimeRate = rate;
+	}
+
+	/**
+	 * Get the pacer of REALTIME speed, which reports how well the rate
+	 * is kept
+	 *
+	 * @return Pacer
+	 */
+	public Pacer getPacer() {
+		return this.pacer;
+	}
+
+	/**
+	 * Set how often the GUI is updated while running FAST or ULTRA
+	 *
+	 * @param framesPerSecond  Updates per second, 0 to only update when the emulation stops
+	 */
+	public void setFrameRate(int framesPerSecond) {
+		this.frameInterval = (framesPerSecond > 0) ? 1000000000L / framesPerSecond : 0;
+	}
+
 	/**
 	 * If pc is changed this method is called and all events that should be sent are sent.
 	 *
@@ -474,10 +1063,23 @@ public class EmulatorManager implements EventObserver
 
 		this.eventManager.sendEvent(EventManager.EVENT.PROGRAMCOUNTER_CHANGE, Integer.valueOf(this.pc));
 		this.eventManager.sendEvent(EventManager.EVENT.REGISTER_CHANGE, this.register.get());
-		this.eventManager.sendEvent(EventManager.EVENT.MEMORY_CHANGE, this.memory.getMemoryBlocks());
+		this.memoryChange();
 		this.eventManager.sendEvent(EventManager.EVENT.VARIABLE_CHANGE, this.variableMemory);
 	}
 
+	/**
+	 * Send a MEMORY_CHANGE event with the ranges that changed since the
+	 * last one
+	 *
+	 * @calledby update(), pcChange()
+	 * @calls MemoryManager.getChanges()
+	 */
+	private synchronized void memoryChange() {
+		MemoryChange change = this.memory.getChanges(this.memoryGenerations);
+		this.memoryGenerations = change.getGenerations();
+		this.eventManager.sendEvent(EventManager.EVENT.MEMORY_CHANGE, change);
+	}
+
 	/**
 	 * Sends event when compilation starts end
 	 *
@@ -0,0 +1,161 @@
+package jniosemu.emulator;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces the emulation to a number of instructions per second of wall
+ * clock time, so timer periods and delay loops take as long as on the
+ * board. The instructions are run in batches as fast as possible, and
+ * between the batches the thread is parked until the wall clock has
+ * caught up with the emulated time.
+ * <p>
+ * Parking oversleeps by an amount that depends on the platform. It is
+ * measured and subtracted from the following parks. If the emulation
+ * can't keep up the debt is dropped when it is more than MAXLAG, so a
+ * slow period isn't followed by a burst. How far the emulated time is
+ * behind the wall clock is reported as drift.
+ */
+public class Pacer
+{
+	/**
+	 * Default number of instructions per second, the clock of the Nios II
+	 * on the DE2 board
+	 */
+	public static final long RATE = 50000000L;
+	/**
+	 * Time in ns a batch of instructions should take
+	 */
+	private static final long BATCHTIME = 1000000L;
+	/**
+	 * Longest time in ns to park at once, so a pause is noticed
+	 */
+	private static final long MAXPARK = 10000000L;
+	/**
+	 * Max time in ns the emulation may be behind before the debt is dropped
+	 */
+	private static final long MAXLAG = 100000000L;
+
+	/**
+	 * Wall clock time of one instruction in ns
+	 */
+	private double instructionTime = 1000000000.0 / RATE;
+	/**
+	 * Number of instructions between calls to pace()
+	 */
+	private long batch = 1;
+	/**
+	 * Wall clock time and instruction count that emulated time is counted from
+	 */
+	private long startTime = 0;
+	private long startCount = 0;
+	/**
+	 * Wall clock time and instruction count when start() was called, used
+	 * to measure the rate
+	 */
+	private long runTime = 0;
+	private long runCount = 0;
+	/**
+	 * Estimate of how long parkNanos() oversleeps
+	 */
+	private long oversleep = 0;
+	/**
+	 * Time in ns the emulation was behind the wall clock at the last
+	 * pace(), negative if it was ahead
+	 */
+	private long drift = 0;
+	/**
+	 * Time in ns that has been dropped since start() because the emulation
+	 * couldn't keep up
+	 */
+	private long lost = 0;
+
+	/**
+	 * Start pacing from the current time
+	 *
+	 * @calledby EmulatorManager.execRun()
+	 *
+	 * @param instructionCount  Current instruction count
+	 * @param rate  Instructions per second
+	 */
+	public void start(long instructionCount, long rate) {
+		this.instructionTime = 1000000000.0 / rate;
+		this.batch = Math.max(1, rate * BATCHTIME / 1000000000L);
+
+		this.startTime = this.runTime = System.nanoTime();
+		this.startCount = this.runCount = instructionCount;
+		this.drift = 0;
+		this.lost = 0;
+	}
+
+	/**
+	 * Get the number of instructions to run between calls to pace()
+	 *
+	 * @return Number of instructions
+	 */
+	public long getBatch() {
+		return this.batch;
+	}
+
+	/**
+	 * Wait until an instruction is due. The wait is split in parks of at
+	 * most MAXPARK, so this is called until it returns true.
+	 *
+	 * @calledby EmulatorManager.execRun()
+	 *
+	 * @param instructionCount  Number of executed instructions
+	 * @return True if the next instruction is due, false if this should be called again
+	 */
+	public boolean pace(long instructionCount) {
+		long now = System.nanoTime();
+		long wait = this.startTime + (long)((instructionCount - this.startCount) * this.instructionTime) - now;
+		this.drift = -wait;
+
+		if (wait <= this.oversleep) {
+			// Too far behind to catch up, continue from now
+			if (-wait > MAXLAG) {
+				this.lost -= wait;
+				this.startTime = now;
+				this.startCount = instructionCount;
+			}
+			return true;
+		}
+
+		long park = Math.min(wait - this.oversleep, MAXPARK);
+		LockSupport.parkNanos(park);
+
+		long overslept = System.nanoTime() - now - park;
+		this.oversleep = Math.max(0, Math.min(MAXPARK / 2, this.oversleep + (overslept - this.oversleep) / 8));
+		return false;
+	}
+
+	/**
+	 * Get how far the emulated time was behind the wall clock at the last
+	 * pace()
+	 *
+	 * @return Drift in ns, negative if ahead
+	 */
+	public long getDrift() {
+		return this.drift;
+	}
+
+	/**
+	 * Get the time that has been dropped since start() because the
+	 * emulation couldn't keep up
+	 *
+	 * @return Time in ns
+	 */
+	public long getLostTime() {
+		return this.lost;
+	}
+
+	/**
+	 * Get the measured number of instructions per second since start()
+	 *
+	 * @param instructionCount  Number of executed instructions
+	 * @return Instructions per second
+	 */
+	public long getRate(long instructionCount) {
+		long time = System.nanoTime() - this.runTime;
+		return (time > 0) ? (long)((instructionCount - this.runCount) * 1000000000.0 / time) : 0;
+	}
+}
@@ -0,0 +1,74 @@
+package jniosemu.emulator;
+
+import jniosemu.emulator.memory.MemorySnapshot;
+
+/**
+ * The state of the emulation at one point: memory, devices, registers
+ * and pc. Taken by EmulatorManager.snapshot() and restored by
+ * EmulatorManager.restore().
+ */
+public class Snapshot
+{
+	/**
+	 * Program the snapshot was taken of
+	 */
+	private final Program program;
+	/**
+	 * Memory and devices
+	 */
+	private final MemorySnapshot memory;
+	/**
+	 * Register values
+	 */
+	private final int[] registers;
+	/**
+	 * Program counter
+	 */
+	private final int pc;
+	/**
+	 * Number of instructions executed since the program was loaded
+	 */
+	private final long instructionCount;
+	/**
+	 * True if the program had ended
+	 */
+	private final boolean ended;
+
+	/**
+	 * Init Snapshot
+	 *
+	 * @calledby EmulatorManager.snapshot()
+	 */
+	Snapshot(Program program, MemorySnapshot memory, int[] registers, int pc, long instructionCount, boolean ended) {
+		this.program = program;
+		this.memory = memory;
+		this.registers = registers;
+		this.pc = pc;
+		this.instructionCount = instructionCount;
+		this.ended = ended;
+	}
+
+	Program getProgram() {
+		return this.program;
+	}
+
+	MemorySnapshot getMemory() {
+		return this.memory;
+	}
+
+	int[] getRegisters() {
+		return this.registers;
+	}
+
+	int getPc() {
+		return this.pc;
+	}
+
+	long getInstructionCount() {
+		return this.instructionCount;
+	}
+
+	boolean isEnded() {
+		return this.ended;
+	}
+}
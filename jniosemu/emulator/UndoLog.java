@@ -0,0 +1,219 @@
+package jniosemu.emulator;
+
+import jniosemu.emulator.memory.MemoryManager;
+import jniosemu.emulator.register.RegisterManager;
+
+/**
+ * Records what every executed instruction changed so it can be undone.
+ * Each instruction adds a step entry with its pc, followed by one entry
+ * per register or memory write with the old value.
+ * <p>
+ * The entries are kept in a ring buffer of primitive arrays, so nothing
+ * is allocated while recording. When the buffer is full the oldest
+ * instruction is thrown away.
+ * <p>
+ * Only registers, pc and memory are restored. Side effects of devices,
+ * like characters sent to the UART or the timer counting down, are not
+ * undone.
+ */
+public class UndoLog
+{
+	/**
+	 * Entry types. STEP starts an instruction, MEMORY + n is a write of n
+	 * bytes.
+	 */
+	private static final byte STEP = 0;
+	private static final byte REGISTER = 1;
+	private static final byte MEMORY = 2;
+
+	/**
+	 * Type of every entry
+	 */
+	private final byte[] types;
+	/**
+	 * pc, register number or memory address of every entry
+	 */
+	private final int[] targets;
+	/**
+	 * Instruction count or old value of every entry
+	 */
+	private final int[] values;
+	/**
+	 * Index of the oldest entry
+	 */
+	private int first = 0;
+	/**
+	 * Number of entries
+	 */
+	private int size = 0;
+
+	/**
+	 * Init UndoLog
+	 *
+	 * @calledby EmulatorManager
+	 *
+	 * @param capacity  Max number of entries
+	 */
+	public UndoLog(int capacity) {
+		this.types = new byte[capacity];
+		this.targets = new int[capacity];
+		this.values = new int[capacity];
+	}
+
+	/**
+	 * Throw away all entries
+	 *
+	 * @calledby EmulatorManager
+	 */
+	public void clear() {
+		this.first = 0;
+		this.size = 0;
+	}
+
+	/**
+	 * Check if there is an instruction to undo
+	 *
+	 * @return True if the log is empty
+	 */
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	/**
+	 * Add an entry. If the log is full the oldest instruction is thrown
+	 * away, so the log always starts with a step entry.
+	 *
+	 * @param type  Entry type
+	 * @param target  pc, register number or memory address
+	 * @param value  Instruction count or old value
+	 */
+	private void add(byte type, int target, int value) {
+		if (this.size == this.types.length) {
+			do {
+				this.first = (this.first + 1) % this.types.length;
+				this.size--;
+			} while (this.size > 0 && this.types[this.first] != STEP);
+		}
+
+		// A write that isn't part of an instruction can't be undone
+		if (this.size == 0 && type != STEP)
+			return;
+
+		int index = (this.first + this.size) % this.types.length;
+		this.types[index] = type;
+		this.targets[index] = target;
+		this.values[index] = value;
+		this.size++;
+	}
+
+	/**
+	 * Start a new instruction
+	 *
+	 * @calledby EmulatorManager.step(), EmulatorManager.stepBlock()
+	 *
+	 * @param pc  Address of the instruction
+	 * @param instructionCount  Number of instructions executed before it
+	 */
+	public void step(int pc, long instructionCount) {
+		this.add(STEP, pc, (int)instructionCount);
+	}
+
+	/**
+	 * Remove the newest instruction if it didn't change anything, used when
+	 * it failed so stepping back doesn't stop at it
+	 *
+	 * @calledby EmulatorManager.step(), EmulatorManager.stepBlock()
+	 */
+	public void cancelStep() {
+		if (this.size > 0 && this.types[(this.first + this.size - 1) % this.types.length] == STEP)
+			this.size--;
+	}
+
+	/**
+	 * Record a register write
+	 *
+	 * @calledby RegisterManager.write()
+	 *
+	 * @param index  Register number
+	 * @param value  Value before the write
+	 */
+	public void register(int index, int value) {
+		this.add(REGISTER, index, value);
+	}
+
+	/**
+	 * Record a memory write
+	 *
+	 * @calledby MemoryManager.writeByte(), MemoryManager.writeShort(), MemoryManager.writeInt()
+	 *
+	 * @param addr  Address of the first byte
+	 * @param count  Number of bytes, 1, 2 or 4
+	 * @param value  Bytes before the write, the first byte lowest
+	 */
+	public void memory(int addr, int count, int value) {
+		this.add((byte)(MEMORY + count), addr, value);
+	}
+
+	/**
+	 * Get the pc of the newest instruction
+	 *
+	 * @pre The log is not empty
+	 * @calledby EmulatorManager.stepBack()
+	 *
+	 * @return Address of the instruction
+	 */
+	int getPc() {
+		return this.targets[this.newestStep()];
+	}
+
+	/**
+	 * Get the number of instructions executed before the newest one
+	 *
+	 * @pre The log is not empty
+	 * @calledby EmulatorManager.stepBack()
+	 *
+	 * @param instructionCount  Current instruction count
+	 * @return Instruction count before the newest instruction
+	 */
+	long getInstructionCount(long instructionCount) {
+		return instructionCount - ((int)instructionCount - this.values[this.newestStep()]);
+	}
+
+	/**
+	 * Find the step entry of the newest instruction
+	 *
+	 * @return Index of the entry
+	 */
+	private int newestStep() {
+		int i = this.size - 1;
+		while (this.types[(this.first + i) % this.types.length] != STEP)
+			i--;
+
+		return (this.first + i) % this.types.length;
+	}
+
+	/**
+	 * Undo the writes of the newest instruction, newest write first, and
+	 * remove it from the log
+	 *
+	 * @pre The log is not empty
+	 * @calledby EmulatorManager.stepBack()
+	 * @calls RegisterManager.getValues(), MemoryManager.writeRaw()
+	 *
+	 * @param register  RegisterManager to restore
+	 * @param memory  MemoryManager to restore
+	 */
+	void undo(RegisterManager register, MemoryManager memory) {
+		while (this.size > 0) {
+			int index = (this.first + --this.size) % this.types.length;
+			byte type = this.types[index];
+			if (type == STEP)
+				return;
+
+			if (type == REGISTER)
+				register.getValues()[this.targets[index]] = this.values[index];
+			else
+				memory.writeRaw(this.targets[index], type - MEMORY, this.values[index]);
+		}
+	}
+}
@@ -0,0 +1,507 @@
+package jniosemu.emulator.jit;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import jniosemu.emulator.BasicBlock;
+import jniosemu.emulator.register.RegisterManager;
+import jniosemu.instruction.InstructionInfo;
+import jniosemu.instruction.InstructionManager;
+import jniosemu.instruction.emulator.Instruction;
+
+/**
+ * Compiles basic blocks to JVM bytecode. Each block becomes a hidden class
+ * extending CompiledBlock where every emulated instruction is translated
+ * to the same memory calls its Instruction.run() makes, with register
+ * numbers, immediates and addresses as constants. Registers are read and
+ * written directly in the array from RegisterManager.getValues(), so
+ * compiled blocks are only run while register states aren't traced.
+ */
+public class BlockCompiler
+{
+	/**
+	 * Longest block that is compiled, keeps the method well below the 64 KB code limit
+	 */
+	private static final int MAXLENGTH = 256;
+
+	private static final String CLASSNAME = "jniosemu/emulator/jit/Block";
+	private static final String COMPILEDBLOCK = "jniosemu/emulator/jit/CompiledBlock";
+	private static final String REGISTERMANAGER = "jniosemu/emulator/register/RegisterManager";
+	private static final String MEMORYMANAGER = "jniosemu/emulator/memory/MemoryManager";
+
+	/**
+	 * Local variable slots of execute()
+	 */
+	private static final int THIS = 0;
+	private static final int REGISTER = 1;
+	private static final int MEMORY = 2;
+	private static final int TEMP = 3;
+	private static final int VALUES = 4;
+
+	/**
+	 * Used to define the hidden classes in this package
+	 */
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	private final CodeWriter code;
+	private final ClassWriter classWriter;
+	/**
+	 * Register given to the last writeStart()
+	 */
+	private int target = 0;
+
+	private BlockCompiler(ClassWriter classWriter, CodeWriter code) {
+		this.classWriter = classWriter;
+		this.code = code;
+	}
+
+	/**
+	 * Compile a block
+	 *
+	 * @calledby EmulatorManager.stepBlock()
+	 *
+	 * @param block  Block to compile
+	 * @return The compiled block or null if the block contains an instruction that can't be compiled
+	 */
+	public static CompiledBlock compile(BasicBlock block) {
+		Instruction[] instructions = block.getInstructions();
+		if (instructions.length > MAXLENGTH)
+			return null;
+
+		ClassWriter classWriter = new ClassWriter(CLASSNAME, COMPILEDBLOCK);
+
+		CodeWriter init = new CodeWriter(classWriter, 1, 1);
+		init.aload(THIS);
+		init.invokespecial(COMPILEDBLOCK, "<init>", "()V");
+		init.op(CodeWriter.RETURN);
+		classWriter.addMethod(ClassWriter.ACC_PUBLIC, "<init>", "()V", init);
+
+		BlockCompiler compiler = new BlockCompiler(classWriter, new CodeWriter(classWriter, 16, 5));
+		compiler.code.aload(REGISTER);
+		compiler.code.invokevirtual(REGISTERMANAGER, "getValues", "()[I");
+		compiler.code.astore(VALUES);
+
+		int addr = block.getStart();
+		for (int i = 0; i < instructions.length; i++, addr += 4) {
+			if (!compiler.emit(instructions[i], addr, i, i == instructions.length - 1))
+				return null;
+		}
+		classWriter.addMethod(ClassWriter.ACC_PUBLIC, "execute", "(L"+ REGISTERMANAGER +";L"+ MEMORYMANAGER +";)I", compiler.code);
+
+		try {
+			MethodHandles.Lookup lookup = LOOKUP.defineHiddenClass(classWriter.toByteArray(), true);
+			CompiledBlock compiled = (CompiledBlock)lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+			compiled.setBlock(block);
+
+			return compiled;
+		} catch (Throwable e) {
+			// The interpreter is used for blocks the JVM refuses
+			return null;
+		}
+	}
+
+	/**
+	 * Emit the code of one instruction
+	 *
+	 * @param instruction  Instruction to compile
+	 * @param addr  Address of the instruction
+	 * @param index  Position of the instruction in the block
+	 * @param last  True if it is the last instruction in the block
+	 * @return False if the instruction can't be compiled
+	 */
+	private boolean emit(Instruction instruction, int addr, int index, boolean last) {
+		int opCode = instruction.getOpCode();
+		InstructionInfo info = InstructionManager.getInfo(opCode);
+		if (info == null)
+			return false;
+
+		int rA = (opCode >>> 27) & 0x1F;
+		int rB = (opCode >>> 22) & 0x1F;
+		int rC = (opCode >>> 17) & 0x1F;
+		int imm = (info.getType() == InstructionInfo.Type.ITYPE) ? (short)((opCode >>> 6) & 0xFFFF) : (opCode >>> 6) & 0x1F;
+
+		// Leave the RegisterException to the interpreter
+		if (info.getType() != InstructionInfo.Type.JTYPE) {
+			if (RegisterManager.isDisabled(rA) || RegisterManager.isDisabled(rB))
+				return false;
+			if (info.getType() == InstructionInfo.Type.RTYPE && RegisterManager.isDisabled(rC))
+				return false;
+		}
+
+		// Keep executed right in case the instruction throws
+		this.code.aload(THIS);
+		this.code.iconst(index);
+		this.code.putfield(COMPILEDBLOCK, "executed", "I");
+
+		// Devices are updated before every instruction, as in EmulatorManager.step()
+		this.code.aload(MEMORY);
+		this.code.invokevirtual(MEMORYMANAGER, "resetState", "()V");
+
+		String name = info.getName();
+		if (name.equals("add")) {
+			this.binary(rC, rA, rB, CodeWriter.IADD);
+		} else if (name.equals("sub")) {
+			this.binary(rC, rA, rB, CodeWriter.ISUB);
+		} else if (name.equals("mul")) {
+			this.binary(rC, rA, rB, CodeWriter.IMUL);
+		} else if (name.equals("and")) {
+			this.binary(rC, rA, rB, CodeWriter.IAND);
+		} else if (name.equals("or")) {
+			this.binary(rC, rA, rB, CodeWriter.IOR);
+		} else if (name.equals("xor")) {
+			this.binary(rC, rA, rB, CodeWriter.IXOR);
+		} else if (name.equals("nor")) {
+			this.writeStart(rC);
+			this.read(rA);
+			this.read(rB);
+			this.code.op(CodeWriter.IOR);
+			this.code.iconst(-1);
+			this.code.op(CodeWriter.IXOR);
+			this.writeEnd();
+		} else if (name.equals("div")) {
+			this.read(rB);
+			this.code.invokestatic(COMPILEDBLOCK, "checkDivisor", "(I)V");
+			this.binary(rC, rA, rB, CodeWriter.IDIV);
+		} else if (name.equals("mulxss") || name.equals("mulxsu") || name.equals("mulxuu")) {
+			this.writeStart(rC);
+			this.read(rA);
+			this.toLong(name.equals("mulxuu"));
+			this.read(rB);
+			this.toLong(!name.equals("mulxss"));
+			this.code.op(CodeWriter.LMUL);
+			this.code.iconst(32);
+			this.code.op(CodeWriter.LUSHR);
+			this.code.op(CodeWriter.L2I);
+			this.writeEnd();
+		} else if (name.equals("rol") || name.equals("ror")) {
+			this.writeStart(rC);
+			this.read(rA);
+			this.read(rB);
+			this.code.iconst(0xF);
+			this.code.op(CodeWriter.IAND);
+			this.code.invokestatic("java/lang/Integer", name.equals("rol") ? "rotateLeft" : "rotateRight", "(II)I");
+			this.writeEnd();
+		} else if (name.equals("sll") || name.equals("sra") || name.equals("srl")) {
+			// rB is read before rA
+			this.read(rB);
+			this.code.iconst(0xF);
+			this.code.op(CodeWriter.IAND);
+			this.code.istore(TEMP);
+			this.writeStart(rC);
+			this.read(rA);
+			this.code.iload(TEMP);
+			this.code.op(name.equals("sll") ? CodeWriter.ISHL : name.equals("sra") ? CodeWriter.ISHR : CodeWriter.IUSHR);
+			this.writeEnd();
+		} else if (name.equals("roli")) {
+			this.writeStart(rC);
+			this.read(rA);
+			this.code.iconst(imm);
+			this.code.invokestatic("java/lang/Integer", "rotateLeft", "(II)I");
+			this.writeEnd();
+		} else if (name.equals("slli")) {
+			this.immediate(rC, rA, imm, CodeWriter.ISHL);
+		} else if (name.equals("srai")) {
+			this.immediate(rC, rA, imm, CodeWriter.ISHR);
+		} else if (name.equals("srli")) {
+			this.immediate(rC, rA, imm, CodeWriter.IUSHR);
+		} else if (name.equals("nextpc")) {
+			this.writeStart(rC);
+			this.code.iconst(addr + 4);
+			this.writeEnd();
+		} else if (name.equals("cmpeq")) {
+			this.compare(rC, rA, rB, CodeWriter.IF_ICMPEQ);
+		} else if (name.equals("cmpne")) {
+			this.compare(rC, rA, rB, CodeWriter.IF_ICMPNE);
+		} else if (name.equals("cmpge")) {
+			this.compare(rC, rA, rB, CodeWriter.IF_ICMPGE);
+		} else if (name.equals("cmplt")) {
+			this.compare(rC, rA, rB, CodeWriter.IF_ICMPLT);
+		} else if (name.equals("cmpgeu")) {
+			this.compareUnsigned(rC, rA, rB, CodeWriter.IFGE);
+		} else if (name.equals("cmpltu")) {
+			this.compareUnsigned(rC, rA, rB, CodeWriter.IFLT);
+		} else if (name.equals("addi")) {
+			this.immediate(rB, rA, imm, CodeWriter.IADD);
+		} else if (name.equals("muli")) {
+			this.immediate(rB, rA, imm, CodeWriter.IMUL);
+		} else if (name.equals("andi")) {
+			this.immediate(rB, rA, imm, CodeWriter.IAND);
+		} else if (name.equals("ori")) {
+			this.immediate(rB, rA, imm, CodeWriter.IOR);
+		} else if (name.equals("xori")) {
+			this.immediate(rB, rA, imm & 0xFFFF, CodeWriter.IXOR);
+		} else if (name.equals("andhi")) {
+			this.immediate(rB, rA, imm << 16, CodeWriter.IAND);
+		} else if (name.equals("orhi")) {
+			this.immediate(rB, rA, imm << 16, CodeWriter.IOR);
+		} else if (name.equals("xorhi")) {
+			this.immediate(rB, rA, imm << 16, CodeWriter.IXOR);
+		} else if (name.equals("cmpeqi")) {
+			this.compareImmediate(rB, rA, imm, CodeWriter.IF_ICMPEQ);
+		} else if (name.equals("cmpnei")) {
+			this.compareImmediate(rB, rA, imm, CodeWriter.IF_ICMPNE);
+		} else if (name.equals("cmpgei")) {
+			this.compareImmediate(rB, rA, imm, CodeWriter.IF_ICMPGE);
+		} else if (name.equals("cmplti")) {
+			this.compareImmediate(rB, rA, imm, CodeWriter.IF_ICMPLT);
+		} else if (name.equals("cmpgeui")) {
+			this.compareImmediateUnsigned(rB, rA, imm & 0xFFFF, CodeWriter.IFGE);
+		} else if (name.equals("cmpltui")) {
+			this.compareImmediateUnsigned(rB, rA, imm & 0xFFFF, CodeWriter.IFLT);
+		} else if (name.equals("ldw") || name.equals("ldwio")) {
+			this.load(rB, rA, imm, "readInt", "(I)I", 0);
+		} else if (name.equals("ldh") || name.equals("ldhio")) {
+			this.load(rB, rA, imm, "readShort", "(I)S", 0);
+		} else if (name.equals("ldhu") || name.equals("ldhuio")) {
+			this.load(rB, rA, imm, "readShort", "(I)S", 0xFFFF);
+		} else if (name.equals("ldb") || name.equals("ldbio")) {
+			this.load(rB, rA, imm, "readByte", "(I)B", 0);
+		} else if (name.equals("ldbu") || name.equals("ldbuio")) {
+			this.load(rB, rA, imm, "readByte", "(I)B", 0xFF);
+		} else if (name.equals("stw") || name.equals("stwio")) {
+			this.store(rB, rA, imm, "writeInt", "(II)V", 0, addr, index, last);
+		} else if (name.equals("sth") || name.equals("sthio")) {
+			this.store(rB, rA, imm, "writeShort", "(IS)V", CodeWriter.I2S, addr, index, last);
+		} else if (name.equals("stb") || name.equals("stbio")) {
+			this.store(rB, rA, imm, "writeByte", "(IB)V", CodeWriter.I2B, addr, index, last);
+		} else if (name.equals("br")) {
+			// writePC() would throw when the branch is taken, leave that to the interpreter
+			if ((addr + imm) % 4 != 0)
+				return false;
+			this.exit(index + 1, addr + 4 + imm);
+			return true;
+		} else if (name.equals("beq")) {
+			return this.branch(rA, rB, imm, addr, index, CodeWriter.IF_ICMPEQ, false);
+		} else if (name.equals("bne")) {
+			return this.branch(rA, rB, imm, addr, index, CodeWriter.IF_ICMPNE, false);
+		} else if (name.equals("bge")) {
+			return this.branch(rA, rB, imm, addr, index, CodeWriter.IF_ICMPGE, false);
+		} else if (name.equals("blt")) {
+			return this.branch(rA, rB, imm, addr, index, CodeWriter.IF_ICMPLT, false);
+		} else if (name.equals("bgeu")) {
+			return this.branch(rA, rB, imm, addr, index, CodeWriter.IFGE, true);
+		} else if (name.equals("bltu")) {
+			return this.branch(rA, rB, imm, addr, index, CodeWriter.IFLT, true);
+		} else if (name.equals("call")) {
+			this.writeStart(31);
+			this.code.iconst(addr + 4);
+			this.writeEnd();
+			this.exit(index + 1, ((opCode >>> 6) & 0x3FFFFFF) * 4);
+			return true;
+		} else if (name.equals("callr")) {
+			this.writeStart(31);
+			this.code.iconst(addr + 4);
+			this.writeEnd();
+			this.jump(rA, index);
+			return true;
+		} else if (name.equals("jmp")) {
+			this.jump(rA, index);
+			return true;
+		} else if (name.equals("ret")) {
+			this.jump(31, index);
+			return true;
+		} else {
+			return false;
+		}
+
+		if (last)
+			this.exit(index + 1, addr + 4);
+
+		return true;
+	}
+
+	/**
+	 * Push the value of a register
+	 */
+	private void read(int index) {
+		if (index == 0) {
+			this.code.iconst(0);
+		} else {
+			this.code.aload(VALUES);
+			this.code.iconst(index);
+			this.code.op(CodeWriter.IALOAD);
+		}
+	}
+
+	/**
+	 * Start writing a register, the value is pushed before writeEnd()
+	 */
+	private void writeStart(int index) {
+		this.target = index;
+		if (index != 0) {
+			this.code.aload(VALUES);
+			this.code.iconst(index);
+		}
+	}
+
+	/**
+	 * Store the value to the register given to writeStart(), writes to r0
+	 * are dropped
+	 */
+	private void writeEnd() {
+		this.code.op(this.target == 0 ? CodeWriter.POP : CodeWriter.IASTORE);
+	}
+
+	/**
+	 * Convert the int on the stack to a long
+	 *
+	 * @param unsigned  True if the int is unsigned
+	 */
+	private void toLong(boolean unsigned) {
+		if (unsigned)
+			this.code.invokestatic("java/lang/Integer", "toUnsignedLong", "(I)J");
+		else
+			this.code.op(CodeWriter.I2L);
+	}
+
+	private void binary(int rC, int rA, int rB, int opcode) {
+		this.writeStart(rC);
+		this.read(rA);
+		this.read(rB);
+		this.code.op(opcode);
+		this.writeEnd();
+	}
+
+	private void immediate(int rB, int rA, int imm, int opcode) {
+		this.writeStart(rB);
+		this.read(rA);
+		this.code.iconst(imm);
+		this.code.op(opcode);
+		this.writeEnd();
+	}
+
+	/**
+	 * Write 1 to a register if the branch is taken, otherwise 0
+	 */
+	private void condition(int opcode) {
+		int isTrue = this.code.jump(opcode);
+		this.code.iconst(0);
+		int end = this.code.jump(CodeWriter.GOTO);
+		this.code.bind(isTrue);
+		this.code.iconst(1);
+		this.code.bind(end);
+		this.writeEnd();
+	}
+
+	private void compare(int rC, int rA, int rB, int opcode) {
+		this.writeStart(rC);
+		this.read(rA);
+		this.read(rB);
+		this.condition(opcode);
+	}
+
+	private void compareUnsigned(int rC, int rA, int rB, int opcode) {
+		this.writeStart(rC);
+		this.read(rA);
+		this.read(rB);
+		this.code.invokestatic("java/lang/Integer", "compareUnsigned", "(II)I");
+		this.condition(opcode);
+	}
+
+	private void compareImmediate(int rB, int rA, int imm, int opcode) {
+		this.writeStart(rB);
+		this.read(rA);
+		this.code.iconst(imm);
+		this.condition(opcode);
+	}
+
+	private void compareImmediateUnsigned(int rB, int rA, int imm, int opcode) {
+		this.writeStart(rB);
+		this.read(rA);
+		this.code.iconst(imm);
+		this.code.invokestatic("java/lang/Integer", "compareUnsigned", "(II)I");
+		this.condition(opcode);
+	}
+
+	/**
+	 * Load from memory into a register
+	 *
+	 * @param mask  Mask for unsigned loads, 0 for sign extension
+	 */
+	private void load(int rB, int rA, int imm, String method, String descriptor, int mask) {
+		this.writeStart(rB);
+		this.code.aload(MEMORY);
+		this.read(rA);
+		this.code.iconst(imm);
+		this.code.op(CodeWriter.IADD);
+		this.code.invokevirtual(MEMORYMANAGER, method, descriptor);
+		if (mask != 0) {
+			this.code.iconst(mask);
+			this.code.op(CodeWriter.IAND);
+		}
+		this.writeEnd();
+	}
+
+	/**
+	 * Store a register to memory. If the store overwrote code the block
+	 * is left so the rest of it is translated again.
+	 *
+	 * @param convert  Conversion of the value, 0 for none
+	 */
+	private void store(int rB, int rA, int imm, String method, String descriptor, int convert, int addr, int index, boolean last) {
+		this.code.aload(MEMORY);
+		this.read(rA);
+		this.code.iconst(imm);
+		this.code.op(CodeWriter.IADD);
+		this.read(rB);
+		if (convert != 0)
+			this.code.op(convert);
+		this.code.invokevirtual(MEMORYMANAGER, method, descriptor);
+
+		if (!last) {
+			this.code.aload(THIS);
+			this.code.invokevirtual(COMPILEDBLOCK, "isValid", "()Z");
+			int valid = this.code.jump(CodeWriter.IFNE);
+			this.exit(index + 1, addr + 4);
+			this.code.bind(valid);
+		}
+	}
+
+	private boolean branch(int rA, int rB, int imm, int addr, int index, int opcode, boolean unsigned) {
+		if ((addr + imm) % 4 != 0)
+			return false;
+
+		this.read(rA);
+		this.read(rB);
+		if (unsigned)
+			this.code.invokestatic("java/lang/Integer", "compareUnsigned", "(II)I");
+		int taken = this.code.jump(opcode);
+		this.exit(index + 1, addr + 4);
+		this.code.bind(taken);
+		this.exit(index + 1, addr + 4 + imm);
+
+		return true;
+	}
+
+	/**
+	 * Jump to the address in a register
+	 */
+	private void jump(int rA, int index) {
+		this.read(rA);
+		this.code.istore(TEMP);
+		this.code.iload(TEMP);
+		this.code.iconst(4);
+		this.code.op(CodeWriter.ISUB);
+		this.code.invokestatic(COMPILEDBLOCK, "checkPC", "(I)V");
+
+		this.code.aload(THIS);
+		this.code.iconst(index + 1);
+		this.code.putfield(COMPILEDBLOCK, "executed", "I");
+		this.code.iload(TEMP);
+		this.code.op(CodeWriter.IRETURN);
+	}
+
+	/**
+	 * Return from execute()
+	 *
+	 * @param executed  Number of instructions that have completed
+	 * @param pc  Address of the next instruction
+	 */
+	private void exit(int executed, int pc) {
+		this.code.aload(THIS);
+		this.code.iconst(executed);
+		this.code.putfield(COMPILEDBLOCK, "executed", "I");
+		this.code.iconst(pc);
+		this.code.op(CodeWriter.IRETURN);
+	}
+}
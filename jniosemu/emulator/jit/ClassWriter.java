@@ -0,0 +1,199 @@
+package jniosemu.emulator.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+
+/**
+ * Builds a class file in memory. Only what BlockCompiler needs is
+ * supported: a super class, methods with code and a constant pool of
+ * UTF-8, class, integer, field and method entries. The class file is
+ * written as version 49 so no stack map frames are needed for branches.
+ */
+class ClassWriter
+{
+	private static final int VERSION = 49;
+
+	public static final int ACC_PUBLIC    = 0x0001;
+	public static final int ACC_FINAL     = 0x0010;
+	public static final int ACC_SUPER     = 0x0020;
+	public static final int ACC_SYNTHETIC = 0x1000;
+
+	/**
+	 * Constant pool entries, without the count
+	 */
+	private ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	/**
+	 * Index of the next constant pool entry
+	 */
+	private int poolCount = 1;
+	/**
+	 * Used to reuse constant pool entries
+	 */
+	private HashMap<String, Integer> poolIndex = new HashMap<String, Integer>();
+	/**
+	 * Method entries, without the count
+	 */
+	private ByteArrayOutputStream methods = new ByteArrayOutputStream();
+	private int methodCount = 0;
+
+	private final int thisClass;
+	private final int superClass;
+
+	/**
+	 * Init ClassWriter
+	 *
+	 * @param name  Internal name of the class, e.g. jniosemu/emulator/jit/Block
+	 * @param superName  Internal name of the super class
+	 */
+	public ClassWriter(String name, String superName) {
+		this.thisClass = this.classRef(name);
+		this.superClass = this.classRef(superName);
+	}
+
+	public int utf8(String value) {
+		Integer index = this.poolIndex.get("U"+ value);
+		if (index != null)
+			return index;
+
+		// Names used by the compiler are plain ASCII so modified UTF-8 isn't needed
+		byte[] bytes = value.getBytes();
+		this.pool.write(1);
+		u2(this.pool, bytes.length);
+		this.pool.write(bytes, 0, bytes.length);
+
+		return this.addEntry("U"+ value, 1);
+	}
+
+	public int classRef(String name) {
+		Integer index = this.poolIndex.get("C"+ name);
+		if (index != null)
+			return index;
+
+		int nameIndex = this.utf8(name);
+		this.pool.write(7);
+		u2(this.pool, nameIndex);
+
+		return this.addEntry("C"+ name, 1);
+	}
+
+	public int integer(int value) {
+		Integer index = this.poolIndex.get("I"+ value);
+		if (index != null)
+			return index;
+
+		this.pool.write(3);
+		u4(this.pool, value);
+
+		return this.addEntry("I"+ value, 1);
+	}
+
+	public int fieldRef(String owner, String name, String descriptor) {
+		return this.memberRef(9, owner, name, descriptor);
+	}
+
+	public int methodRef(String owner, String name, String descriptor) {
+		return this.memberRef(10, owner, name, descriptor);
+	}
+
+	private int memberRef(int tag, String owner, String name, String descriptor) {
+		String key = "M"+ tag + owner +"."+ name + descriptor;
+		Integer index = this.poolIndex.get(key);
+		if (index != null)
+			return index;
+
+		int ownerIndex = this.classRef(owner);
+		int nameIndex = this.utf8(name);
+		int descriptorIndex = this.utf8(descriptor);
+
+		this.pool.write(12);
+		u2(this.pool, nameIndex);
+		u2(this.pool, descriptorIndex);
+		int nameAndType = this.addEntry("N"+ key, 1);
+
+		this.pool.write(tag);
+		u2(this.pool, ownerIndex);
+		u2(this.pool, nameAndType);
+
+		return this.addEntry(key, 1);
+	}
+
+	private int addEntry(String key, int size) {
+		int index = this.poolCount;
+		this.poolCount += size;
+		this.poolIndex.put(key, index);
+
+		return index;
+	}
+
+	/**
+	 * Add a method with code
+	 *
+	 * @param access  Access flags
+	 * @param name  Method name
+	 * @param descriptor  Method descriptor
+	 * @param code  Code of the method
+	 */
+	public void addMethod(int access, String name, String descriptor, CodeWriter code) {
+		int nameIndex = this.utf8(name);
+		int descriptorIndex = this.utf8(descriptor);
+		int codeIndex = this.utf8("Code");
+		byte[] bytes = code.toByteArray();
+
+		u2(this.methods, access);
+		u2(this.methods, nameIndex);
+		u2(this.methods, descriptorIndex);
+		u2(this.methods, 1);
+
+		u2(this.methods, codeIndex);
+		u4(this.methods, 12 + bytes.length);
+		u2(this.methods, code.getMaxStack());
+		u2(this.methods, code.getMaxLocals());
+		u4(this.methods, bytes.length);
+		this.methods.write(bytes, 0, bytes.length);
+		u2(this.methods, 0);
+		u2(this.methods, 0);
+
+		this.methodCount++;
+	}
+
+	/**
+	 * Get the class file
+	 *
+	 * @return Class file bytes
+	 */
+	public byte[] toByteArray() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		u4(out, 0xCAFEBABE);
+		u2(out, 0);
+		u2(out, VERSION);
+
+		u2(out, this.poolCount);
+		byte[] pool = this.pool.toByteArray();
+		out.write(pool, 0, pool.length);
+
+		u2(out, ACC_PUBLIC | ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC);
+		u2(out, this.thisClass);
+		u2(out, this.superClass);
+		u2(out, 0);
+		u2(out, 0);
+
+		u2(out, this.methodCount);
+		byte[] methods = this.methods.toByteArray();
+		out.write(methods, 0, methods.length);
+
+		u2(out, 0);
+
+		return out.toByteArray();
+	}
+
+	private static void u2(ByteArrayOutputStream out, int value) {
+		out.write(value >>> 8);
+		out.write(value);
+	}
+
+	private static void u4(ByteArrayOutputStream out, int value) {
+		u2(out, value >>> 16);
+		u2(out, value);
+	}
+}
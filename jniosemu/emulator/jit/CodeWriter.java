@@ -0,0 +1,202 @@
+package jniosemu.emulator.jit;
+
+/**
+ * Builds the code of one method for ClassWriter.
+ */
+class CodeWriter
+{
+	public static final int ICONST_0      = 0x03;
+	public static final int ICONST_1      = 0x04;
+	public static final int BIPUSH        = 0x10;
+	public static final int SIPUSH        = 0x11;
+	public static final int LDC           = 0x12;
+	public static final int LDC_W         = 0x13;
+	public static final int ILOAD         = 0x15;
+	public static final int ALOAD         = 0x19;
+	public static final int IALOAD        = 0x2E;
+	public static final int ISTORE        = 0x36;
+	public static final int ASTORE        = 0x3A;
+	public static final int IASTORE       = 0x4F;
+	public static final int POP           = 0x57;
+	public static final int IADD          = 0x60;
+	public static final int ISUB          = 0x64;
+	public static final int IMUL          = 0x68;
+	public static final int LMUL          = 0x69;
+	public static final int IDIV          = 0x6C;
+	public static final int ISHL          = 0x78;
+	public static final int ISHR          = 0x7A;
+	public static final int IUSHR         = 0x7C;
+	public static final int LUSHR         = 0x7D;
+	public static final int IAND          = 0x7E;
+	public static final int IOR           = 0x80;
+	public static final int IXOR          = 0x82;
+	public static final int I2L           = 0x85;
+	public static final int L2I           = 0x88;
+	public static final int I2B           = 0x91;
+	public static final int I2S           = 0x93;
+	public static final int IFEQ          = 0x99;
+	public static final int IFNE          = 0x9A;
+	public static final int IFLT          = 0x9B;
+	public static final int IFGE          = 0x9C;
+	public static final int IF_ICMPEQ     = 0x9F;
+	public static final int IF_ICMPNE     = 0xA0;
+	public static final int IF_ICMPLT     = 0xA1;
+	public static final int IF_ICMPGE     = 0xA2;
+	public static final int GOTO          = 0xA7;
+	public static final int IRETURN       = 0xAC;
+	public static final int RETURN        = 0xB1;
+	public static final int PUTFIELD      = 0xB5;
+	public static final int INVOKEVIRTUAL = 0xB6;
+	public static final int INVOKESPECIAL = 0xB7;
+	public static final int INVOKESTATIC  = 0xB8;
+
+	private final ClassWriter classWriter;
+
+	private byte[] code = new byte[256];
+	private int length = 0;
+
+	private final int maxStack;
+	private final int maxLocals;
+
+	/**
+	 * Init CodeWriter
+	 *
+	 * @param classWriter  Class the method belongs to
+	 * @param maxStack  Max depth of the operand stack
+	 * @param maxLocals  Number of local variable slots, including this and the arguments
+	 */
+	public CodeWriter(ClassWriter classWriter, int maxStack, int maxLocals) {
+		this.classWriter = classWriter;
+		this.maxStack = maxStack;
+		this.maxLocals = maxLocals;
+	}
+
+	public int getMaxStack() {
+		return this.maxStack;
+	}
+
+	public int getMaxLocals() {
+		return this.maxLocals;
+	}
+
+	public int getLength() {
+		return this.length;
+	}
+
+	public void op(int opcode) {
+		this.u1(opcode);
+	}
+
+	/**
+	 * Push an int constant using the shortest instruction
+	 *
+	 * @param value  Constant
+	 */
+	public void iconst(int value) {
+		if (value >= -1 && value <= 5) {
+			this.u1(ICONST_0 + value);
+		} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+			this.u1(BIPUSH);
+			this.u1(value);
+		} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+			this.u1(SIPUSH);
+			this.u2(value);
+		} else {
+			int index = this.classWriter.integer(value);
+			if (index < 256) {
+				this.u1(LDC);
+				this.u1(index);
+			} else {
+				this.u1(LDC_W);
+				this.u2(index);
+			}
+		}
+	}
+
+	public void iload(int index) {
+		this.u1(ILOAD);
+		this.u1(index);
+	}
+
+	public void istore(int index) {
+		this.u1(ISTORE);
+		this.u1(index);
+	}
+
+	public void aload(int index) {
+		this.u1(ALOAD);
+		this.u1(index);
+	}
+
+	public void astore(int index) {
+		this.u1(ASTORE);
+		this.u1(index);
+	}
+
+	public void putfield(String owner, String name, String descriptor) {
+		this.u1(PUTFIELD);
+		this.u2(this.classWriter.fieldRef(owner, name, descriptor));
+	}
+
+	public void invokevirtual(String owner, String name, String descriptor) {
+		this.u1(INVOKEVIRTUAL);
+		this.u2(this.classWriter.methodRef(owner, name, descriptor));
+	}
+
+	public void invokespecial(String owner, String name, String descriptor) {
+		this.u1(INVOKESPECIAL);
+		this.u2(this.classWriter.methodRef(owner, name, descriptor));
+	}
+
+	public void invokestatic(String owner, String name, String descriptor) {
+		this.u1(INVOKESTATIC);
+		this.u2(this.classWriter.methodRef(owner, name, descriptor));
+	}
+
+	/**
+	 * Write a forward branch whose target is set later with bind()
+	 *
+	 * @param opcode  Branch instruction
+	 * @return Position of the branch
+	 */
+	public int jump(int opcode) {
+		int position = this.length;
+		this.u1(opcode);
+		this.u2(0);
+
+		return position;
+	}
+
+	/**
+	 * Let a branch written by jump() continue at the current position
+	 *
+	 * @param jump  Position returned by jump()
+	 */
+	public void bind(int jump) {
+		int offset = this.length - jump;
+		this.code[jump + 1] = (byte)(offset >>> 8);
+		this.code[jump + 2] = (byte)offset;
+	}
+
+	public byte[] toByteArray() {
+		byte[] ret = new byte[this.length];
+		System.arraycopy(this.code, 0, ret, 0, this.length);
+
+		return ret;
+	}
+
+	private void u1(int value) {
+		if (this.length == this.code.length) {
+			byte[] code = new byte[this.code.length * 2];
+			System.arraycopy(this.code, 0, code, 0, this.length);
+			this.code = code;
+		}
+
+		this.code[this.length++] = (byte)value;
+	}
+
+	private void u2(int value) {
+		this.u1(value >>> 8);
+		this.u1(value);
+	}
+}
@@ -0,0 +1,81 @@
+package jniosemu.emulator.jit;
+
+import jniosemu.emulator.BasicBlock;
+import jniosemu.emulator.EmulatorException;
+import jniosemu.emulator.memory.MemoryManager;
+import jniosemu.emulator.register.RegisterManager;
+
+/**
+ * A basic block compiled to JVM bytecode by BlockCompiler. The generated
+ * subclasses implement execute().
+ */
+public abstract class CompiledBlock
+{
+	/**
+	 * Number of instructions that have completed. Updated by the
+	 * generated code so it is right even if execute() throws.
+	 */
+	protected int executed = 0;
+	/**
+	 * Block the code was compiled from
+	 */
+	private BasicBlock block;
+
+	/**
+	 * Run the compiled instructions
+	 *
+	 * @calledby EmulatorManager.stepBlock()
+	 *
+	 * @param register  Registers of the emulated program
+	 * @param memory  Memory of the emulated program
+	 * @return Address of the next instruction to run
+	 * @throws EmulatorException  If an instruction fails, the same way as Instruction.run()
+	 */
+	public abstract int execute(RegisterManager register, MemoryManager memory) throws EmulatorException;
+
+	/**
+	 * Get the number of instructions that completed in the last execute()
+	 *
+	 * @return Number of instructions
+	 */
+	public int getExecuted() {
+		return this.executed;
+	}
+
+	void setBlock(BasicBlock block) {
+		this.block = block;
+	}
+
+	/**
+	 * Check that the code hasn't been overwritten, called by the generated
+	 * code after every store.
+	 *
+	 * @return True if execution may continue
+	 */
+	protected boolean isValid() {
+		return this.block.isValid();
+	}
+
+	/**
+	 * Same check as EmulatorManager.writePC(), called by the generated code
+	 * before a jump to an address in a register.
+	 *
+	 * @param value  Value that would be written by writePC()
+	 * @throws EmulatorException  If value modulus 4 isn't equal to 0
+	 */
+	protected static void checkPC(int value) throws EmulatorException {
+		if (value % 4 != 0)
+			throw new EmulatorException("Program counter address must be a multiplier of 4");
+	}
+
+	/**
+	 * Same check as DivInstruction.run()
+	 *
+	 * @param value  Divisor
+	 * @throws EmulatorException  If value is 0
+	 */
+	protected static void checkDivisor(int value) throws EmulatorException {
+		if (value == 0)
+			throw new EmulatorException("Can't divide by zero");
+	}
+}
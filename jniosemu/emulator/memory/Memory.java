@@ -1,16 +1,58 @@
 package jniosemu.emulator.memory;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
 import jniosemu.emulator.SourceCode;
+import jniosemu.instruction.InstructionException;
+import jniosemu.instruction.emulator.Instruction;
 
 /**
  * Contains a part of the memory.
  */
 public class Memory extends MemoryBlock
 {
+	/**
+	 * Little-endian short and int views of the memory array
+	 */
+	private static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
 	/**
 	 * Contains how the memory looked when init
 	 */
 	private byte[] originalMemory;
+	/**
+	 * Decoded instructions indexed by word offset in this block. An entry
+	 * is dropped as soon as any byte of its word is written to.
+	 */
+	private Instruction[] instructions;
+	/**
+	 * Incremented when a decoded instruction is overwritten
+	 */
+	private int codeVersion = 0;
+	/**
+	 * The newest snapshot, its pages are saved before they are written to
+	 * the first time. Null if no snapshot is taken.
+	 */
+	private Snapshot snapshot = null;
+
+	/**
+	 * Pages of the memory as they were when a snapshot was taken. Only the
+	 * pages written to after the snapshot are saved, the others are the
+	 * same as in the memory or in a newer snapshot.
+	 */
+	private static class Snapshot
+	{
+		private final byte[][] pages;
+		private final SourceCode sourceCode;
+
+		public Snapshot(int pages, SourceCode sourceCode) {
+			this.pages = new byte[pages][];
+			this.sourceCode = sourceCode;
+		}
+	}
 
 	/**
 	 * Init Memory.
@@ -46,6 +88,8 @@ public class Memory extends MemoryBlock
 
 	public void writeByte(int addr, byte value) throws MemoryException {
 		int mapAddr = this.mapAddr(addr);
+		if (this.snapshot != null)
+			this.save(mapAddr, 1);
 		try {
 			memory[mapAddr] = value;
 		} catch (Exception e) {
@@ -53,14 +97,188 @@ public class Memory extends MemoryBlock
 		}
 
 		this.sourceCode = null;
+		if (this.instructions[mapAddr >> 2] != null) {
+			this.instructions[mapAddr >> 2] = null;
+			this.codeVersion++;
+		}
 		this.setState(mapAddr, MemoryInt.STATE.WRITE);
 	}
 
+	public void writeRawByte(int addr, byte value) throws MemoryException {
+		int mapAddr = this.mapAddr(addr);
+		if (this.snapshot != null)
+			this.save(mapAddr, 1);
+		super.writeRawByte(addr, value);
+
+		this.sourceCode = null;
+		this.dropInstructions(mapAddr, 1);
+	}
+
+	public short readShort(int addr) throws MemoryException {
+		int mapAddr = this.mapAddr(addr);
+		if (mapAddr < 0 || mapAddr + 2 > this.length)
+			return super.readShort(addr);
+
+		short value = (short)SHORT.get(this.memory, mapAddr);
+		this.setState(mapAddr, 2, MemoryInt.STATE.READ);
+		return value;
+	}
+
+	public void writeShort(int addr, short value) throws MemoryException {
+		int mapAddr = this.mapAddr(addr);
+		if (mapAddr < 0 || mapAddr + 2 > this.length) {
+			super.writeShort(addr, value);
+			return;
+		}
+
+		if (this.snapshot != null)
+			this.save(mapAddr, 2);
+		SHORT.set(this.memory, mapAddr, value);
+		this.written(mapAddr, 2);
+	}
+
+	public int readInt(int addr) throws MemoryException {
+		int mapAddr = this.mapAddr(addr);
+		if (mapAddr < 0 || mapAddr + 4 > this.length)
+			return super.readInt(addr);
+
+		int value = (int)INT.get(this.memory, mapAddr);
+		this.setState(mapAddr, 4, MemoryInt.STATE.READ);
+		return value;
+	}
+
+	public void writeInt(int addr, int value) throws MemoryException {
+		int mapAddr = this.mapAddr(addr);
+		if (mapAddr < 0 || mapAddr + 4 > this.length) {
+			super.writeInt(addr, value);
+			return;
+		}
+
+		if (this.snapshot != null)
+			this.save(mapAddr, 4);
+		INT.set(this.memory, mapAddr, value);
+		this.written(mapAddr, 4);
+	}
+
+	/**
+	 * Update states and drop decoded instructions after a write
+	 *
+	 * @calledby writeShort(), writeInt()
+	 *
+	 * @param mapAddr  Internal index of the first byte written
+	 * @param count  Number of bytes written
+	 */
+	private void written(int mapAddr, int count) {
+		this.sourceCode = null;
+		this.dropInstructions(mapAddr, count);
+		this.setState(mapAddr, count, MemoryInt.STATE.WRITE);
+	}
+
+	/**
+	 * Drop the decoded instructions that overlap some bytes
+	 *
+	 * @calledby written(), writeRawByte(), restore()
+	 *
+	 * @param mapAddr  Internal index of the first byte
+	 * @param count  Number of bytes
+	 */
+	private void dropInstructions(int mapAddr, int count) {
+		for (int i = mapAddr >> 2; i <= (mapAddr + count - 1) >> 2; i++) {
+			if (this.instructions[i] != null) {
+				this.instructions[i] = null;
+				this.codeVersion++;
+			}
+		}
+	}
+
+	/**
+	 * Save the pages that are about to be written to in the newest
+	 * snapshot, unless they already are
+	 *
+	 * @calledby writeByte(), writeRawByte(), writeShort(), writeInt()
+	 *
+	 * @param mapAddr  Internal index of the first byte
+	 * @param count  Number of bytes
+	 */
+	private void save(int mapAddr, int count) {
+		if (mapAddr < 0 || mapAddr + count > this.length)
+			return;
+
+		byte[][] pages = this.snapshot.pages;
+		for (int page = mapAddr >> PAGEBITS; page <= (mapAddr + count - 1) >> PAGEBITS; page++) {
+			if (pages[page] == null) {
+				int index = page << PAGEBITS;
+				pages[page] = new byte[Math.min(1 << PAGEBITS, this.length - index)];
+				System.arraycopy(this.memory, index, pages[page], 0, pages[page].length);
+			}
+		}
+	}
+
+	/**
+	 * Take a snapshot. Nothing is copied until a page is written to.
+	 *
+	 * @calledby MemoryManager.snapshot()
+	 *
+	 * @return Snapshot
+	 */
+	public Object snapshot() {
+		this.snapshot = new Snapshot((this.length + (1 << PAGEBITS) - 1) >> PAGEBITS, this.sourceCode);
+		return this.snapshot;
+	}
+
+	/**
+	 * Copy back the pages saved in a snapshot. The snapshot becomes the
+	 * newest one again, so it can be restored many times.
+	 *
+	 * @calledby MemoryManager.restore()
+	 * @calls dropInstructions(), markChanged()
+	 *
+	 * @param snapshot  Snapshot returned by snapshot()
+	 */
+	public void restore(Object snapshot) {
+		Snapshot restored = (Snapshot)snapshot;
+		for (int page = 0; page < restored.pages.length; page++) {
+			byte[] saved = restored.pages[page];
+			if (saved != null) {
+				int index = page << PAGEBITS;
+				System.arraycopy(saved, 0, this.memory, index, saved.length);
+				this.dropInstructions(index, saved.length);
+				this.markChanged(index, saved.length);
+			}
+		}
+
+		this.sourceCode = restored.sourceCode;
+		this.snapshot = restored;
+	}
+
+	public Instruction readInstruction(int addr) throws MemoryException, InstructionException {
+		int mapAddr = this.mapAddr(addr);
+		if (mapAddr < 0 || mapAddr + 4 > this.length)
+			throw new MemoryException(addr);
+
+		Instruction instruction = this.instructions[mapAddr >> 2];
+		if (instruction == null) {
+			instruction = super.readInstruction(addr);
+			this.instructions[mapAddr >> 2] = instruction;
+		} else {
+			this.setState(mapAddr, 4, MemoryInt.STATE.READ);
+		}
+
+		return instruction;
+	}
+
+	public int getCodeVersion() {
+		return this.codeVersion;
+	}
+
 	public void reset() {
 		this.resetState();
 
 		this.changed = 0;
+		this.snapshot = null;
 		this.memory = new byte[this.length];
+		this.instructions = new Instruction[(this.length + 3) >> 2];
+		this.codeVersion++;
 
 		if (this.originalMemory != null)
 			System.arraycopy(this.originalMemory, 0, this.memory, 0, this.originalMemory.length);
@@ -1,10 +1,11 @@
 package jniosemu.emulator.memory;
 
 import java.util.Vector;
-import java.util.HashMap;
 
 import jniosemu.emulator.SourceCode;
 import jniosemu.instruction.InstructionException;
+import jniosemu.instruction.InstructionManager;
+import jniosemu.instruction.emulator.Instruction;
 
 /**
  * Contains a part of the memory.
@@ -34,7 +35,33 @@ public abstract class MemoryBlock
 
 	protected SourceCode sourceCode = null;
 
-	private HashMap<Integer, MemoryInt.STATE> state = new HashMap<Integer, MemoryInt.STATE>();
+	/**
+	 * Number of address bits within a dirty page. A page is 64 bytes, the
+	 * same as one word in readState and writeState.
+	 */
+	public static final int PAGEBITS = 6;
+
+	/**
+	 * Bytes with state READ and WRITE, one bit per byte. Allocated on the
+	 * first setState() since length isn't known when the block is created.
+	 */
+	private long[] readState = null;
+	private long[] writeState = null;
+	/**
+	 * Value of changed the last time something in each page was written,
+	 * or got or lost a READ/WRITE state
+	 */
+	private int[] pageChanged = null;
+	/**
+	 * Range of words in readState and writeState that may have bits set,
+	 * so clearState() only clears what has been touched
+	 */
+	private int firstStateWord = Integer.MAX_VALUE;
+	private int lastStateWord = -1;
+	/**
+	 * True if READ/WRITE states are recorded
+	 */
+	private boolean trace = true;
 
 	/**
 	 * Get the name of the part.
@@ -125,6 +152,27 @@ public abstract class MemoryBlock
 		}
 	}
 
+	/**
+	 * Write a byte without notifying the device or changing its state
+	 *
+	 * @calledby MemoryManager.writeRaw()
+	 * @calls markChanged()
+	 *
+	 * @param addr  Memory address
+	 * @param value  Byte that should be placed in the memory
+	 * @throws MemoryException  If the address don't exits in this memoryBlock
+	 */
+	public void writeRawByte(int addr, byte value) throws MemoryException {
+		int index = mapAddr(addr);
+		try {
+			this.memory[index] = value;
+		} catch (Exception e) {
+			throw new MemoryException(addr);
+		}
+
+		this.markChanged(index, 1);
+	}
+
 	/**
 	 * Write a byte to memory
 	 *
@@ -137,6 +185,102 @@ public abstract class MemoryBlock
 	 */
 	public abstract void writeByte(int addr, byte value) throws MemoryException;
 
+	/**
+	 * Read a short from memory. The bytes are read one at a time, high byte
+	 * first, so devices keep their per register semantics. Memory
+	 * overrides it with a single access.
+	 *
+	 * @calledby MemoryManager.readShort()
+	 * @calls readByte()
+	 *
+	 * @param addr  Memory address, addr and addr + 1 must be in this block
+	 * @return Requested short
+	 * @throws MemoryException  If the address don't exits in this memoryBlock
+	 */
+	public short readShort(int addr) throws MemoryException {
+		return (short)((this.readByte(addr+1) & 0xFF) << 8 | (this.readByte(addr) & 0xFF));
+	}
+
+	/**
+	 * Write a short to memory, low byte first
+	 *
+	 * @calledby MemoryManager.writeShort()
+	 * @calls writeByte()
+	 *
+	 * @param addr  Memory address, addr and addr + 1 must be in this block
+	 * @param value  Short that should be placed in the memory
+	 * @throws MemoryException  If the address don't exits in this memoryBlock
+	 */
+	public void writeShort(int addr, short value) throws MemoryException {
+		this.writeByte(addr    , (byte)(value       & 0xFF));
+		this.writeByte(addr + 1, (byte)(value >>> 8 & 0xFF));
+	}
+
+	/**
+	 * Read an int from memory. The bytes are read one at a time, high byte
+	 * first, so devices keep their per register semantics. Memory
+	 * overrides it with a single access.
+	 *
+	 * @calledby MemoryManager.readInt(), readInstruction()
+	 * @calls readByte()
+	 *
+	 * @param addr  Memory address, addr to addr + 3 must be in this block
+	 * @return Requested int
+	 * @throws MemoryException  If the address don't exits in this memoryBlock
+	 */
+	public int readInt(int addr) throws MemoryException {
+		return (this.readByte(addr+3) & 0xFF) << 24 | (this.readByte(addr+2) & 0xFF) << 16 | (this.readByte(addr+1) & 0xFF) << 8 | (this.readByte(addr) & 0xFF);
+	}
+
+	/**
+	 * Write an int to memory, low byte first
+	 *
+	 * @calledby MemoryManager.writeInt()
+	 * @calls writeByte()
+	 *
+	 * @param addr  Memory address, addr to addr + 3 must be in this block
+	 * @param value  Int that should be placed in the memory
+	 * @throws MemoryException  If the address don't exits in this memoryBlock
+	 */
+	public void writeInt(int addr, int value) throws MemoryException {
+		this.writeByte(addr    , (byte)(value        & 0xFF));
+		this.writeByte(addr + 1, (byte)(value >>> 8  & 0xFF));
+		this.writeByte(addr + 2, (byte)(value >>> 16 & 0xFF));
+		this.writeByte(addr + 3, (byte)(value >>> 24 & 0xFF));
+	}
+
+	/**
+	 * Fetch and decode the instruction placed at a specific memory address
+	 *
+	 * @calledby MemoryManager.readInstruction()
+	 * @calls readInt(), InstructionManager.get()
+	 *
+	 * @param addr Memory address of the instruction
+	 * @return Decoded instruction or null if the opcode is 0
+	 * @throws MemoryException  If the address don't exits in this memoryBlock
+	 * @throws InstructionException  If the opcode isn't a known instruction
+	 */
+	public Instruction readInstruction(int addr) throws MemoryException, InstructionException {
+		int opCode = this.readInt(addr);
+		if (opCode == 0)
+			return null;
+
+		return InstructionManager.get(opCode);
+	}
+
+	/**
+	 * Get the version of the code in this block. The version changes every
+	 * time a decoded instruction is overwritten, so anything built from
+	 * earlier reads is stale when the version differs.
+	 *
+	 * @calledby BasicBlock
+	 *
+	 * @return Code version, or -1 if the content may change without being written to
+	 */
+	public int getCodeVersion() {
+		return -1;
+	}
+
 	public abstract void reset();
 
 	public abstract boolean resetState();
@@ -152,11 +296,72 @@ public abstract class MemoryBlock
 	private void updateMemoryVector() {
 		this.memoryVector = new Vector<MemoryInt>();
 
-		for (int i = 0; i < this.length; i += 4) {
-			byte[] memoryInt = new byte[4];
-			System.arraycopy(this.memory, i, memoryInt, 0, 4);
-			this.memoryVector.add(new MemoryInt(this.start+i, memoryInt, this));
+		for (int i = 0; i < this.length; i += 4)
+			this.memoryVector.add(this.getMemoryInt(this.start+i));
+	}
+
+	/**
+	 * Get a copy of one word of the memory
+	 *
+	 * @calledby updateMemoryVector(), GUIMemoryView
+	 *
+	 * @param addr  External address of the word
+	 * @return The word
+	 */
+	public MemoryInt getMemoryInt(int addr) {
+		byte[] memoryInt = new byte[4];
+		System.arraycopy(this.memory, addr - this.start, memoryInt, 0, 4);
+		return new MemoryInt(addr, memoryInt, this);
+	}
+
+	/**
+	 * Get the address ranges that have changed since a generation. A page
+	 * counts as changed if it has been written to, or if a byte in it got
+	 * or lost a READ/WRITE state. Ranges are whole pages cut to the block,
+	 * and pages next to each other are merged.
+	 *
+	 * @calledby MemoryManager.getChanges()
+	 *
+	 * @param generation  Value of lastChanged() the ranges are relative to, -1 for the whole block
+	 * @return Start and end address pairs, end is exclusive
+	 */
+	public int[] getChangedRanges(int generation) {
+		if (generation < 0)
+			return new int[] {this.start, this.start + this.length};
+		if (this.pageChanged == null || this.changed <= generation)
+			return new int[0];
+
+		return this.changedRanges(this.pageChanged, PAGEBITS, generation);
+	}
+
+	/**
+	 * Merge the pages that have changed since a generation into ranges
+	 *
+	 * @calledby getChangedRanges()
+	 *
+	 * @param pageChanged  Generation each page last changed in
+	 * @param pageBits  Number of address bits within a page
+	 * @param generation  Generation the ranges are relative to
+	 * @return Start and end address pairs, end is exclusive
+	 */
+	protected int[] changedRanges(int[] pageChanged, int pageBits, int generation) {
+		int[] ranges = new int[pageChanged.length + 1];
+		int count = 0;
+		for (int page = 0; page < pageChanged.length; page++) {
+			if (pageChanged[page] <= generation)
+				continue;
+
+			int first = page;
+			while (page + 1 < pageChanged.length && pageChanged[page + 1] > generation)
+				page++;
+
+			ranges[count++] = this.start + (first << pageBits);
+			ranges[count++] = this.start + (int)Math.min((long)(page + 1) << pageBits, this.length);
 		}
+
+		int[] ret = new int[count];
+		System.arraycopy(ranges, 0, ret, 0, count);
+		return ret;
 	}
 
 	public Vector<MemoryInt> getMemoryVector() {
@@ -166,26 +371,194 @@ public abstract class MemoryBlock
 	}
 
 	public MemoryInt.STATE getState(int address) {
-		MemoryInt.STATE state = this.state.get(address - this.start);
-		if (state == null) {
+		int index = address - this.start;
+		if (this.readState == null || index < 0 || index >= this.length)
 			return MemoryInt.STATE.UNTOUCHED;
-		} else {
-			return state;
-		}
+
+		long bit = 1L << index;
+		if ((this.writeState[index >> 6] & bit) != 0)
+			return MemoryInt.STATE.WRITE;
+		if ((this.readState[index >> 6] & bit) != 0)
+			return MemoryInt.STATE.READ;
+
+		return MemoryInt.STATE.UNTOUCHED;
 	}
 
 	protected void setState(int index, MemoryInt.STATE state) {
-		if (state == MemoryInt.STATE.UNTOUCHED) {
-			this.state.remove(index);
+		this.changed++;
+
+		if (index < 0 || index >= this.length)
+			return;
+
+		if (this.pageChanged == null)
+			this.allocateState();
+
+		int word = index >> PAGEBITS;
+		if (this.trace) {
+			long bit = 1L << index;
+			switch (state) {
+				case READ:
+					this.readState[word] |= bit;
+					this.writeState[word] &= ~bit;
+					break;
+				case WRITE:
+					this.writeState[word] |= bit;
+					this.readState[word] &= ~bit;
+					break;
+				default:
+					this.readState[word] &= ~bit;
+					this.writeState[word] &= ~bit;
+			}
+
+			if (word < this.firstStateWord)
+				this.firstStateWord = word;
+			if (word > this.lastStateWord)
+				this.lastStateWord = word;
+
+			this.pageChanged[word] = this.changed;
+		} else if (state == MemoryInt.STATE.WRITE) {
+			this.pageChanged[word] = this.changed;
+		}
+	}
+
+	/**
+	 * Set the state of several bytes in a row
+	 *
+	 * @param index  Internal index of the first byte
+	 * @param count  Number of bytes
+	 * @param state  New state
+	 */
+	protected void setState(int index, int count, MemoryInt.STATE state) {
+		if (this.trace) {
+			for (int i = 0; i < count; i++)
+				this.setState(index + i, state);
 		} else {
-			this.state.put(index, state);
+			this.changed += count;
+
+			if (state == MemoryInt.STATE.WRITE && index >= 0 && index + count <= this.length) {
+				if (this.pageChanged == null)
+					this.allocateState();
+
+				for (int page = index >> PAGEBITS; page <= (index + count - 1) >> PAGEBITS; page++)
+					this.pageChanged[page] = this.changed;
+			}
 		}
+	}
 
+	/**
+	 * Mark bytes as changed without giving them a state, used when the
+	 * content is replaced by something else than the emulated program
+	 *
+	 * @calledby restore()
+	 *
+	 * @param index  Internal index of the first byte
+	 * @param count  Number of bytes
+	 */
+	protected void markChanged(int index, int count) {
 		this.changed++;
+
+		if (count <= 0)
+			return;
+		if (this.pageChanged == null)
+			this.allocateState();
+
+		for (int page = index >> PAGEBITS; page <= (index + count - 1) >> PAGEBITS; page++)
+			this.pageChanged[page] = this.changed;
+	}
+
+	/**
+	 * Allocate the state bits and page generations
+	 */
+	private void allocateState() {
+		this.readState = new long[(this.length + 63) >> 6];
+		this.writeState = new long[(this.length + 63) >> 6];
+		this.pageChanged = new int[(this.length + 63) >> PAGEBITS];
 	}
 
 	protected void clearState() {
-		this.state.clear();
+		if (this.trace)
+			this.clearStateBits();
+	}
+
+	/**
+	 * Clear all READ/WRITE states. Pages that had a state are marked as
+	 * changed so the indication is removed.
+	 */
+	private void clearStateBits() {
+		for (int word = this.firstStateWord; word <= this.lastStateWord; word++) {
+			if ((this.readState[word] | this.writeState[word]) != 0) {
+				this.readState[word] = 0;
+				this.writeState[word] = 0;
+				this.pageChanged[word] = ++this.changed;
+			}
+		}
+
+		this.firstStateWord = Integer.MAX_VALUE;
+		this.lastStateWord = -1;
+	}
+
+	/**
+	 * Turn recording of READ/WRITE states on or off. The states are only
+	 * used to highlight memory in the GUI, so they are not recorded while
+	 * the emulator runs too fast for them to be shown.
+	 *
+	 * @post States are cleared
+	 * @calledby MemoryManager.setTrace()
+	 *
+	 * @param trace  True if states should be recorded
+	 */
+	public void setTrace(boolean trace) {
+		this.clearStateBits();
+		this.trace = trace;
+	}
+
+	/**
+	 * Handle the events of a device that are due. Called by the Scheduler
+	 * when the clock of MemoryManager reaches a time the device has
+	 * scheduled, or after it has signalled.
+	 *
+	 * @calledby Scheduler.run()
+	 *
+	 * @param clock  Current clock of MemoryManager
+	 * @return Clock of the next event of the block, Long.MAX_VALUE if there is none
+	 */
+	public long clockEvent(long clock) {
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Write output that a device has buffered
+	 *
+	 * @calledby MemoryManager.flush()
+	 */
+	public void flush() {
+	}
+
+	/**
+	 * Save the state of the block so it can be restored later
+	 *
+	 * @calledby MemoryManager.snapshot()
+	 *
+	 * @return State to give to restore()
+	 */
+	public Object snapshot() {
+		return this.memory.clone();
+	}
+
+	/**
+	 * Restore a state saved by snapshot(). When several snapshots are
+	 * restored at once they are restored newest first.
+	 *
+	 * @post Restored bytes are marked as changed
+	 * @calledby MemoryManager.restore()
+	 * @calls markChanged()
+	 *
+	 * @param snapshot  State returned by snapshot()
+	 */
+	public void restore(Object snapshot) {
+		byte[] memory = (byte[])snapshot;
+		System.arraycopy(memory, 0, this.memory, 0, memory.length);
+		this.markChanged(0, this.length);
 	}
 
 	public SourceCode getSourceCode() {
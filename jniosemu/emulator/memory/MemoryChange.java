@@ -0,0 +1,164 @@
+package jniosemu.emulator.memory;
+
+import java.util.ArrayList;
+
+import jniosemu.events.Coalescable;
+
+/**
+ * Payload of a MEMORY_CHANGE event. Contains the memory blocks and, for
+ * every block, the address ranges that have changed between two
+ * generations. A listener that has seen the from generation of a block
+ * only has to update the ranges, any other listener has to read the whole
+ * block.
+ * <p>
+ * When a change is coalesced with an older one that hasn't been sent,
+ * the ranges of both are sent so listeners of the older still only have
+ * to update.
+ */
+public class MemoryChange implements Coalescable
+{
+	/**
+	 * All memory blocks
+	 */
+	private final ArrayList<MemoryBlock> memoryBlocks;
+	/**
+	 * Generation of every block the ranges are relative to, -1 if the
+	 * ranges cover the whole block
+	 */
+	private final int[] fromGeneration;
+	/**
+	 * Generation of every block when the ranges were read
+	 */
+	private final int[] toGeneration;
+	/**
+	 * Changed ranges of every block as start and end address pairs
+	 */
+	private final int[][] ranges;
+
+	/**
+	 * Read the changes of all blocks
+	 *
+	 * @calledby MemoryManager.getChanges()
+	 * @calls MemoryBlock.lastChanged(), MemoryBlock.getChangedRanges()
+	 *
+	 * @param memoryBlocks  All memory blocks
+	 * @param generations  Generation of every block to read changes since, or null for everything
+	 */
+	public MemoryChange(ArrayList<MemoryBlock> memoryBlocks, int[] generations) {
+		this.memoryBlocks = memoryBlocks;
+		this.fromGeneration = new int[memoryBlocks.size()];
+		this.toGeneration = new int[memoryBlocks.size()];
+		this.ranges = new int[memoryBlocks.size()][];
+
+		for (int i = 0; i < memoryBlocks.size(); i++) {
+			MemoryBlock block = memoryBlocks.get(i);
+			// The generation is read first so changes made while the ranges are
+			// read are sent again next time
+			this.toGeneration[i] = block.lastChanged();
+			if (generations != null && i < generations.length && generations[i] <= this.toGeneration[i])
+				this.fromGeneration[i] = generations[i];
+			else
+				this.fromGeneration[i] = -1;
+			this.ranges[i] = block.getChangedRanges(this.fromGeneration[i]);
+		}
+	}
+
+	/**
+	 * Init a change with room for a number of blocks
+	 *
+	 * @calledby coalesce()
+	 *
+	 * @param memoryBlocks  All memory blocks
+	 */
+	private MemoryChange(ArrayList<MemoryBlock> memoryBlocks) {
+		this.memoryBlocks = memoryBlocks;
+		this.fromGeneration = new int[memoryBlocks.size()];
+		this.toGeneration = new int[memoryBlocks.size()];
+		this.ranges = new int[memoryBlocks.size()][];
+	}
+
+	/**
+	 * Combine with an older change. Blocks whose ranges continue where the
+	 * older ended get the ranges of both, other blocks keep their own.
+	 *
+	 * @calledby EventManager.sendEvent()
+	 *
+	 * @param older  Older MemoryChange
+	 * @return Combined MemoryChange
+	 */
+	public Object coalesce(Object older) {
+		MemoryChange change = (MemoryChange)older;
+		if (change.memoryBlocks != this.memoryBlocks || change.ranges.length != this.ranges.length)
+			return this;
+
+		MemoryChange merged = new MemoryChange(this.memoryBlocks);
+		for (int i = 0; i < this.ranges.length; i++) {
+			merged.toGeneration[i] = this.toGeneration[i];
+			if (this.fromGeneration[i] < 0 || this.fromGeneration[i] != change.toGeneration[i]) {
+				merged.fromGeneration[i] = this.fromGeneration[i];
+				merged.ranges[i] = this.ranges[i];
+			} else if (change.fromGeneration[i] < 0) {
+				// The older covers the whole block
+				merged.fromGeneration[i] = -1;
+				merged.ranges[i] = change.ranges[i];
+			} else {
+				merged.fromGeneration[i] = change.fromGeneration[i];
+				merged.ranges[i] = new int[change.ranges[i].length + this.ranges[i].length];
+				System.arraycopy(change.ranges[i], 0, merged.ranges[i], 0, change.ranges[i].length);
+				System.arraycopy(this.ranges[i], 0, merged.ranges[i], change.ranges[i].length, this.ranges[i].length);
+			}
+		}
+
+		return merged;
+	}
+
+	/**
+	 * Get all memory blocks
+	 *
+	 * @return Memory blocks
+	 */
+	public ArrayList<MemoryBlock> getMemoryBlocks() {
+		return this.memoryBlocks;
+	}
+
+	/**
+	 * Get the generation the ranges of a block are relative to
+	 *
+	 * @param block  Index of the block
+	 * @return Generation, or -1 if the ranges cover the whole block
+	 */
+	public int getFromGeneration(int block) {
+		return this.fromGeneration[block];
+	}
+
+	/**
+	 * Get the generation of a block when the ranges were read
+	 *
+	 * @param block  Index of the block
+	 * @return Generation
+	 */
+	public int getToGeneration(int block) {
+		return this.toGeneration[block];
+	}
+
+	/**
+	 * Get the generations of all blocks when the ranges were read
+	 *
+	 * @calledby EmulatorManager
+	 *
+	 * @return Generations
+	 */
+	public int[] getGenerations() {
+		return this.toGeneration.clone();
+	}
+
+	/**
+	 * Get the changed ranges of a block
+	 *
+	 * @param block  Index of the block
+	 * @return Start and end address pairs, end is exclusive
+	 */
+	public int[] getRanges(int block) {
+		return this.ranges[block];
+	}
+}
@@ -3,9 +3,13 @@ package jniosemu.emulator.memory;
 import java.util.ArrayList;
 import java.util.HashMap;
 
+import jniosemu.emulator.Breakpoints;
 import jniosemu.emulator.SourceCode;
+import jniosemu.emulator.UndoLog;
 import jniosemu.emulator.memory.io.*;
 import jniosemu.events.EventManager;
+import jniosemu.instruction.InstructionException;
+import jniosemu.instruction.emulator.Instruction;
 
 /**
  * Manage the memory that the emulated program can access.
@@ -59,6 +63,55 @@ public class MemoryManager
 	 * Contains the different MemoryBlocks
 	 */
 	private ArrayList<MemoryBlock> memoryBlocks = new ArrayList<MemoryBlock>();
+	/**
+	 * Number of address bits in a page of the page table
+	 */
+	private static final int PAGEBITS = 4;
+	/**
+	 * A MemoryBlock that overlaps the page, indexed by address >>> PAGEBITS.
+	 * Null if no block does.
+	 */
+	private MemoryBlock[] pages = new MemoryBlock[0];
+	/**
+	 * Blocks added by addRam(). They are left out of pages, which would
+	 * need an entry for every 16 bytes up to their end.
+	 */
+	private MemoryBlock[] farBlocks = new MemoryBlock[0];
+	/**
+	 * Snapshots that can be restored, oldest first
+	 */
+	private ArrayList<MemorySnapshot> snapshots = new ArrayList<MemorySnapshot>();
+	/**
+	 * Log that writes are recorded in, null if they aren't
+	 */
+	private UndoLog undoLog = null;
+	/**
+	 * Number of times resetState() has been called, that is once per
+	 * executed instruction. Devices count time in it.
+	 */
+	private long clock = 0;
+	/**
+	 * Events of the devices
+	 */
+	private Scheduler scheduler = new Scheduler();
+	/**
+	 * True if READ/WRITE states are recorded, so the states of the blocks
+	 * have to be cleared after every instruction
+	 */
+	private boolean trace = true;
+	/**
+	 * Watchpoints that accesses are checked against, null if there are none
+	 */
+	private Breakpoints watchpoints = null;
+	/**
+	 * READ and WRITE bits of the watchpoints in each page, indexed like
+	 * pages. Null if there are no watchpoints.
+	 */
+	private volatile byte[] watchPages = null;
+	/**
+	 * READ and WRITE bits of the watchpoints in farBlocks
+	 */
+	private volatile int farWatch = 0;
 
 	/**
 	 * Init MemoryManager with program.
@@ -84,6 +137,8 @@ public class MemoryManager
 		this.memoryBlocks.add(new SerialDevice(eventManager, this, "uart_1", 0x880, EventManager.EVENT.UART1_INPUT, EventManager.EVENT.UART1_OUTPUT));
 
 		this.memoryBlocks.add(new Memory("Lib", LIBSTARTADDR, LIB.length, LIB, null));
+
+		this.updatePages();
 	}
 
 	public void reset(byte[] program, byte[] variables, SourceCode programSourceCode) {
@@ -95,11 +150,292 @@ public class MemoryManager
 		this.memoryBlocks.set(2, new Memory("Stack", (STACKSTARTADDR - STACKSIZE), STACKSIZE, null, null));
 
 		this.memoryBlocks.set(9, new Memory("Lib", LIBSTARTADDR, LIB.length, LIB, null));		
+
+		this.snapshots.clear();
+		this.updatePages();
+	}
+
+	/**
+	 * Reset the memory to a snapshot of the same program. Only the pages
+	 * written to since the snapshot are copied, the devices are reset.
+	 *
+	 * @calledby EmulatorManager.load()
+	 * @calls restore(), MemoryBlock.reset()
+	 *
+	 * @param snapshot  Snapshot taken when the program was loaded
+	 * @return False if the snapshot can't be restored
+	 */
+	public boolean reset(MemorySnapshot snapshot) {
+		if (!this.restore(snapshot, false))
+			return false;
+
+		for (MemoryBlock memoryBlock : this.memoryBlocks) {
+			if (!isMemory(memoryBlock))
+				memoryBlock.reset();
+		}
+
+		return true;
+	}
+
+	/**
+	 * Take a snapshot of all memory blocks and devices
+	 *
+	 * @calledby EmulatorManager.snapshot()
+	 * @calls MemoryBlock.snapshot()
+	 *
+	 * @return Snapshot
+	 */
+	public MemorySnapshot snapshot() {
+		Object[] states = new Object[this.memoryBlocks.size()];
+		for (int i = 0; i < states.length; i++)
+			states[i] = this.memoryBlocks.get(i).snapshot();
+
+		MemorySnapshot snapshot = new MemorySnapshot(states);
+		this.snapshots.add(snapshot);
+		return snapshot;
+	}
+
+	/**
+	 * Restore a snapshot. Snapshots taken after it are thrown away.
+	 *
+	 * @calledby EmulatorManager.restore()
+	 * @calls restore()
+	 *
+	 * @param snapshot  Snapshot returned by snapshot()
+	 * @return False if the snapshot has been thrown away, or is from before the last reset
+	 */
+	public boolean restore(MemorySnapshot snapshot) {
+		return this.restore(snapshot, true);
+	}
+
+	/**
+	 * Restore a snapshot by restoring all newer snapshots first, newest
+	 * first, since each one only contains what was changed before the
+	 * next one was taken.
+	 *
+	 * @calledby reset(), restore()
+	 * @calls MemoryBlock.restore()
+	 *
+	 * @param snapshot  Snapshot returned by snapshot()
+	 * @param devices  False if only Memory and SparseMemory blocks should be restored
+	 * @return False if the snapshot can't be restored
+	 */
+	private boolean restore(MemorySnapshot snapshot, boolean devices) {
+		int index = this.snapshots.indexOf(snapshot);
+		if (index < 0)
+			return false;
+
+		for (int i = this.snapshots.size() - 1; i >= index; i--) {
+			MemorySnapshot restored = this.snapshots.get(i);
+			for (int block = 0; block < this.memoryBlocks.size(); block++) {
+				MemoryBlock memoryBlock = this.memoryBlocks.get(block);
+				if (devices || isMemory(memoryBlock))
+					memoryBlock.restore(restored.getState(block));
+			}
+
+			if (i > index)
+				this.snapshots.remove(i);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Check if a block is memory, whose content is restored from
+	 * snapshots on reset, rather than a device
+	 *
+	 * @param memoryBlock  Block to check
+	 * @return True if the block is Memory or SparseMemory
+	 */
+	private static boolean isMemory(MemoryBlock memoryBlock) {
+		return memoryBlock instanceof Memory || memoryBlock instanceof SparseMemory;
+	}
+
+	/**
+	 * Add a RAM after the standard blocks, like the SDRAM of the board.
+	 * Snapshots taken before it was added can't be restored.
+	 *
+	 * @calledby EmulatorManager
+	 * @calls updatePages()
+	 *
+	 * @param ram  The RAM
+	 * @throws IllegalArgumentException  If the RAM overlaps another block
+	 */
+	public void addRam(SparseMemory ram) {
+		for (MemoryBlock block : this.memoryBlocks) {
+			if (block.getLength() > 0 && block.getStart() <= ram.getEnd() && ram.getStart() <= block.getEnd())
+				throw new IllegalArgumentException(ram.getName() +" overlaps "+ block.getName());
+		}
+
+		this.memoryBlocks.add(ram);
+
+		MemoryBlock[] farBlocks = new MemoryBlock[this.farBlocks.length + 1];
+		System.arraycopy(this.farBlocks, 0, farBlocks, 0, this.farBlocks.length);
+		farBlocks[this.farBlocks.length] = ram;
+		this.farBlocks = farBlocks;
+
+		ram.setTrace(this.trace);
+		this.snapshots.clear();
+		this.updatePages();
+	}
+
+	/**
+	 * Rebuild the page table from memoryBlocks, except farBlocks
+	 *
+	 * @calledby MemoryManager(), reset(), addRam()
+	 */
+	private void updatePages() {
+		int end = 0;
+		for (MemoryBlock block : this.memoryBlocks) {
+			if (!(block instanceof SparseMemory))
+				end = Math.max(end, block.getEnd());
+		}
+
+		this.pages = new MemoryBlock[(end >>> PAGEBITS) + 1];
+		for (MemoryBlock block : this.memoryBlocks) {
+			if (block.getLength() <= 0 || block instanceof SparseMemory)
+				continue;
+
+			for (int page = block.getStart() >>> PAGEBITS; page <= block.getEnd() >>> PAGEBITS; page++) {
+				if (this.pages[page] == null)
+					this.pages[page] = block;
+			}
+		}
+
+		this.updateWatchPages();
+	}
+
+	/**
+	 * Set the watchpoints that reads and writes are checked against. Must
+	 * be called again when watchpoints are added or removed.
+	 *
+	 * @calledby EmulatorManager
+	 * @calls updateWatchPages()
+	 *
+	 * @param watchpoints  Watchpoints, null for none
+	 */
+	public void setWatchpoints(Breakpoints watchpoints) {
+		this.watchpoints = watchpoints;
+		this.updateWatchPages();
+	}
+
+	/**
+	 * Rebuild watchPages from watchpoints
+	 *
+	 * @calledby updatePages(), setWatchpoints()
+	 * @calls Breakpoints.getWatchAccess()
+	 */
+	private void updateWatchPages() {
+		if (this.watchpoints == null || !this.watchpoints.hasWatchpoints()) {
+			this.watchPages = null;
+			return;
+		}
+
+		byte[] watchPages = new byte[this.pages.length];
+		for (int page = 0; page < watchPages.length; page++)
+			watchPages[page] = (byte)this.watchpoints.getWatchAccess(page << PAGEBITS, (page + 1 << PAGEBITS) - 1);
+
+		int farWatch = 0;
+		for (MemoryBlock block : this.farBlocks)
+			farWatch |= this.watchpoints.getWatchAccess(block.getStart(), block.getEnd());
+
+		this.farWatch = farWatch;
+		this.watchPages = watchPages;
+	}
+
+	/**
+	 * Tell the watchpoints about an access if its page carries one.
+	 * Accesses beyond the page table are checked if a far block carries
+	 * one.
+	 *
+	 * @calledby readByte(), writeByte(), readShort(), writeShort(), readInt(), writeInt()
+	 * @calls Breakpoints.access()
+	 *
+	 * @param watchPages  Current watchPages
+	 * @param addr  External address of the first byte
+	 * @param count  Number of bytes, in the same block
+	 * @param access  Breakpoints.READ or Breakpoints.WRITE
+	 */
+	private void watch(byte[] watchPages, int addr, int count, int access) {
+		int first = addr >>> PAGEBITS;
+		int last = (addr + count - 1) >>> PAGEBITS;
+		if ((first < watchPages.length && (watchPages[first] & access) != 0) || (last < watchPages.length && (watchPages[last] & access) != 0))
+			this.watchpoints.access(addr, count, access);
+		else if (last >= watchPages.length && (this.farWatch & access) != 0)
+			this.watchpoints.access(addr, count, access);
 	}
 
+	/**
+	 * Called after every instruction. Clears the states of the blocks if
+	 * they are recorded and lets the devices handle their due events.
+	 * The devices aren't polled, they do nothing until they have
+	 * scheduled an event or signalled.
+	 *
+	 * @calledby EmulatorManager, BlockCompiler
+	 * @calls MemoryBlock.resetState(), Scheduler.run()
+	 */
 	public void resetState() {
+		if (this.trace) {
+			for (MemoryBlock memoryBlock : this.memoryBlocks)
+				memoryBlock.resetState();
+		}
+
+		if (this.scheduler.isDue(++this.clock))
+			this.scheduler.run(this.clock);
+	}
+
+	/**
+	 * Get the clock that devices count time in
+	 *
+	 * @calledby TimerDevice
+	 *
+	 * @return Number of executed instructions
+	 */
+	public long getClock() {
+		return this.clock;
+	}
+
+	/**
+	 * Schedule a device event. The clockEvent() of the device is called
+	 * when the clock reaches it.
+	 *
+	 * @pre Called from the emulation thread
+	 * @calledby TimerDevice, SerialDevice
+	 * @calls Scheduler.schedule()
+	 *
+	 * @param device  Device to call
+	 * @param time  Clock of the event
+	 */
+	public void schedule(MemoryBlock device, long time) {
+		this.scheduler.schedule(device, time);
+	}
+
+	/**
+	 * Let a device handle input after the next instruction. Can be called
+	 * from any thread.
+	 *
+	 * @calledby ButtonDevice, DipswitchDevice, SerialDevice
+	 * @calls Scheduler.signal()
+	 *
+	 * @param device  Device to call
+	 */
+	public void signal(MemoryBlock device) {
+		this.scheduler.signal(device);
+	}
+
+	/**
+	 * Turn recording of READ/WRITE states on or off in all memory blocks
+	 *
+	 * @post States are cleared
+	 * @calledby EmulatorManager.execRun()
+	 * @calls MemoryBlock.setTrace()
+	 *
+	 * @param trace  True if states should be recorded
+	 */
+	public void setTrace(boolean trace) {
+		this.trace = trace;
 		for (MemoryBlock memoryBlock : this.memoryBlocks)
-			memoryBlock.resetState();
+			memoryBlock.setTrace(trace);
 	}
 
 	/**
@@ -113,13 +449,12 @@ public class MemoryManager
 	 * @throws MemoryException  If the address is wrong
 	 */
 	public byte readByte(int addr) throws MemoryException {
-		for (MemoryBlock block: this.memoryBlocks) {
-			if (block.inRange(addr)) {
-				return block.readByte(addr);
-			}
-		}
+		MemoryBlock block = this.getBlock(addr);
+		byte[] watchPages = this.watchPages;
+		if (watchPages != null)
+			this.watch(watchPages, addr, 1, Breakpoints.READ);
 
-		throw new MemoryException(addr);
+		return block.readByte(addr);
 	}
 
 	/**
@@ -133,17 +468,112 @@ public class MemoryManager
 	 * @throws MemoryException  If the address is wrong
 	 */
 	public void writeByte(int addr, byte value) throws MemoryException {
-		for (MemoryBlock block: this.memoryBlocks) {
-			if (block.inRange(addr)) {
-				block.writeByte(addr, value);
-				return;
-			}
+		MemoryBlock block = this.getBlock(addr);
+		byte[] watchPages = this.watchPages;
+		if (watchPages != null)
+			this.watch(watchPages, addr, 1, Breakpoints.WRITE);
+		if (this.undoLog != null)
+			this.undoLog.memory(addr, 1, this.readRaw(block, addr, 1));
+
+		block.writeByte(addr, value);
+	}
+
+	/**
+	 * Read bytes from a block without changing their state
+	 *
+	 * @calledby writeByte(), writeShort(), writeInt()
+	 * @calls MemoryBlock.readRawByte()
+	 *
+	 * @param block  Block that contains all bytes
+	 * @param addr  External address of the first byte
+	 * @param count  Number of bytes, at most 4
+	 * @return The bytes, the first byte lowest
+	 * @throws MemoryException  If the address is wrong
+	 */
+	private int readRaw(MemoryBlock block, int addr, int count) throws MemoryException {
+		int value = 0;
+		for (int i = count - 1; i >= 0; i--)
+			value = value << 8 | (block.readRawByte(addr + i) & 0xFF);
+
+		return value;
+	}
+
+	/**
+	 * Write bytes without notifying devices, used to undo writes
+	 *
+	 * @calledby UndoLog.undo()
+	 * @calls MemoryBlock.writeRawByte()
+	 *
+	 * @param addr  External address of the first byte
+	 * @param count  Number of bytes, at most 4
+	 * @param value  The bytes, the first byte lowest
+	 * @throws MemoryException  If the address is wrong
+	 */
+	public void writeRaw(int addr, int count, int value) throws MemoryException {
+		for (int i = 0; i < count; i++)
+			this.getBlock(addr + i).writeRawByte(addr + i, (byte)(value >>> 8 * i));
+	}
+
+	/**
+	 * Set the log that writes are recorded in
+	 *
+	 * @calledby EmulatorManager
+	 *
+	 * @param undoLog  Log, null to stop recording
+	 */
+	public void setUndoLog(UndoLog undoLog) {
+		this.undoLog = undoLog;
+	}
+
+	/**
+	 * Write the output that the devices have buffered
+	 *
+	 * @calledby EmulatorManager.execRun()
+	 * @calls MemoryBlock.flush()
+	 */
+	public void flush() {
+		for (MemoryBlock memoryBlock : this.memoryBlocks)
+			memoryBlock.flush();
+	}
+
+	/**
+	 * Get a UART
+	 *
+	 * @param index  0 for uart_0, 1 for uart_1
+	 * @return The SerialDevice, null if there is no such UART
+	 */
+	public SerialDevice getSerialDevice(int index) {
+		for (MemoryBlock memoryBlock : this.memoryBlocks) {
+			if (memoryBlock instanceof SerialDevice && index-- == 0)
+				return (SerialDevice)memoryBlock;
 		}
 
-		throw new MemoryException(addr);		
+		return null;
 	}
 
+	/**
+	 * Get the MemoryBlock that contains an address
+	 *
+	 * @calledby readByte(), writeByte(), readInstruction(), EmulatorManager
+	 *
+	 * @param addr  External address
+	 * @return MemoryBlock that contains addr
+	 * @throws MemoryException  If no block contains addr
+	 */
 	public MemoryBlock getBlock(int addr) throws MemoryException {
+		int page = addr >>> PAGEBITS;
+		if (page < this.pages.length) {
+			MemoryBlock block = this.pages[page];
+			if (block != null && block.inRange(addr))
+				return block;
+		}
+
+		for (MemoryBlock block : this.farBlocks) {
+			if (block.inRange(addr))
+				return block;
+		}
+
+		// Pages shared by two blocks and unmapped addresses
 		for (MemoryBlock block: this.memoryBlocks) {
 			if (block.inRange(addr))
 				return block;
@@ -163,6 +593,15 @@ public class MemoryManager
 	 * @throws MemoryException  If the address is wrong
 	 */
 	public short readShort(int addr) throws MemoryException {
+		MemoryBlock block = this.getBlock(addr);
+		if (block.inRange(addr + 1)) {
+			byte[] watchPages = this.watchPages;
+			if (watchPages != null)
+				this.watch(watchPages, addr, 2, Breakpoints.READ);
+			return block.readShort(addr);
+		}
+
+		// The short is split between two blocks
 		return (short)((this.readByte(addr+1) & 0xFF) << 8 | (this.readByte(addr) & 0xFF));
 	}
 
@@ -177,6 +616,18 @@ public class MemoryManager
 	 * @throws MemoryException  If the address is wrong
 	 */
 	public void writeShort(int addr, short value) throws MemoryException {
+		MemoryBlock block = this.getBlock(addr);
+		if (block.inRange(addr + 1)) {
+			byte[] watchPages = this.watchPages;
+			if (watchPages != null)
+				this.watch(watchPages, addr, 2, Breakpoints.WRITE);
+			if (this.undoLog != null)
+				this.undoLog.memory(addr, 2, this.readRaw(block, addr, 2));
+			block.writeShort(addr, value);
+			return;
+		}
+
+		// The short is split between two blocks
 		this.writeByte(addr    , (byte)(value       & 0xFF));
 		this.writeByte(addr + 1, (byte)(value >>> 8 & 0xFF));
 	}
@@ -192,6 +643,15 @@ public class MemoryManager
 	 * @throws MemoryException  If the address is wrong
 	 */
 	public int readInt(int addr) throws MemoryException {
+		MemoryBlock block = this.getBlock(addr);
+		if (block.inRange(addr + 3)) {
+			byte[] watchPages = this.watchPages;
+			if (watchPages != null)
+				this.watch(watchPages, addr, 4, Breakpoints.READ);
+			return block.readInt(addr);
+		}
+
+		// The int is split between two blocks
 		return (this.readByte(addr+3) & 0xFF) << 24 | (this.readByte(addr+2) & 0xFF) << 16 | (this.readByte(addr+1) & 0xFF) << 8 | (this.readByte(addr) & 0xFF);
 	}
 
@@ -206,16 +666,55 @@ public class MemoryManager
 	 * @throws MemoryException  If the address is wrong
 	 */
 	public void writeInt(int addr, int value) throws MemoryException {
+		MemoryBlock block = this.getBlock(addr);
+		if (block.inRange(addr + 3)) {
+			byte[] watchPages = this.watchPages;
+			if (watchPages != null)
+				this.watch(watchPages, addr, 4, Breakpoints.WRITE);
+			if (this.undoLog != null)
+				this.undoLog.memory(addr, 4, this.readRaw(block, addr, 4));
+			block.writeInt(addr, value);
+			return;
+		}
+
+		// The int is split between two blocks
 		this.writeByte(addr    , (byte)(value        & 0xFF));
 		this.writeByte(addr + 1, (byte)(value >>> 8  & 0xFF));
 		this.writeByte(addr + 2, (byte)(value >>> 16 & 0xFF));
 		this.writeByte(addr + 3, (byte)(value >>> 24 & 0xFF));
 	}
 
+	/**
+	 * Fetch and decode the instruction at an address.
+	 *
+	 * @calledby EmulatorManager
+	 *
+	 * @param addr  External address
+	 * @return Decoded instruction or null if the opcode is 0
+	 * @throws MemoryException  If the address is wrong
+	 * @throws InstructionException  If the opcode isn't a known instruction
+	 */
+	public Instruction readInstruction(int addr) throws MemoryException, InstructionException {
+		return this.getBlock(addr).readInstruction(addr);
+	}
+
 	public ArrayList<MemoryBlock> getMemoryBlocks() {
 		return this.memoryBlocks;
 	}
 
+	/**
+	 * Get what has changed in the memory since earlier generations
+	 *
+	 * @calledby EmulatorManager
+	 * @calls MemoryChange()
+	 *
+	 * @param generations  Generation of every block from an earlier MemoryChange, or null for everything
+	 * @return Changes
+	 */
+	public MemoryChange getChanges(int[] generations) {
+		return new MemoryChange(this.memoryBlocks, generations);
+	}
+
 	public void dump() {
 		int start = 0;
 		for (MemoryBlock block: this.memoryBlocks) {
@@ -0,0 +1,37 @@
+package jniosemu.emulator.memory;
+
+/**
+ * A snapshot of all memory blocks, taken by MemoryManager.snapshot().
+ * The memory is copied on write, so taking a snapshot is cheap and
+ * restoring it only copies the pages written to since.
+ */
+public class MemorySnapshot
+{
+	/**
+	 * State of every memory block, in the same order as the blocks
+	 */
+	private final Object[] states;
+
+	/**
+	 * Init MemorySnapshot
+	 *
+	 * @calledby MemoryManager.snapshot()
+	 *
+	 * @param states  State of every memory block
+	 */
+	MemorySnapshot(Object[] states) {
+		this.states = states;
+	}
+
+	/**
+	 * Get the state of a memory block
+	 *
+	 * @calledby MemoryManager.restore()
+	 *
+	 * @param block  Index of the block
+	 * @return State returned by MemoryBlock.snapshot()
+	 */
+	Object getState(int block) {
+		return this.states[block];
+	}
+}
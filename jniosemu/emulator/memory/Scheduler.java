@@ -0,0 +1,140 @@
+package jniosemu.emulator.memory;
+
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Events of the devices, in the clock of MemoryManager. A device
+ * schedules an event when it has something to do at a certain time, or
+ * signals when it has got input from another thread, and its
+ * clockEvent() is called when the event is due. Only the time of the
+ * first event has to be checked after every instruction, however many
+ * devices there are.
+ * <p>
+ * Every device has at most one event in the queue, the earliest one. A
+ * device that is called too early returns the time it really wanted.
+ */
+public class Scheduler
+{
+	/**
+	 * Events by time, the first one is the next to handle
+	 */
+	private PriorityQueue<Event> queue = new PriorityQueue<Event>();
+	/**
+	 * The event of every device that has scheduled one
+	 */
+	private HashMap<MemoryBlock, Event> events = new HashMap<MemoryBlock, Event>();
+	/**
+	 * Devices that have signalled since the last run()
+	 */
+	private ConcurrentLinkedQueue<MemoryBlock> signalled = new ConcurrentLinkedQueue<MemoryBlock>();
+	/**
+	 * True if signalled may contain a device
+	 */
+	private volatile boolean signal = false;
+	/**
+	 * Time of the first event in queue, Long.MAX_VALUE if it is empty
+	 */
+	private long next = Long.MAX_VALUE;
+
+	/**
+	 * The event of a device
+	 */
+	private static class Event implements Comparable<Event>
+	{
+		private final MemoryBlock device;
+		private long time = 0;
+		private boolean queued = false;
+
+		public Event(MemoryBlock device) {
+			this.device = device;
+		}
+
+		public int compareTo(Event event) {
+			return (this.time < event.time) ? -1 : ((this.time == event.time) ? 0 : 1);
+		}
+	}
+
+	/**
+	 * Check if an event is due
+	 *
+	 * @calledby MemoryManager.resetState()
+	 *
+	 * @param clock  Current clock
+	 * @return True if run() should be called
+	 */
+	public boolean isDue(long clock) {
+		return clock >= this.next || this.signal;
+	}
+
+	/**
+	 * Schedule an event. If the device already has an earlier event
+	 * nothing is changed.
+	 *
+	 * @pre Called from the emulation thread
+	 * @calledby MemoryManager.schedule(), run()
+	 *
+	 * @param device  Device whose clockEvent() is called
+	 * @param time  Clock of the event
+	 */
+	public void schedule(MemoryBlock device, long time) {
+		Event event = this.events.get(device);
+		if (event == null) {
+			event = new Event(device);
+			this.events.put(device, event);
+		} else if (event.queued) {
+			if (event.time <= time)
+				return;
+			this.queue.remove(event);
+		}
+
+		event.time = time;
+		event.queued = true;
+		this.queue.add(event);
+		this.next = this.queue.peek().time;
+	}
+
+	/**
+	 * Call clockEvent() of a device at the next run(). Can be called from
+	 * any thread.
+	 *
+	 * @calledby MemoryManager.signal()
+	 *
+	 * @param device  Device that has got input
+	 */
+	public void signal(MemoryBlock device) {
+		this.signalled.add(device);
+		this.signal = true;
+	}
+
+	/**
+	 * Handle the signals and every event that is due, in the order of
+	 * time. An event a device schedules from clockEvent() is never handled
+	 * in the same run().
+	 *
+	 * @calledby MemoryManager.resetState()
+	 * @calls MemoryBlock.clockEvent()
+	 *
+	 * @param clock  Current clock
+	 */
+	public void run(long clock) {
+		if (this.signal) {
+			this.signal = false;
+			MemoryBlock device;
+			while ((device = this.signalled.poll()) != null)
+				this.schedule(device, clock);
+		}
+
+		while (!this.queue.isEmpty() && this.queue.peek().time <= clock) {
+			Event event = this.queue.poll();
+			event.queued = false;
+
+			long time = event.device.clockEvent(clock);
+			if (time != Long.MAX_VALUE)
+				this.schedule(event.device, Math.max(time, clock + 1));
+		}
+
+		this.next = this.queue.isEmpty() ? Long.MAX_VALUE : this.queue.peek().time;
+	}
+}
@@ -0,0 +1,655 @@
+package jniosemu.emulator.memory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import jniosemu.emulator.SourceCode;
+import jniosemu.instruction.InstructionException;
+import jniosemu.instruction.emulator.Instruction;
+
+/**
+ * A large RAM, like the SDRAM of the board, that isn't allocated up
+ * front. The memory is split in pages that are allocated the first time
+ * they are written to, a page that hasn't been written to reads as 0.
+ * <p>
+ * The memory can instead be kept in a file that is mapped into memory.
+ * The file is cleared when the block is created, so the RAM starts out
+ * as 0 in both cases, and holds the content of the RAM after a run.
+ * <p>
+ * Nothing in the block is sized by its length except one int per page,
+ * so the READ/WRITE states, decoded instructions and snapshots are kept
+ * per page or for the touched bytes only.
+ */
+public class SparseMemory extends MemoryBlock
+{
+	/**
+	 * Little-endian short and int views of a page
+	 */
+	private static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+	/**
+	 * Number of address bits within a page. A page is 4 kB.
+	 */
+	public static final int SPARSEBITS = 12;
+	private static final int SPARSESIZE = 1 << SPARSEBITS;
+	/**
+	 * Max number of bytes that are disassembled by getSourceCode()
+	 */
+	private static final int MAXSOURCE = 0x10000;
+	/**
+	 * Saved in a snapshot for a page that wasn't in use
+	 */
+	private static final byte[] ABSENT = new byte[0];
+
+	/**
+	 * The pages, null for a page that isn't allocated. Null if the memory
+	 * is in a file.
+	 */
+	private byte[][] pages = null;
+	/**
+	 * The mapped file, null if the memory is on the heap
+	 */
+	private MappedByteBuffer buffer = null;
+	/**
+	 * Pages of the file that have been written to since reset()
+	 */
+	private boolean[] used = null;
+	/**
+	 * Value of changed the last time something in each page was written,
+	 * or got or lost a READ/WRITE state
+	 */
+	private int[] pageChanged;
+	/**
+	 * Decoded instructions of each page indexed by word offset in the
+	 * page, null for a page nothing has been decoded in
+	 */
+	private Instruction[][] instructions;
+	/**
+	 * Incremented when a decoded instruction is overwritten
+	 */
+	private int codeVersion = 0;
+	/**
+	 * Bytes that have a READ/WRITE state, as internal index and state.
+	 * Only the bytes of the current instruction have one, so they are few.
+	 */
+	private int[] stateIndex = new int[8];
+	private MemoryInt.STATE[] stateValue = new MemoryInt.STATE[8];
+	private int stateCount = 0;
+	/**
+	 * True if READ/WRITE states are recorded
+	 */
+	private boolean trace = true;
+	/**
+	 * The newest snapshot, its pages are saved before they are written to
+	 * the first time. Null if no snapshot is taken.
+	 */
+	private Snapshot snapshot = null;
+
+	/**
+	 * Pages as they were when a snapshot was taken. Only the pages written
+	 * to after the snapshot are saved, ABSENT for a page that wasn't in
+	 * use.
+	 */
+	private static class Snapshot
+	{
+		private final byte[][] pages;
+
+		public Snapshot(int pages) {
+			this.pages = new byte[pages][];
+		}
+	}
+
+	/**
+	 * Init SparseMemory.
+	 *
+	 * @calledby EmulatorManager, Headless
+	 *
+	 * @param name  Name of the part
+	 * @param start  External start address
+	 * @param length  Length of the memory part
+	 * @param file  File to keep the memory in, it is overwritten. Null to keep it on the heap.
+	 * @throws IOException  If the file can't be created or mapped
+	 */
+	public SparseMemory(String name, int start, int length, File file) throws IOException {
+		if (length <= 0 || start < 0 || start + length < 0)
+			throw new IllegalArgumentException("Bad memory range: "+ name);
+
+		this.name = name;
+		this.start = start;
+		this.length = length;
+
+		if (file != null) {
+			RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+			try {
+				// Truncated first so the file is all 0 and only takes disk space
+				// where it is written to
+				randomAccessFile.setLength(0);
+				randomAccessFile.setLength(length);
+				this.buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+				this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+			} finally {
+				// The mapping stays valid when the file is closed
+				randomAccessFile.close();
+			}
+		}
+
+		this.reset();
+	}
+
+	/**
+	 * Check that bytes are in the block
+	 *
+	 * @param addr  External address of the first byte
+	 * @param count  Number of bytes
+	 * @return Internal index of the first byte
+	 * @throws MemoryException  If a byte isn't in the block
+	 */
+	private int index(int addr, int count) throws MemoryException {
+		int index = this.mapAddr(addr);
+		if (index < 0 || index > this.length - count)
+			throw new MemoryException(addr);
+
+		return index;
+	}
+
+	/**
+	 * Check if a page has been written to since reset()
+	 *
+	 * @param page  Page number
+	 * @return True if the page is in use
+	 */
+	private boolean inUse(int page) {
+		return (this.buffer != null) ? this.used[page] : this.pages[page] != null;
+	}
+
+	/**
+	 * Get a page to write to, it is allocated if it isn't in use
+	 *
+	 * @param page  Page number
+	 * @return The page, null if the memory is in a file
+	 */
+	private byte[] usePage(int page) {
+		if (this.buffer != null) {
+			this.used[page] = true;
+			return null;
+		}
+
+		if (this.pages[page] == null)
+			this.pages[page] = new byte[Math.min(SPARSESIZE, this.length - (page << SPARSEBITS))];
+
+		return this.pages[page];
+	}
+
+	/**
+	 * Read a byte without changing its state
+	 *
+	 * @param index  Internal index
+	 * @return The byte
+	 */
+	private byte get(int index) {
+		if (this.buffer != null)
+			return this.buffer.get(index);
+
+		byte[] page = this.pages[index >> SPARSEBITS];
+		return (page != null) ? page[index & (SPARSESIZE - 1)] : 0;
+	}
+
+	/**
+	 * Write a byte without changing its state
+	 *
+	 * @param index  Internal index
+	 * @param value  Byte to write
+	 */
+	private void put(int index, byte value) {
+		byte[] page = this.usePage(index >> SPARSEBITS);
+		if (page != null)
+			page[index & (SPARSESIZE - 1)] = value;
+		else
+			this.buffer.put(index, value);
+	}
+
+	/**
+	 * Check if bytes are in the same page
+	 *
+	 * @param index  Internal index of the first byte
+	 * @param count  Number of bytes
+	 * @return True if all bytes are in the page of the first
+	 */
+	private static boolean samePage(int index, int count) {
+		return (index & (SPARSESIZE - 1)) <= SPARSESIZE - count;
+	}
+
+	public byte readByte(int addr) throws MemoryException {
+		int index = this.index(addr, 1);
+		this.setState(index, MemoryInt.STATE.READ);
+		return this.get(index);
+	}
+
+	public void writeByte(int addr, byte value) throws MemoryException {
+		int index = this.index(addr, 1);
+		if (this.snapshot != null)
+			this.save(index, 1);
+		this.put(index, value);
+		this.written(index, 1);
+	}
+
+	public byte readRawByte(int addr) {
+		return this.get(this.index(addr, 1));
+	}
+
+	public void writeRawByte(int addr, byte value) throws MemoryException {
+		int index = this.index(addr, 1);
+		if (this.snapshot != null)
+			this.save(index, 1);
+		this.put(index, value);
+
+		this.sourceCode = null;
+		this.dropInstructions(index, 1);
+		this.markChanged(index, 1);
+	}
+
+	public short readShort(int addr) throws MemoryException {
+		int index = this.mapAddr(addr);
+		if (index < 0 || index > this.length - 2 || !samePage(index, 2))
+			return super.readShort(addr);
+
+		short value;
+		if (this.buffer != null) {
+			value = this.buffer.getShort(index);
+		} else {
+			byte[] page = this.pages[index >> SPARSEBITS];
+			value = (page != null) ? (short)SHORT.get(page, index & (SPARSESIZE - 1)) : 0;
+		}
+
+		this.setState(index, 2, MemoryInt.STATE.READ);
+		return value;
+	}
+
+	public void writeShort(int addr, short value) throws MemoryException {
+		int index = this.mapAddr(addr);
+		if (index < 0 || index > this.length - 2 || !samePage(index, 2)) {
+			super.writeShort(addr, value);
+			return;
+		}
+
+		if (this.snapshot != null)
+			this.save(index, 2);
+		byte[] page = this.usePage(index >> SPARSEBITS);
+		if (page != null)
+			SHORT.set(page, index & (SPARSESIZE - 1), value);
+		else
+			this.buffer.putShort(index, value);
+		this.written(index, 2);
+	}
+
+	public int readInt(int addr) throws MemoryException {
+		int index = this.mapAddr(addr);
+		if (index < 0 || index > this.length - 4 || !samePage(index, 4))
+			return super.readInt(addr);
+
+		int value;
+		if (this.buffer != null) {
+			value = this.buffer.getInt(index);
+		} else {
+			byte[] page = this.pages[index >> SPARSEBITS];
+			value = (page != null) ? (int)INT.get(page, index & (SPARSESIZE - 1)) : 0;
+		}
+
+		this.setState(index, 4, MemoryInt.STATE.READ);
+		return value;
+	}
+
+	public void writeInt(int addr, int value) throws MemoryException {
+		int index = this.mapAddr(addr);
+		if (index < 0 || index > this.length - 4 || !samePage(index, 4)) {
+			super.writeInt(addr, value);
+			return;
+		}
+
+		if (this.snapshot != null)
+			this.save(index, 4);
+		byte[] page = this.usePage(index >> SPARSEBITS);
+		if (page != null)
+			INT.set(page, index & (SPARSESIZE - 1), value);
+		else
+			this.buffer.putInt(index, value);
+		this.written(index, 4);
+	}
+
+	/**
+	 * Update states and drop decoded instructions after a write
+	 *
+	 * @calledby writeByte(), writeShort(), writeInt()
+	 *
+	 * @param index  Internal index of the first byte written
+	 * @param count  Number of bytes written
+	 */
+	private void written(int index, int count) {
+		this.sourceCode = null;
+		this.dropInstructions(index, count);
+		this.setState(index, count, MemoryInt.STATE.WRITE);
+	}
+
+	/**
+	 * Drop the decoded instructions that overlap some bytes
+	 *
+	 * @calledby written(), writeRawByte(), restore()
+	 *
+	 * @param index  Internal index of the first byte
+	 * @param count  Number of bytes
+	 */
+	private void dropInstructions(int index, int count) {
+		for (int word = index >> 2; word <= (index + count - 1) >> 2; word++) {
+			Instruction[] page = this.instructions[word >> (SPARSEBITS - 2)];
+			if (page != null && page[word & (SPARSESIZE / 4 - 1)] != null) {
+				page[word & (SPARSESIZE / 4 - 1)] = null;
+				this.codeVersion++;
+			}
+		}
+	}
+
+	public Instruction readInstruction(int addr) throws MemoryException, InstructionException {
+		int index = this.index(addr, 4);
+		int word = index >> 2;
+
+		Instruction[] page = this.instructions[word >> (SPARSEBITS - 2)];
+		if (page == null) {
+			page = new Instruction[SPARSESIZE / 4];
+			this.instructions[word >> (SPARSEBITS - 2)] = page;
+		}
+
+		Instruction instruction = page[word & (SPARSESIZE / 4 - 1)];
+		if (instruction == null) {
+			instruction = super.readInstruction(addr);
+			page[word & (SPARSESIZE / 4 - 1)] = instruction;
+		} else {
+			this.setState(index, 4, MemoryInt.STATE.READ);
+		}
+
+		return instruction;
+	}
+
+	public int getCodeVersion() {
+		return this.codeVersion;
+	}
+
+	public MemoryInt getMemoryInt(int addr) {
+		int index = addr - this.start;
+		byte[] memoryInt = new byte[4];
+		for (int i = 0; i < 4 && index + i < this.length; i++)
+			memoryInt[i] = this.get(index + i);
+
+		return new MemoryInt(addr, memoryInt, this);
+	}
+
+	public MemoryInt.STATE getState(int address) {
+		// Called by the GUI while the arrays may be grown
+		int[] stateIndex = this.stateIndex;
+		MemoryInt.STATE[] stateValue = this.stateValue;
+		int index = address - this.start;
+		for (int i = Math.min(this.stateCount, Math.min(stateIndex.length, stateValue.length)) - 1; i >= 0; i--) {
+			if (stateIndex[i] == index)
+				return stateValue[i];
+		}
+
+		return MemoryInt.STATE.UNTOUCHED;
+	}
+
+	protected void setState(int index, MemoryInt.STATE state) {
+		this.changed++;
+
+		if (index < 0 || index >= this.length)
+			return;
+
+		if (this.trace) {
+			int i = 0;
+			while (i < this.stateCount && this.stateIndex[i] != index)
+				i++;
+
+			if (i == this.stateCount) {
+				if (i == this.stateIndex.length) {
+					int[] stateIndex = new int[i * 2];
+					MemoryInt.STATE[] stateValue = new MemoryInt.STATE[i * 2];
+					System.arraycopy(this.stateIndex, 0, stateIndex, 0, i);
+					System.arraycopy(this.stateValue, 0, stateValue, 0, i);
+					this.stateIndex = stateIndex;
+					this.stateValue = stateValue;
+				}
+				this.stateIndex[i] = index;
+				this.stateCount++;
+			}
+			this.stateValue[i] = state;
+
+			this.pageChanged[index >> SPARSEBITS] = this.changed;
+		} else if (state == MemoryInt.STATE.WRITE) {
+			this.pageChanged[index >> SPARSEBITS] = this.changed;
+		}
+	}
+
+	protected void setState(int index, int count, MemoryInt.STATE state) {
+		if (this.trace) {
+			for (int i = 0; i < count; i++)
+				this.setState(index + i, state);
+		} else {
+			this.changed += count;
+
+			if (state == MemoryInt.STATE.WRITE && index >= 0 && index + count <= this.length) {
+				for (int page = index >> SPARSEBITS; page <= (index + count - 1) >> SPARSEBITS; page++)
+					this.pageChanged[page] = this.changed;
+			}
+		}
+	}
+
+	protected void markChanged(int index, int count) {
+		this.changed++;
+
+		for (int page = index >> SPARSEBITS; count > 0 && page <= (index + count - 1) >> SPARSEBITS; page++)
+			this.pageChanged[page] = this.changed;
+	}
+
+	/**
+	 * Clear all READ/WRITE states. Pages that had a state are marked as
+	 * changed so the indication is removed.
+	 */
+	protected void clearState() {
+		for (int i = 0; i < this.stateCount; i++)
+			this.pageChanged[this.stateIndex[i] >> SPARSEBITS] = ++this.changed;
+
+		this.stateCount = 0;
+	}
+
+	public void setTrace(boolean trace) {
+		this.clearState();
+		this.trace = trace;
+	}
+
+	public int[] getChangedRanges(int generation) {
+		if (generation < 0)
+			return new int[] {this.start, this.start + this.length};
+		if (this.changed <= generation)
+			return new int[0];
+
+		return this.changedRanges(this.pageChanged, SPARSEBITS, generation);
+	}
+
+	/**
+	 * Save the pages that are about to be written to in the newest
+	 * snapshot, unless they already are
+	 *
+	 * @calledby writeByte(), writeRawByte(), writeShort(), writeInt()
+	 *
+	 * @param index  Internal index of the first byte
+	 * @param count  Number of bytes
+	 */
+	private void save(int index, int count) {
+		byte[][] pages = this.snapshot.pages;
+		for (int page = index >> SPARSEBITS; page <= (index + count - 1) >> SPARSEBITS; page++) {
+			if (pages[page] == null)
+				pages[page] = this.inUse(page) ? this.copyPage(page) : ABSENT;
+		}
+	}
+
+	/**
+	 * Copy the content of a page
+	 *
+	 * @calledby save(), getSourceCode()
+	 *
+	 * @param page  Page number
+	 * @return The bytes of the page
+	 */
+	private byte[] copyPage(int page) {
+		int index = page << SPARSEBITS;
+		byte[] copy = new byte[Math.min(SPARSESIZE, this.length - index)];
+		if (this.buffer != null) {
+			for (int i = 0; i < copy.length; i++)
+				copy[i] = this.buffer.get(index + i);
+		} else if (this.pages[page] != null) {
+			System.arraycopy(this.pages[page], 0, copy, 0, copy.length);
+		}
+
+		return copy;
+	}
+
+	/**
+	 * Make a page not in use, so it reads as 0 again
+	 *
+	 * @calledby reset(), restore()
+	 *
+	 * @param page  Page number
+	 */
+	private void freePage(int page) {
+		if (this.buffer != null) {
+			int index = page << SPARSEBITS;
+			for (int i = index; i < Math.min(index + SPARSESIZE, this.length); i++)
+				this.buffer.put(i, (byte)0);
+			this.used[page] = false;
+		} else {
+			this.pages[page] = null;
+		}
+	}
+
+	/**
+	 * Take a snapshot. Nothing is copied until a page is written to.
+	 *
+	 * @calledby MemoryManager.snapshot()
+	 *
+	 * @return Snapshot
+	 */
+	public Object snapshot() {
+		this.snapshot = new Snapshot(this.pageChanged.length);
+		return this.snapshot;
+	}
+
+	/**
+	 * Copy back the pages saved in a snapshot, and free the pages that
+	 * weren't in use. The snapshot becomes the newest one again, so it can
+	 * be restored many times.
+	 *
+	 * @calledby MemoryManager.restore()
+	 * @calls dropInstructions(), markChanged()
+	 *
+	 * @param snapshot  Snapshot returned by snapshot()
+	 */
+	public void restore(Object snapshot) {
+		Snapshot restored = (Snapshot)snapshot;
+		for (int page = 0; page < restored.pages.length; page++) {
+			byte[] saved = restored.pages[page];
+			if (saved == null)
+				continue;
+
+			int index = page << SPARSEBITS;
+			int count = Math.min(SPARSESIZE, this.length - index);
+			if (saved == ABSENT) {
+				this.freePage(page);
+			} else {
+				byte[] memory = this.usePage(page);
+				if (memory != null) {
+					System.arraycopy(saved, 0, memory, 0, count);
+				} else {
+					for (int i = 0; i < count; i++)
+						this.buffer.put(index + i, saved[i]);
+				}
+			}
+
+			this.dropInstructions(index, count);
+			this.markChanged(index, count);
+		}
+
+		this.sourceCode = null;
+		this.snapshot = restored;
+	}
+
+	/**
+	 * Get the disassembled code of the block. Only the pages from the first
+	 * one in use are disassembled, at most MAXSOURCE bytes.
+	 *
+	 * @calledby EmulatorManager.pcChange()
+	 *
+	 * @return Source code
+	 */
+	public SourceCode getSourceCode() {
+		if (this.sourceCode != null)
+			return this.sourceCode;
+
+		int first = 0;
+		while (first < this.pageChanged.length && !this.inUse(first))
+			first++;
+
+		if (first == this.pageChanged.length) {
+			this.sourceCode = new SourceCode(new byte[0], this.start);
+			return this.sourceCode;
+		}
+
+		int last = first;
+		for (int page = first; page < this.pageChanged.length && (page - first) << SPARSEBITS < MAXSOURCE; page++) {
+			if (this.inUse(page))
+				last = page;
+		}
+
+		int index = first << SPARSEBITS;
+		byte[] code = new byte[Math.min((last + 1) << SPARSEBITS, this.length) - index];
+		for (int page = first; page <= last; page++) {
+			byte[] copy = this.copyPage(page);
+			System.arraycopy(copy, 0, code, (page - first) << SPARSEBITS, copy.length);
+		}
+
+		this.sourceCode = new SourceCode(code, this.start + index);
+		return this.sourceCode;
+	}
+
+	public void reset() {
+		int pages = (int)(((long)this.length + SPARSESIZE - 1) >> SPARSEBITS);
+
+		if (this.buffer != null) {
+			if (this.used != null) {
+				for (int page = 0; page < pages; page++) {
+					if (this.used[page])
+						this.freePage(page);
+				}
+			}
+			this.used = new boolean[pages];
+		} else {
+			this.pages = new byte[pages][];
+		}
+
+		this.stateCount = 0;
+		this.changed = 0;
+		this.snapshot = null;
+		this.sourceCode = null;
+		this.pageChanged = new int[pages];
+		this.instructions = new Instruction[pages][];
+		this.codeVersion++;
+	}
+
+	public boolean resetState() {
+		this.clearState();
+		return false;
+	}
+}
@@ -98,7 +98,18 @@ public class ButtonDevice extends MemoryBlock implements EventObserver
 
 	public boolean resetState() {
 		this.clearState();
+		return false;
+	}
 
+	/**
+	 * Latch the new states into memory
+	 *
+	 * @calledby Scheduler.run()
+	 *
+	 * @param clock  Current clock of MemoryManager
+	 * @return Long.MAX_VALUE, the next event is signalled by update()
+	 */
+	public long clockEvent(long clock) {
 		if (this.valueChanged) {
 			memory[0] = Utilities.vectorToByte(this.value);
 			this.setState(0, MemoryInt.STATE.WRITE);
@@ -106,7 +117,21 @@ public class ButtonDevice extends MemoryBlock implements EventObserver
 			this.valueChanged = false;
 		}
 
-		return false;
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Restore a snapshot. The buttons are read again since they aren't
+	 * part of the emulated state.
+	 *
+	 * @calledby MemoryManager.restore()
+	 *
+	 * @param snapshot  State returned by snapshot()
+	 */
+	public void restore(Object snapshot) {
+		super.restore(snapshot);
+		this.valueChanged = true;
+		this.memoryManager.signal(this);
 	}
 
 	public void writeByte(int addr, byte value) throws MemoryException {
@@ -146,6 +171,7 @@ public class ButtonDevice extends MemoryBlock implements EventObserver
 	private void setValue(int index, boolean value) {
 		this.valueChanged = true;
 		this.value.set(index, value);
+		this.memoryManager.signal(this);
 
 		this.sendEvent();
 	}
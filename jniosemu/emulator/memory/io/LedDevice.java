@@ -84,6 +84,21 @@ public class LedDevice extends MemoryBlock
 		return false;
 	}
 
+	/**
+	 * Restore a snapshot and show the restored leds
+	 *
+	 * @calledby MemoryManager.restore()
+	 * @calls sendEvent()
+	 *
+	 * @param snapshot  State returned by snapshot()
+	 */
+	public void restore(Object snapshot) {
+		super.restore(snapshot);
+
+		this.value = Utilities.intToVector(Utilities.unsignedbyteToInt(memory[0]), COUNT);
+		this.sendEvent();
+	}
+
 	public void writeByte(int addr, byte value) throws MemoryException {
 		int mapAddr = this.mapAddr(addr);
 
@@ -0,0 +1,117 @@
+package jniosemu.emulator.memory.io;
+
+/**
+ * Fixed size FIFO of bytes. The bytes are kept in a primitive array that
+ * wraps around, so nothing is boxed or allocated when a byte is added or
+ * removed. Can be used from several threads.
+ */
+public class RingBuffer
+{
+	/**
+	 * The bytes, from head and size bytes on with wrap around
+	 */
+	private final byte[] buffer;
+	/**
+	 * Index of the oldest byte
+	 */
+	private int head = 0;
+	/**
+	 * Number of bytes in buffer
+	 */
+	private int size = 0;
+
+	/**
+	 * Init RingBuffer
+	 *
+	 * @param capacity  Max number of bytes
+	 */
+	public RingBuffer(int capacity) {
+		this.buffer = new byte[capacity];
+	}
+
+	/**
+	 * Add a byte
+	 *
+	 * @param value  Byte to add
+	 * @return False if the buffer is full
+	 */
+	public synchronized boolean offer(byte value) {
+		if (this.size == this.buffer.length)
+			return false;
+
+		this.buffer[(this.head + this.size) % this.buffer.length] = value;
+		this.size++;
+		return true;
+	}
+
+	/**
+	 * Add as many bytes as there is room for
+	 *
+	 * @param values  Bytes to add
+	 * @param offset  Index of the first byte in values
+	 * @param length  Number of bytes
+	 * @return Number of bytes that were added
+	 */
+	public synchronized int offer(byte[] values, int offset, int length) {
+		length = Math.min(length, this.buffer.length - this.size);
+		for (int i = 0; i < length; i++)
+			this.buffer[(this.head + this.size + i) % this.buffer.length] = values[offset + i];
+
+		this.size += length;
+		return length;
+	}
+
+	/**
+	 * Remove the oldest byte
+	 *
+	 * @return The byte as 0-255, -1 if the buffer is empty
+	 */
+	public synchronized int poll() {
+		if (this.size == 0)
+			return -1;
+
+		int value = this.buffer[this.head] & 0xFF;
+		this.head = (this.head + 1) % this.buffer.length;
+		this.size--;
+		return value;
+	}
+
+	/**
+	 * Check if there are no bytes
+	 *
+	 * @return True if the buffer is empty
+	 */
+	public synchronized boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	/**
+	 * Get the number of bytes that can be added
+	 *
+	 * @return Free space in bytes
+	 */
+	public synchronized int remaining() {
+		return this.buffer.length - this.size;
+	}
+
+	/**
+	 * Remove all bytes
+	 */
+	public synchronized void clear() {
+		this.head = 0;
+		this.size = 0;
+	}
+
+	/**
+	 * Copy the bytes without removing them
+	 *
+	 * @return The bytes, oldest first
+	 */
+	public synchronized byte[] toArray() {
+		byte[] ret = new byte[this.size];
+		for (int i = 0; i < this.size; i++)
+			ret[i] = this.buffer[(this.head + i) % this.buffer.length];
+
+		return ret;
+	}
+}
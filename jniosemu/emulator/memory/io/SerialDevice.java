@@ -1,7 +1,9 @@
 package jniosemu.emulator.memory.io;
 
-import java.util.LinkedList;
-import java.util.Queue;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import jniosemu.Utilities;
 import jniosemu.emulator.memory.MemoryBlock;
 import jniosemu.emulator.memory.MemoryException;
@@ -11,7 +13,20 @@ import jniosemu.events.EventManager;
 import jniosemu.events.EventObserver;
 
 /**
- * Handle the SerialPort
+ * Handle the SerialPort. Received characters are kept in a RingBuffer
+ * until the program reads them. They come from inEvent, or from an input
+ * channel when one is set. Sent characters are sent as outEvent, or
+ * written to an output channel when one is set.
+ * <p>
+ * The channels are read and written by the emulation thread. The output
+ * is buffered and written when the buffer is full, when the program
+ * waits for input and when the emulation stops. The input is read when
+ * the program polls the status register and there is nothing to receive,
+ * so reading from stdin blocks the emulation until a line is typed.
+ * <p>
+ * At most INPUTSIZE characters from inEvent are kept. Characters that
+ * don't fit are lost, and the loss is reported as EMULATOR_ERROR. So
+ * are errors reading or writing the channels.
  */
 public class SerialDevice extends MemoryBlock implements EventObserver
 {
@@ -19,8 +34,46 @@ public class SerialDevice extends MemoryBlock implements EventObserver
 	 * Length of memory that is used
 	 */
 	private static final int MEMORYLENGTH = 16;
+	/**
+	 * Number of characters that can be received before they are read
+	 */
+	private static final int INPUTSIZE = 4096;
+	/**
+	 * Size of the output buffer when writing to a channel
+	 */
+	private static final int OUTPUTSIZE = 8192;
 
-	private Queue<Character> inputBuffer = new LinkedList<Character>();
+	/**
+	 * Characters that have been received but not read, filled by the
+	 * event thread or from input
+	 */
+	private RingBuffer inputBuffer = new RingBuffer(INPUTSIZE);
+	/**
+	 * Channel that characters are received from, null if they come from inEvent
+	 */
+	private ReadableByteChannel input = null;
+	/**
+	 * Buffer that input is read into, reused for every read
+	 */
+	private ByteBuffer readBuffer = null;
+	/**
+	 * True if characters from inEvent have been lost since inputBuffer was
+	 * last able to take one, so the loss is reported once
+	 */
+	private boolean overflow = false;
+	/**
+	 * Channel that sent characters are written to, null if they are sent as outEvent
+	 */
+	private WritableByteChannel output = null;
+	/**
+	 * Characters that haven't been written to output yet
+	 */
+	private ByteBuffer outputBuffer = null;
+	/**
+	 * True if writing to output has failed, the rest of the output is
+	 * lost so the error is reported once
+	 */
+	private boolean outputError = false;
 	/**
 	 * Used EventManager
 	 */
@@ -33,6 +86,20 @@ public class SerialDevice extends MemoryBlock implements EventObserver
 
 	private EventManager.EVENT inEvent = null;
 	private EventManager.EVENT outEvent = null;
+
+	/**
+	 * State saved by snapshot()
+	 */
+	private static class Snapshot
+	{
+		private final Object memory;
+		private final byte[] inputBuffer;
+
+		public Snapshot(Object memory, byte[] inputBuffer) {
+			this.memory = memory;
+			this.inputBuffer = inputBuffer;
+		}
+	}
 	
 	/**
 	 * Init ButtonDevice
@@ -69,17 +136,61 @@ public class SerialDevice extends MemoryBlock implements EventObserver
 	 * @param memory current MemoryManager
 	 */
 	public void reset() {
-		this.resetState();
+		this.receive();
 		this.clearState();
 		this.changed = 0;
 		this.inputBuffer.clear();
 	}
 
+	/**
+	 * Save the registers and the characters that haven't been read yet
+	 *
+	 * @calledby MemoryManager.snapshot()
+	 *
+	 * @return State to give to restore()
+	 */
+	public Object snapshot() {
+		return new Snapshot(super.snapshot(), this.inputBuffer.toArray());
+	}
+
+	public void restore(Object snapshot) {
+		Snapshot restored = (Snapshot)snapshot;
+		super.restore(restored.memory);
+
+		this.inputBuffer.clear();
+		this.inputBuffer.offer(restored.inputBuffer, 0, restored.inputBuffer.length);
+		this.memoryManager.signal(this);
+	}
+
 	public boolean resetState() {
 		this.clearState();
+		return false;
+	}
 
-		if (!this.inputBuffer.isEmpty() && (memory[8] & 0x80) == 0) {
-			memory[0] = (byte)(this.inputBuffer.poll() & 0xFF);
+	/**
+	 * Receive the next character when the last one has been read
+	 *
+	 * @calledby Scheduler.run()
+	 * @calls receive()
+	 *
+	 * @param clock  Current clock of MemoryManager
+	 * @return Long.MAX_VALUE, the next event is scheduled when the data register is read
+	 */
+	public long clockEvent(long clock) {
+		this.receive();
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Move the next character from inputBuffer to the data register if the
+	 * last one has been read, and mark that there is space to write
+	 *
+	 * @calledby reset(), clockEvent()
+	 */
+	private void receive() {
+		int value;
+		if ((memory[8] & 0x80) == 0 && (value = this.inputBuffer.poll()) >= 0) {
+			memory[0] = (byte)value;
 			this.setState(0, MemoryInt.STATE.WRITE);
 			memory[8] |= 0x80;
 			this.setState(8, MemoryInt.STATE.WRITE);
@@ -88,8 +199,6 @@ public class SerialDevice extends MemoryBlock implements EventObserver
 			memory[8] |= 0x40;
 			this.setState(8, MemoryInt.STATE.WRITE);
 		}
-
-		return false;
 	}
 
 	public void writeByte(int addr, byte value) throws MemoryException {
@@ -97,7 +206,13 @@ public class SerialDevice extends MemoryBlock implements EventObserver
 
 		if (mapAddr == 4) {
 			memory[4] = value;
-			this.eventManager.sendEvent(this.outEvent, (char)(value & 0xFF));
+			if (this.output != null) {
+				this.outputBuffer.put(value);
+				if (!this.outputBuffer.hasRemaining())
+					this.flush();
+			} else {
+				this.eventManager.sendEvent(this.outEvent, (char)(value & 0xFF));
+			}
 		} else if (mapAddr == 12) {
 			memory[12] = (byte)(value & 0xC0);
 		} else if (mapAddr < 4 || mapAddr >= 8 && mapAddr < 12 || mapAddr >= 16) {
@@ -116,7 +231,12 @@ public class SerialDevice extends MemoryBlock implements EventObserver
 			memory[8] &= 0x7F;
 			this.setState(8, MemoryInt.STATE.WRITE);
 			ret = memory[0];
+			if (!this.inputBuffer.isEmpty())
+				this.memoryManager.schedule(this, this.memoryManager.getClock() + 1);
 		} else if (mapAddr >= 1 && mapAddr < 4 || mapAddr >= 8 && mapAddr < 16) {
+			// The program polls for input, get more from the channel
+			if (mapAddr == 8 && this.input != null && (memory[8] & 0x80) == 0 && this.inputBuffer.isEmpty())
+				this.read();
 			ret = memory[mapAddr];
 		} else {
 			throw new MemoryException(addr);
@@ -129,7 +249,114 @@ public class SerialDevice extends MemoryBlock implements EventObserver
 	public void update(EventManager.EVENT eventIdentifier, Object obj)
 	{
 		if (eventIdentifier == this.inEvent) {
-			this.inputBuffer.offer(((Character)obj).charValue());
+			if (this.inputBuffer.offer((byte)((Character)obj).charValue())) {
+				this.overflow = false;
+			} else if (!this.overflow) {
+				this.overflow = true;
+				this.eventManager.sendEvent(EventManager.EVENT.EMULATOR_ERROR, "Serial Error: "+ this.name +" input buffer is full, characters are lost");
+			}
+			this.memoryManager.signal(this);
 		}
 	}
+
+	/**
+	 * Receive characters from a channel instead of from inEvent. The
+	 * channel is closed at end of stream or when another one is set.
+	 *
+	 * @pre The emulation must not be running
+	 *
+	 * @param input  Channel to read, null to receive from inEvent again
+	 */
+	public void setInput(ReadableByteChannel input) {
+		this.close(this.input);
+		this.input = input;
+		if (input != null && this.readBuffer == null)
+			this.readBuffer = ByteBuffer.allocate(INPUTSIZE);
+	}
+
+	/**
+	 * Write sent characters to a channel instead of sending outEvent. The
+	 * channel is flushed but not closed when another one is set.
+	 *
+	 * @pre The emulation must not be running
+	 *
+	 * @param output  Channel to write, null to send outEvent again
+	 */
+	public void setOutput(WritableByteChannel output) {
+		this.flush();
+		this.output = output;
+		this.outputBuffer = (output != null) ? ByteBuffer.allocate(OUTPUTSIZE) : null;
+		this.outputError = false;
+	}
+
+	/**
+	 * Read what is available from input into inputBuffer and receive it
+	 * after this instruction. Waiting output is written first, since it
+	 * may be a prompt for the input.
+	 *
+	 * @calledby readByte()
+	 * @calls flush()
+	 */
+	private void read() {
+		this.flush();
+
+		ByteBuffer buffer = this.readBuffer;
+		buffer.clear();
+		buffer.limit(this.inputBuffer.remaining());
+		try {
+			if (this.input.read(buffer) < 0) {
+				this.close(this.input);
+				this.input = null;
+				return;
+			}
+		} catch (IOException e) {
+			this.eventManager.sendEvent(EventManager.EVENT.EMULATOR_ERROR, "Serial Error: "+ this.name +" input: "+ e.getMessage());
+			this.close(this.input);
+			this.input = null;
+			return;
+		}
+
+		this.inputBuffer.offer(buffer.array(), 0, buffer.position());
+		this.memoryManager.schedule(this, this.memoryManager.getClock() + 1);
+	}
+
+	/**
+	 * Write the buffered output to the output channel. If it fails the
+	 * error is reported and the rest of the output is lost.
+	 *
+	 * @calledby MemoryManager.flush(), setOutput(), writeByte(), read()
+	 */
+	public void flush() {
+		if (this.output == null || this.outputBuffer.position() == 0)
+			return;
+
+		if (this.outputError) {
+			this.outputBuffer.clear();
+			return;
+		}
+
+		this.outputBuffer.flip();
+		try {
+			while (this.outputBuffer.hasRemaining())
+				this.output.write(this.outputBuffer);
+		} catch (IOException e) {
+			this.outputError = true;
+			this.eventManager.sendEvent(EventManager.EVENT.EMULATOR_ERROR, "Serial Error: "+ this.name +" output: "+ e.getMessage() +", characters are lost");
+		}
+		this.outputBuffer.clear();
+	}
+
+	/**
+	 * Close a channel, ignoring errors
+	 *
+	 * @param channel  Channel to close, may be null
+	 */
+	private void close(ReadableByteChannel channel) {
+		if (channel == null)
+			return;
+
+		try {
+			channel.close();
+		} catch (IOException e) {}
+	}
 }
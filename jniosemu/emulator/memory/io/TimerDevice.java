@@ -34,6 +34,29 @@ public class TimerDevice extends MemoryBlock
 	private long counter = 0;
 	private long period = 0;
 	private boolean counting = false;
+	/**
+	 * Clock of MemoryManager when the timer times out. While counting,
+	 * counter is only updated from it when it is needed.
+	 */
+	private long timeout = 0;
+
+	/**
+	 * State saved by snapshot()
+	 */
+	private static class Snapshot
+	{
+		private final Object memory;
+		private final long counter;
+		private final long period;
+		private final boolean counting;
+
+		public Snapshot(Object memory, long counter, long period, boolean counting) {
+			this.memory = memory;
+			this.counter = counter;
+			this.period = period;
+			this.counting = counting;
+		}
+	}
 
 	/**
 	 * Init the Timer
@@ -70,31 +93,85 @@ public class TimerDevice extends MemoryBlock
 		this.counting = false;
 	}
 
+	public Object snapshot() {
+		this.updateCounting();
+		return new Snapshot(super.snapshot(), this.counter, this.period, this.counting);
+	}
+
+	public void restore(Object snapshot) {
+		Snapshot restored = (Snapshot)snapshot;
+		super.restore(restored.memory);
+
+		this.counter = restored.counter;
+		this.period = restored.period;
+		this.counting = restored.counting;
+		if (this.counting)
+			this.schedule();
+	}
+
 	public boolean resetState() {
 		this.clearState();
 
-		if (this.counting) {
-			if (this.counter > 0) {
-				this.counter--;
-			} else if ((this.memory[4] & 0x2) > 0) {
-				this.memory[0] |= 0x1;
-				this.updateCounter();
-				this.setState(0, MemoryInt.STATE.WRITE);
-			} else {
-				this.counting = false;
-				this.memory[0] |= 0x1;
-				this.memory[0] &= 0xFD;
-				this.setState(0, MemoryInt.STATE.WRITE);
-			}
+		return false;
+	}
+
+	/**
+	 * Time out. The counter counts down once per instruction and the
+	 * timer times out on the instruction after it reached 0, so this is
+	 * called counter + 1 instructions after the timer was started.
+	 *
+	 * @calledby Scheduler.run()
+	 * @calls updateCounter()
+	 *
+	 * @param clock  Current clock of MemoryManager
+	 * @return Clock of the next time out, Long.MAX_VALUE if not counting
+	 */
+	public long clockEvent(long clock) {
+		if (!this.counting)
+			return Long.MAX_VALUE;
+		if (clock < this.timeout)
+			return this.timeout;
+
+		if ((this.memory[4] & 0x2) > 0) {
+			this.memory[0] |= 0x1;
+			this.updateCounter();
+			this.setState(0, MemoryInt.STATE.WRITE);
+			this.timeout = clock + this.counter + 1;
+			return this.timeout;
 		}
 
-		return false;
+		this.counting = false;
+		this.counter = 0;
+		this.memory[0] |= 0x1;
+		this.memory[0] &= 0xFD;
+		this.setState(0, MemoryInt.STATE.WRITE);
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Update counter from the time left until the time out
+	 *
+	 * @calledby snapshot(), writeByte()
+	 * @calls MemoryManager.getClock()
+	 */
+	private void updateCounting() {
+		if (this.counting)
+			this.counter = this.timeout - 1 - this.memoryManager.getClock();
+	}
+
+	/**
+	 * Schedule the time out from counter
+	 *
+	 * @calledby restore(), writeByte()
+	 * @calls MemoryManager.getClock(), MemoryManager.schedule()
+	 */
+	private void schedule() {
+		this.timeout = this.memoryManager.getClock() + this.counter + 1;
+		this.memoryManager.schedule(this, this.timeout);
 	}
 
 	private void updateCounter() {
-		byte[] period = new byte[8];
-		System.arraycopy(this.memory, 8, period, 0, 8);
-		this.period = Utilities.byteArrayToLong(period);
+		this.period = Utilities.byteArrayToLong(this.memory, 8);
 
 		this.counter = this.period;
 	}
@@ -105,6 +182,7 @@ public class TimerDevice extends MemoryBlock
 		if (mapAddr == 0) {
 			memory[0] &= 0xFE;
 		} else if (mapAddr == 4) {
+			this.updateCounting();
 			value &= 0xf;
 			memory[4] = value;
 			if ((value & 0x8) > 0) {
@@ -119,8 +197,10 @@ public class TimerDevice extends MemoryBlock
 
 				if (this.counter == 0)
 					this.updateCounter();
+				this.schedule();
 			}
 		} else if (mapAddr >= 16 && mapAddr < 24) {
+			this.updateCounting();
 			byte[] snapshot = Utilities.longToByteArray(this.counter);
 			for (int i = 0; i < snapshot.length; i++) {
 				memory[16 + i] = snapshot[i];
@@ -1,10 +1,10 @@
 package jniosemu.emulator.register;
 
-import jniosemu.emulator.memory.MemoryManager;
 import jniosemu.Utilities;
 
 /**
- * Contains info about one register
+ * Contains info about one register. Registers are snapshots made by
+ * RegisterManager.get(), the values are held by RegisterManager.
  */
 public class Register
 {
@@ -29,30 +29,16 @@ public class Register
 	 * Init register
 	 *
 	 * @post Set number, state and value.
-	 * @checks if register isn't implemented set state to DISABLED
-	 * @calledby RegisterManager
+	 * @calledby RegisterManager.get()
 	 *
 	 * @param number  Number of the regiser
+	 * @param value  Value of the register
+	 * @param state  State of the register
 	 */
-	public Register(int number) {
+	public Register(int number, int value, STATE state) {
 		this.number = number;
-
-		if (!(this.number == 31 || this.number == 27 || this.number == 28 || (this.number >= 0 && this.number <= 23)))
-			this.state = STATE.DISABLED;
-
-		if (this.number == 27)
-			this.value = MemoryManager.STACKSTARTADDR;
-	}
-
-	/**
-	 * Reset state
-	 *
-	 * @checks Set state to NONE if state != DISABLED
-	 * @calledby RegisterManager
-	 */
-	public void resetState() {
-		if (this.state != STATE.DISABLED)
-			this.state = STATE.NONE;
+		this.value = value;
+		this.state = state;
 	}
 
 	/**
@@ -89,45 +75,9 @@ public class Register
 		return Utilities.intToHexString(this.value);
 	}
 
-	/**
-	 * Read value and update state
-	 *
-	 * @calledby RegisterManager
-	 *
-	 * @return value
-	 */
-	public int readValue() throws RegisterException {
-		if (this.state == STATE.DISABLED)
-			throw new RegisterException(this.number);
-
-		// If the state already is WRITE we don't want to change that.
-		if (this.state != STATE.WRITE)
-			this.state = STATE.READ;
-
-		return this.value;
-	}
-
-	/**
-	 * Write value and update state
-	 *
-	 * @checks If number = 0 don't change value
-	 *
-	 * @param value  new value
-	 */
-	public void writeValue(int value) throws RegisterException {
-		if (this.state == STATE.DISABLED)
-			throw new RegisterException(this.number);
-
-		if (this.number == 0)
-			value = 0;
-
-		this.value = value;
-		this.state = STATE.WRITE;
-	}
-
 	/**
 	 * Get state
-   *
+	 *
 	 * @return state
 	 */
 	public STATE getState() {
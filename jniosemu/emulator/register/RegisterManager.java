@@ -4,21 +4,48 @@ import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 import java.util.Vector;
 
+import jniosemu.emulator.UndoLog;
+import jniosemu.emulator.memory.MemoryManager;
+
 /**
  * Manage all register
  */
 public class RegisterManager
 {
+	/**
+	 * Registers that aren't implemented, one bit per register. All but
+	 * r0-r23, r27, r28 and r31.
+	 */
+	private static final int DISABLED = ~(0x00FFFFFF | 1 << 27 | 1 << 28 | 1 << 31);
 	/**
 	 * contains the values of the registers
 	 */
-	private Vector<Register> registers;
-	// private int[] register = new int[32];
+	private int[] values = new int[32];
+	/**
+	 * Registers that have been read since the last resetState(), one bit per register
+	 */
+	private int readMask = 0;
+	/**
+	 * Registers that have been written since the last resetState(), one bit per register
+	 */
+	private int writeMask = 0;
+	/**
+	 * Registers returned by get(), null when it must be rebuilt
+	 */
+	private Vector<Register> registers = null;
+	/**
+	 * True if the states of the registers are reset by resetState()
+	 */
+	private boolean trace = true;
+	/**
+	 * Log that writes are recorded in, null if they aren't
+	 */
+	private UndoLog undoLog = null;
 
 	/**
 	 * Init RegisterManager
 	 *
-	 * @post Populate this.registers
+	 * @post Populate this.values
 	 */
 	public RegisterManager() {
 		this.reset();
@@ -55,6 +82,18 @@ public class RegisterManager
 		throw new RegisterException(aRegister);
 	}
 
+	/**
+	 * Check if a register is implemented
+	 *
+	 * @calledby BlockCompiler
+	 *
+	 * @param index  Register number
+	 * @return True if the register can't be used
+	 */
+	public static boolean isDisabled(int index) {
+		return (DISABLED & (1 << index)) != 0;
+	}
+
 	/**
 	 * Read the value of an index
 	 *
@@ -65,12 +104,22 @@ public class RegisterManager
 	 * @throws RegisterException  If you don't have access to that register
 	 */
 	public int read(int index) throws RegisterException {
-		return this.registers.get(index).readValue();
+		int bit = 1 << index;
+		if ((DISABLED & bit) != 0)
+			throw new RegisterException(index);
+
+		if ((this.readMask & bit) == 0) {
+			this.readMask |= bit;
+			this.registers = null;
+		}
+
+		return this.values[index];
 	}
 
 	/**
 	 * Write the value to an index
 	 *
+	 * @checks If index = 0 don't change value
 	 * @calledby Emulator.writeRegister()
 	 *
 	 * @param index  Register you want to read
@@ -78,36 +127,120 @@ public class RegisterManager
 	 * @throws RegisterException  If you don't have access to that register
 	 */
 	public void write(int index, int value) throws RegisterException {
-		this.registers.get(index).writeValue(value);
+		int bit = 1 << index;
+		if ((DISABLED & bit) != 0)
+			throw new RegisterException(index);
+
+		if (index != 0) {
+			if (this.undoLog != null)
+				this.undoLog.register(index, this.values[index]);
+			this.values[index] = value;
+		}
+
+		this.writeMask |= bit;
+		this.registers = null;
+	}
+
+	/**
+	 * Get the register values. Used by compiled blocks that read and write
+	 * the values directly, without checks and without updating states.
+	 *
+	 * @post The snapshot returned by get() is rebuilt on the next call
+	 * @calledby CompiledBlock, UndoLog.undo()
+	 *
+	 * @return Values indexed by register number
+	 */
+	public int[] getValues() {
+		this.registers = null;
+		return this.values;
+	}
+
+	/**
+	 * Set the log that writes are recorded in
+	 *
+	 * @calledby EmulatorManager
+	 *
+	 * @param undoLog  Log, null to stop recording
+	 */
+	public void setUndoLog(UndoLog undoLog) {
+		this.undoLog = undoLog;
 	}
 
 	/**
 	 * Reseting all registers
 	 *
-	 * @post Populate this.register
+	 * @post Populate this.values
 	 * @calledby EmulatorManager.reset()
 	 */
 	public void reset() {
-		this.registers = new Vector<Register>(32);
-		for (int i = 0; i < 32; i++)
-			this.registers.add(new Register(i));
+		this.values = new int[32];
+		this.values[27] = MemoryManager.STACKSTARTADDR;
+		this.readMask = 0;
+		this.writeMask = 0;
+		this.registers = null;
 	}
 
 	/**
 	 * Reset state of all registers
+	 *
+	 * @checks Nothing is done if trace is off
 	 */
 	public void resetState() {
-		for (Register reg: this.registers)
-			reg.resetState();
+		if (!this.trace)
+			return;
+
+		if ((this.readMask | this.writeMask) != 0) {
+			this.readMask = 0;
+			this.writeMask = 0;
+			this.registers = null;
+		}
 	}
 
 	/**
-	 * Get all registers
+	 * Turn tracing of register states on or off. With tracing off the
+	 * states are left as they are until tracing is turned on again.
+	 *
+	 * @post States are reset
+	 * @calledby EmulatorManager.execRun()
+	 *
+	 * @param trace  True if states should be reset by resetState()
+	 */
+	public void setTrace(boolean trace) {
+		this.trace = true;
+		this.resetState();
+		this.trace = trace;
+	}
+
+	/**
+	 * Get all registers. The vector is a snapshot that is rebuilt when a
+	 * value or state has changed since the last call.
 	 *
 	 * @calledby EmulatorManager
+	 *
+	 * @return Registers r0-r31
 	 */
 	public Vector<Register> get() {
-		return this.registers;
+		Vector<Register> registers = this.registers;
+		if (registers == null) {
+			registers = new Vector<Register>(32);
+			for (int i = 0; i < 32; i++) {
+				int bit = 1 << i;
+				Register.STATE state;
+				if ((DISABLED & bit) != 0)
+					state = Register.STATE.DISABLED;
+				else if ((this.writeMask & bit) != 0)
+					state = Register.STATE.WRITE;
+				else if ((this.readMask & bit) != 0)
+					state = Register.STATE.READ;
+				else
+					state = Register.STATE.NONE;
+
+				registers.add(new Register(i, this.values[i], state));
+			}
+			this.registers = registers;
+		}
+
+		return registers;
 	}
 
 	public void dump() {}
@@ -0,0 +1,20 @@
+package jniosemu.events;
+
+/*
+ * Objects sent with an event that is coalesced can implement this
+ * interface to combine themselves with the value they replace, instead
+ * of the older value just being dropped.
+ */
+public interface Coalescable {
+
+	/**
+	 * Combine with an older value of the same event that hasn't been
+	 * sent yet.
+	 *
+	 * @calledby  EventManager.sendEvent()
+	 *
+	 * @param  older  Object of the older event
+	 * @return Object that is sent instead of both
+	 */
+	public Object coalesce(Object older);
+}
@@ -1,7 +1,9 @@
 package jniosemu.events;
 
+import java.awt.EventQueue;
 import java.util.*;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * EventManager manages events that may have several senders
@@ -19,6 +21,24 @@ import java.util.concurrent.ConcurrentLinkedQueue;
  * <p>
  * Any object may send an event by simply calling the sendEvent
  * method.
+ * <p>
+ * Events that only tell the current state, like PROGRAMCOUNTER_CHANGE,
+ * are coalesced. If one is sent while an older one of the same type is
+ * still queued, the older is dropped and only the latest value is sent,
+ * at the position of the latest. Other events are queued in order, and
+ * when CAPACITY of them are queued the sender waits until the event
+ * sender thread takes the queue. The event sender thread and the Swing
+ * event thread never wait.
+ * <p>
+ * Urgent events, like EMULATOR_PAUSE, are sent before any queued event
+ * and are checked for between every event the sender thread sends, so
+ * they are never delayed by a full queue or a busy sender. Once one is
+ * sent, senders don't wait for room in a full queue until the next
+ * control event, so a paused emulation can stop at once.
+ * <p>
+ * Control events, like EMULATOR_RESET, may have observers that wait for
+ * the emulation thread to stop. Senders don't wait for a full queue
+ * while one is sent, since only the sender thread empties it.
  */
 public final class EventManager
 {
@@ -64,6 +84,8 @@ public final class EventManager
 		EMULATOR_START,										// Emulation started
 		EMULATOR_STEP,										// Step emulation one instruction
 		EMULATOR_STEP_OVER,								// Step over call
+		EMULATOR_STEP_BACK,								// Undo the last executed instruction
+		EMULATOR_RUN_BACK,								// Step back to a breakpoint
 		EMULATOR_STOP,										// Emulation stopped
 		EMULATOR_TOGGLE_STEP_OVER,					// Toggle the step over setting that is used in run
 		EMULATOR_BREAKPOINT_UPDATE,				// Breakpoint has been changed
@@ -94,7 +116,7 @@ public final class EventManager
 	/**
 	 * Manages which observers are listening to which event.
 	 */
-	private HashMap<EVENT, ArrayList<EventObserver>> eventTable = new HashMap<EVENT, ArrayList<EventObserver>>();
+	private volatile EnumMap<EVENT, EventObserver[]> eventTable = new EnumMap<EVENT, EventObserver[]>(EVENT.class);
 	
 	/**
 	 * Used for string to enum conversion.
@@ -102,14 +124,86 @@ public final class EventManager
 	private HashMap<String, EVENT> stringLookup = new HashMap<String, EVENT>();
 	
 	/**
-	 * Event queue.
+	 * Events where only the latest value matters.
+	 */
+	private static final EnumSet<EVENT> COALESCED = EnumSet.of(
+		EVENT.LED_UPDATE,
+		EVENT.MEMORY_CHANGE,
+		EVENT.PROGRAMCOUNTER_CHANGE,
+		EVENT.REGISTER_CHANGE,
+		EVENT.VARIABLE_CHANGE
+	);
+
+	/**
+	 * Events that are sent before queued events.
 	 */
-	private ConcurrentLinkedQueue<QueueObject> queue = new ConcurrentLinkedQueue<QueueObject>();
+	private static final EnumSet<EVENT> URGENT = EnumSet.of(
+		EVENT.EMULATOR_PAUSE
+	);
+
+	/**
+	 * Events whose observers may wait for a thread that sends events,
+	 * like EMULATOR_RESET that waits for the emulation to stop.
+	 */
+	private static final EnumSet<EVENT> CONTROL = EnumSet.of(
+		EVENT.COMPILER_COMPILE,
+		EVENT.EMULATOR_RESET,
+		EVENT.EMULATOR_RUN,
+		EVENT.EMULATOR_STEP,
+		EVENT.EMULATOR_STEP_OVER
+	);
+
+	/**
+	 * Max number of queued events before senders have to wait.
+	 */
+	public static final int CAPACITY = 4096;
+
+	/**
+	 * Event queue, a linked list of QueueObjects. Guarded by itself.
+	 */
+	private final Object queueLock = new Object();
+	private QueueObject queueHead = null;
+	private QueueObject queueTail = null;
+	private int queueDepth = 0;
+
+	/**
+	 * Urgent events. Not guarded by queueLock, a sender that keeps the
+	 * queue full could hold it off for a whole batch.
+	 */
+	private final ConcurrentLinkedQueue<QueueObject> urgentQueue = new ConcurrentLinkedQueue<QueueObject>();
+
+	/**
+	 * Set from when an urgent event has been sent until the next control
+	 * event, and while a control event is sent. Senders don't wait for
+	 * room in a full queue then, so a sender that has been told to stop,
+	 * or that an observer waits for, isn't stuck behind the batch being
+	 * sent. Guarded by queueLock.
+	 */
+	private boolean urgentSent = false;
+	private boolean controlling = false;
+
+	/**
+	 * Queued coalesced event of every type, indexed by ordinal.
+	 */
+	private QueueObject[] pending = new QueueObject[EVENT.values().length];
+
+	/**
+	 * Counters of what the queue has been through.
+	 */
+	private int maxQueueDepth = 0;
+	private long coalescedCount = 0;
+	private long blockedCount = 0;
 	
 	/**
 	 * Separate thread used to send events.
 	 */
 	private EventSender sendEventThread;
+
+	/**
+	 * Run by the event sender thread when it has found the queue empty,
+	 * just before it parks. Only set by EventManagerTest.
+	 */
+	volatile Runnable idleHook = null;
 	
 	/**
 	 * Starts the event sender thread and populates the hashmap
@@ -117,15 +211,42 @@ public final class EventManager
 	 */
 	public EventManager() 
 	{
-		sendEventThread = new EventSender();
-		sendEventThread.start();
-		
+		this(false);
+	}
+
+	/**
+	 * Populates the hashmap for string to enum conversions and
+	 * starts the event sender thread unless events are sent
+	 * synchronously.
+	 * <p>
+	 * A synchronous EventManager calls the observers directly from
+	 * sendEvent() in the thread of the sender. It is used when
+	 * running without a GUI, where no thread is left behind.
+	 *
+	 * @calledby  Headless.main()
+	 *
+	 * @param  synchronous  true if no event sender thread should be used
+	 */
+	public EventManager(boolean synchronous)
+	{
+		if (!synchronous)
+		{
+			// the first call loads the toolkit, which takes long enough to
+			// hold up a pause if it's done with queueLock held
+			EventQueue.isDispatchThread();
+
+			sendEventThread = new EventSender();
+			sendEventThread.start();
+		}
+
 		for (EVENT event: EVENT.values())
 			stringLookup.put(event.toString(), event);
 	}
 
 	/**
 	 * Add event observer that listens to given event identifier.
+	 * The observers are copied on write so events can be sent while
+	 * observers are added.
 	 *
 	 * @pre       eventTable instance must exist.
 	 * @post      Observer added to eventTable.
@@ -134,22 +255,21 @@ public final class EventManager
 	 * @param  eventIdentifier  string identifying the event
 	 * @param  obj              object that listens to the event
 	 */
-	public void addEventObserver(EVENT eventIdentifier, EventObserver obj)
+	public synchronized void addEventObserver(EVENT eventIdentifier, EventObserver obj)
 	{
-		// create list of observers if it doesn't exist		
-		if (!eventTable.containsKey(eventIdentifier))
-		{
-			eventTable.put(
-				eventIdentifier,
-				new ArrayList<EventObserver>()
-			);
-		}
-		
-		// get list of existing observers
-		ArrayList<EventObserver> eventObservers = eventTable.get(eventIdentifier);
-		
-		// add observer to list
-		eventObservers.add(obj);
+		// get array of existing observers
+		EventObserver[] eventObservers = eventTable.get(eventIdentifier);
+		if (eventObservers == null)
+			eventObservers = new EventObserver[0];
+
+		// add observer to a copy of the array
+		EventObserver[] newObservers = new EventObserver[eventObservers.length + 1];
+		System.arraycopy(eventObservers, 0, newObservers, 0, eventObservers.length);
+		newObservers[eventObservers.length] = obj;
+
+		EnumMap<EVENT, EventObserver[]> newTable = new EnumMap<EVENT, EventObserver[]>(eventTable);
+		newTable.put(eventIdentifier, newObservers);
+		eventTable = newTable;
 	}
 
 	/**
@@ -172,19 +292,177 @@ public final class EventManager
 	 *
 	 * @pre       Event sender queue must be created.
 	 * @calledby  <i>All objects that sends an event</i>
-	 * @calls     EventSender.notify()
+	 * @calls     notifyObservers(), Coalescable.coalesce()
 	 *
 	 * @param  eventIdentifier  string identifying the event
 	 * @param  obj              object to pass along to the observer
 	 */	
 	public void sendEvent(EVENT eventIdentifier, Object obj)
 	{
-		// put event in queue
-		queue.add(new QueueObject(eventIdentifier, obj));
+		// no event sender thread, notify the observers directly
+		if (sendEventThread == null)
+		{
+			notifyObservers(eventIdentifier, obj);
+			return;
+		}
+
+		boolean wakeUp;
+		if (URGENT.contains(eventIdentifier))
+		{
+			urgentQueue.add(new QueueObject(eventIdentifier, obj));
+			wakeUp = true;
+		}
+		else
+		{
+			synchronized(queueLock)
+			{
+				wakeUp = enqueue(eventIdentifier, obj);
+			}
+		}
+
+		// wake up the event sender thread, an unpark before it parks
+		// isn't lost
+		if (wakeUp)
+			LockSupport.unpark(sendEventThread);
+	}
+
+	/**
+	 * Put an event last in the queue, replacing a queued event of the
+	 * same type if it is coalesced.
+	 *
+	 * @pre       queueLock must be held.
+	 * @calledby  sendEvent()
+	 * @calls     unlink(), Coalescable.coalesce()
+	 *
+	 * @param  eventIdentifier  event identifier
+	 * @param  obj              object to pass along to the observer
+	 * @return  true if the queue was empty
+	 */
+	private boolean enqueue(EVENT eventIdentifier, Object obj)
+	{
+		QueueObject queueObj = null;
+		if (COALESCED.contains(eventIdentifier))
+		{
+			// replace the queued event of the same type
+			queueObj = pending[eventIdentifier.ordinal()];
+			if (queueObj != null)
+			{
+				if (obj instanceof Coalescable)
+					obj = ((Coalescable)obj).coalesce(queueObj.obj);
+
+				unlink(queueObj);
+				coalescedCount++;
+			}
+		}
+		else if (queueDepth >= CAPACITY && !controlling && !urgentSent && Thread.currentThread() != sendEventThread && !EventQueue.isDispatchThread())
+		{
+			blockedCount++;
+			try {
+				while (queueDepth >= CAPACITY && !controlling && !urgentSent)
+					queueLock.wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		if (queueObj == null)
+		{
+			queueObj = new QueueObject(eventIdentifier, obj);
+			if (COALESCED.contains(eventIdentifier))
+				pending[eventIdentifier.ordinal()] = queueObj;
+		}
+		queueObj.obj = obj;
+
+		// put event last in queue
+		boolean wasEmpty = (queueHead == null);
+		queueObj.prev = queueTail;
+		queueObj.next = null;
+		if (queueTail == null)
+			queueHead = queueObj;
+		else
+			queueTail.next = queueObj;
+		queueTail = queueObj;
+
+		queueDepth++;
+		maxQueueDepth = Math.max(maxQueueDepth, queueDepth);
+
+		return wasEmpty;
+	}
+
+	/**
+	 * Remove an event from the queue.
+	 *
+	 * @pre       queueLock must be held.
+	 * @calledby  sendEvent()
+	 *
+	 * @param  queueObj  queued event
+	 */
+	private void unlink(QueueObject queueObj)
+	{
+		if (queueObj.prev == null)
+			queueHead = queueObj.next;
+		else
+			queueObj.prev.next = queueObj.next;
 
-		synchronized(this.sendEventThread)
+		if (queueObj.next == null)
+			queueTail = queueObj.prev;
+		else
+			queueObj.next.prev = queueObj.prev;
+
+		queueDepth--;
+	}
+
+	/**
+	 * Get the number of events waiting to be sent.
+	 *
+	 * @return  number of queued events
+	 */
+	public int getQueueDepth()
+	{
+		synchronized(queueLock)
+		{
+			return queueDepth;
+		}
+	}
+
+	/**
+	 * Get the highest number of events that has been queued.
+	 *
+	 * @return  max number of queued events
+	 */
+	public int getMaxQueueDepth()
+	{
+		synchronized(queueLock)
 		{
-			this.sendEventThread.notify();
+			return maxQueueDepth;
+		}
+	}
+
+	/**
+	 * Get the number of coalesced events that were dropped because a
+	 * newer one of the same type was sent before they were.
+	 *
+	 * @return  number of dropped events
+	 */
+	public long getCoalescedCount()
+	{
+		synchronized(queueLock)
+		{
+			return coalescedCount;
+		}
+	}
+
+	/**
+	 * Get the number of times a sender had to wait because the queue
+	 * was full.
+	 *
+	 * @return  number of waits
+	 */
+	public long getBlockedCount()
+	{
+		synchronized(queueLock)
+		{
+			return blockedCount;
 		}
 	}
 
@@ -215,6 +493,32 @@ public final class EventManager
 		return stringLookup.get(eventIdentifier);
 	}
 	
+	/** 
+	 * Notifies all observers that listens to given event identifier. 
+	 * 
+	 * @pre       Observers must be added eventTable. 
+	 * @checks    That there are <i>EventObservers</i> listening to 
+	 *            to the particular event. If none, the event is 
+	 *            not sent. 
+	 * @calledby  sendEvent(), EventSender.run()
+	 * @calls     update() method of all <i>EventObservers</i> 
+	 * 
+	 * @param  eventIdentifier  string identifying the event 
+	 * @param  obj              object to pass along to the observer 
+	 */   
+	private void notifyObservers(EVENT eventIdentifier, Object obj)
+	{
+		// get array of observers
+		EventObserver[] eventObservers = eventTable.get(eventIdentifier);
+		
+		if (eventObservers == null)
+			return;
+
+		// iterate over all listening observers
+		for (EventObserver eventObserver : eventObservers)
+			eventObserver.update(eventIdentifier, obj);
+	}
+
 	/**
 	 * Event queue object. Used as container for event identifier
 	 * and event object when places in send queue.
@@ -229,12 +533,15 @@ public final class EventManager
 		
 		public EVENT eventIdentifier;
 		public Object obj;
+		public QueueObject prev;
+		public QueueObject next;
 	}
 	
 	/**
-	 * The event sender class runs in it's own thread
-	 * and sends the events in the queue when it receives
-	 * a notify.
+	 * The event sender class runs in it's own thread. It
+	 * parks until there are events, takes all queued events
+	 * at once and sends them in order. Urgent events are sent
+	 * first and between every queued event.
 	 */
 	private class EventSender extends Thread
 	{
@@ -242,61 +549,95 @@ public final class EventManager
 		{
 			while (true)
 			{
-				try	{
-					synchronized(this) {
-						wait();
-					}
-				} catch (InterruptedException e) { }
-
-				// send events in queue
-				while (!queue.isEmpty())
+				sendUrgent();
+
+				QueueObject batch;
+				synchronized(queueLock)
+				{
+					// take the whole queue, new events start a new one
+					batch = queueHead;
+					queueHead = null;
+					queueTail = null;
+					queueDepth = 0;
+					Arrays.fill(pending, null);
+
+					queueLock.notifyAll();
+				}
+
+				if (batch == null)
 				{
-					sendEvent( queue.poll() );
+					Runnable hook = idleHook;
+					if (hook != null)
+						hook.run();
+
+					LockSupport.park(this);
+					continue;
+				}
+
+				// send events in batch
+				for (QueueObject queueObj = batch; queueObj != null; queueObj = queueObj.next)
+				{
+					if (!urgentQueue.isEmpty())
+						sendUrgent();
+
+					if (CONTROL.contains(queueObj.eventIdentifier))
+						sendControl(queueObj);
+					else
+						notifyObservers(queueObj.eventIdentifier, queueObj.obj);
 				}
 			}
 		}
 
-		/** 
-		 * Notifies all observers that listens to given event identifier. 
-		 * 
-		 * @pre       Observers must be added eventTable. 
-		 * @checks    That there are <i>EventObservers</i> listening to 
-		 *            to the particular event. If none, the event is 
-		 *            not sent. 
-		 * @calledby  <i>All objects that sends an event</i> 
-		 * @calls     update() method of all <i>EventObservers</i> 
-		 * 
-		 * @param  eventIdentifier  string identifying the event 
-		 * @param  obj              object to pass along to the observer 
-		 */   
-		private void sendEvent(QueueObject queueObj)
+		/**
+		 * Send all urgent events.
+		 *
+		 * @calledby  run()
+		 * @calls     notifyObservers()
+		 */
+		private void sendUrgent()
 		{
-			// get list of observers
-			ArrayList<EventObserver> eventObservers = eventTable.get(queueObj.eventIdentifier);
-			
-			if (eventObservers == null)
-			{
-				// debug
-				// String objValue = queueObj.obj != null ? ": " + queueObj.obj : "<null>";
-				// System.out.println("EventManger.sendEvent(): No observers listening to '" + queueObj.eventIdentifier + "': " + objValue);
+			QueueObject queueObj = urgentQueue.poll();
+			if (queueObj == null)
 				return;
+
+			for (; queueObj != null; queueObj = urgentQueue.poll())
+				notifyObservers(queueObj.eventIdentifier, queueObj.obj);
+
+			// let senders waiting for room see the urgent event, like a
+			// pause, now instead of after the batch
+			synchronized(queueLock)
+			{
+				urgentSent = true;
+				queueLock.notifyAll();
 			}
+		}
 
-			// debug	
-//			String objValue = queueObj.obj != null ? ": " + queueObj.obj : "<null>";
-//			System.out.println("EventManger.sendEvent(): Event: " + queueObj.eventIdentifier + ", Value: " + objValue);
-			
-			// iterate over all listening observers
-			for (EventObserver eventObserver : eventObservers)
+		/**
+		 * Send a control event. Senders don't wait for room in the queue
+		 * while it is sent, since its observers may wait for them.
+		 *
+		 * @calledby  run()
+		 * @calls     notifyObservers()
+		 *
+		 * @param  queueObj  queued control event
+		 */
+		private void sendControl(QueueObject queueObj)
+		{
+			synchronized(queueLock)
 			{
-				// have a try-catch so the EventManager don't die if something goes wrong
-//				try {
-					eventObserver.update(queueObj.eventIdentifier, queueObj.obj);
-//				} catch (Exception e) {
-//					System.out.println("EventObserver.update() error: "+ e.getMessage());
-//				}
+				urgentSent = false;
+				controlling = true;
+				queueLock.notifyAll();
 			}
-		}		
-		
+
+			try {
+				notifyObservers(queueObj.eventIdentifier, queueObj.obj);
+			} finally {
+				synchronized(queueLock)
+				{
+					controlling = false;
+				}
+			}
+		}
 	}
 }
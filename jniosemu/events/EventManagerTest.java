@@ -0,0 +1,99 @@
+package jniosemu.events;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that an event sent while the event sender thread is between
+ * finding the queue empty and parking is still sent.
+ */
+public class EventManagerTest {
+
+	/**
+	 * Max time to wait for an event, in milliseconds.
+	 */
+	public static final int BOUND = 1000;
+
+	static String error_msg;
+
+	public static void main(String [] args) {
+
+		EventManager.EVENT[] events = {EventManager.EVENT.EMULATOR_STEP, EventManager.EVENT.EMULATOR_PAUSE};
+		int numSucceded = 0;
+
+		for (int i = 0; i < events.length; i++) {
+			System.out.print("Test [" + i + "] (" + events[i] + " before park)");
+
+			if (testIdle(events[i])) {
+				numSucceded++;
+				System.out.println("\t successful");
+			} else {
+				System.out.println("\t failed: (" + error_msg + ")");
+			}
+		}
+
+		System.out.println("Tests done. ("+events.length+" total: " + numSucceded + " successful, "+(events.length - numSucceded)+" failed.)");
+
+		System.exit(0);
+	}
+
+	/**
+	 * Send an event from another thread while the event sender thread
+	 * runs the idle hook, after it has taken an empty queue and before
+	 * it parks, and wait for the event to be sent.
+	 *
+	 * @param  event  event to send
+	 * @return  true if the event was sent
+	 */
+	public static boolean testIdle(final EventManager.EVENT event) {
+		final EventManager eventManager = new EventManager();
+		final CountDownLatch woken = new CountDownLatch(1);
+		final CountDownLatch hooked = new CountDownLatch(1);
+
+		eventManager.addEventObserver(event, new EventObserver() {
+			public void update(EventManager.EVENT eventIdentifier, Object obj) {
+				if (obj != null)
+					woken.countDown();
+			}
+		});
+
+		eventManager.idleHook = new Runnable() {
+			public void run() {
+				eventManager.idleHook = null;
+
+				// the unpark arrives from another thread before the park
+				Thread thread = new Thread(new Runnable() {
+					public void run() {
+						eventManager.sendEvent(event, Boolean.TRUE);
+					}
+				});
+				thread.start();
+				try {
+					thread.join();
+				} catch (InterruptedException e) {}
+
+				hooked.countDown();
+			}
+		};
+
+		// wake the event sender thread so it finds the queue empty again
+		eventManager.sendEvent(event);
+
+		try {
+			if (!hooked.await(BOUND, TimeUnit.MILLISECONDS)) {
+				error_msg = "the idle hook wasn't run";
+				return false;
+			}
+			if (!woken.await(BOUND, TimeUnit.MILLISECONDS)) {
+				error_msg = "the event wasn't sent within " + BOUND + " ms";
+				return false;
+			}
+		} catch (InterruptedException e) {
+			error_msg = e.getMessage();
+			return false;
+		}
+
+		return true;
+	}
+
+}
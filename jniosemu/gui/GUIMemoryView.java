@@ -36,14 +36,12 @@ public class GUIMemoryView extends JFrame
 	/**
 	 * Lists used to display content of each memory block.
 	 */
-	private JList[] memoryLists = null;
-
-	private int[] lastChanged = null;
+	private ArrayList<JList<MemoryInt>> memoryLists = null;
 
 	/**
-	 * Track if a memory block should be repainted or not.
+	 * Generation of each memory block that the lists show.
 	 */
-	private boolean[] memoryUpdateState = null;
+	private int[] lastChanged = null;
 	
 	/**
 	 * Initiates the creation of GUI components and adds itself to
@@ -115,19 +113,21 @@ public class GUIMemoryView extends JFrame
 	 * @param    memBlock  memory block to display
 	 * @return             list created
 	 */
-	private JList addList(MemoryBlock memBlock)
+	private JList<MemoryInt> addList(MemoryBlock memBlock)
 	{
-		JList memoryList = new JList();
+		JList<MemoryInt> memoryList = new JList<MemoryInt>();
 	
 		memoryList.setMaximumSize(new Dimension(Integer.MAX_VALUE, Integer.MAX_VALUE));
 		memoryList.setAlignmentX(Component.CENTER_ALIGNMENT);
 		memoryList.setBackground(Color.WHITE);
 		memoryList.setFont(new Font("Monospaced", Font.PLAIN, 12));
-		memoryList.setCellRenderer(
-			new MemoryCellRenderer(
-				memoryList
-			)
-		);
+
+		MemoryCellRenderer renderer = new MemoryCellRenderer(memoryList);
+		memoryList.setCellRenderer(renderer);
+
+		// fixed size so the list doesn't measure every row of a large block
+		memoryList.setFixedCellWidth((int) renderer.getPreferredSize().getWidth());
+		memoryList.setFixedCellHeight((int) renderer.getPreferredSize().getHeight());
 		
 		JLabel titleLabel = new JLabel(" " + memBlock.getName(), JLabel.LEFT);
 		titleLabel.setLabelFor(memoryList);
@@ -148,48 +148,56 @@ public class GUIMemoryView extends JFrame
 	 * Initiates creation of display lists for all memory blocks.
 	 *
 	 * @calls  addList(), updateLists()
+	 *
+	 * @param  change  first change received
 	 */
-	private void initLists()
+	private void initLists(MemoryChange change)
 	{
 		listPanel.removeAll();
 		
-		memoryLists = new JList[this.memoryBlocks.size()];
-		memoryUpdateState = new boolean[this.memoryBlocks.size()];
+		memoryLists = new ArrayList<JList<MemoryInt>>();
 		this.lastChanged = new int[this.memoryBlocks.size()];
 
 		for(int i = 0; i < this.memoryBlocks.size(); i++)
 		{
 			this.lastChanged[i] = -1;
-			memoryLists[i] = this.addList( (MemoryBlock) memoryBlocks.get(i) );
-			
-			// redraw first time
-			memoryUpdateState[i] = true;
+			memoryLists.add(this.addList( (MemoryBlock) memoryBlocks.get(i) ));
 		}
+
+		listPanel.revalidate();
 		
-		this.updateLists();
+		this.updateLists(change);
 	}
 	
 	/**
-	 * Updates content of all list tagged as changed.
+	 * Updates the rows that have changed. A list is only patched if it
+	 * shows the generation the change starts from, otherwise it is rebuilt.
+	 *
+	 * @calledby  initLists(), update()
+	 * @calls     MemoryListModel
+	 *
+	 * @param  change  changes since the last event
 	 */
-	private void updateLists()
+	private void updateLists(MemoryChange change)
 	{
-		for(int i = 0; i < this.memoryLists.length; i++)
+		for(int i = 0; i < this.memoryLists.size(); i++)
 		{
 			MemoryBlock memBlock = (MemoryBlock) memoryBlocks.get(i);
-			
-			if (memBlock.isChanged(this.lastChanged[i]) || memoryUpdateState[i])
+			int[] ranges = change.getRanges(i);
+
+			if (this.lastChanged[i] < 0 || this.lastChanged[i] != change.getFromGeneration(i))
 			{
-				Vector<MemoryInt> memVector =  memBlock.getMemoryVector();
+				memoryLists.get(i).setModel(new MemoryListModel(memBlock));
+			}
+			else if (ranges.length > 0)
+			{
+				MemoryListModel model = (MemoryListModel) memoryLists.get(i).getModel();
 
-				if (memVector != null)
-					memoryLists[i].setListData(memVector);
-				
-				// if memory block has changed, do also redraw next time
-				// in order to remove indication
-				memoryUpdateState[i] = memBlock.isChanged(this.lastChanged[i]);
-				this.lastChanged[i] = memBlock.lastChanged();
+				for (int j = 0; j < ranges.length; j += 2)
+					model.changed((ranges[j] - memBlock.getStart()) / 4, (ranges[j + 1] - 1 - memBlock.getStart()) / 4);
 			}
+
+			this.lastChanged[i] = change.getToGeneration(i);
 		}
 	}
 
@@ -201,12 +209,12 @@ public class GUIMemoryView extends JFrame
 		if (memoryLists == null)
 			return;
 		
-		for(int i = 0; i < this.memoryLists.length; i++)
+		for(int i = 0; i < this.memoryLists.size(); i++)
 		{
 			this.lastChanged[i] = -1;
 
 			// clear list
-			memoryLists[i].setModel(new DefaultListModel());
+			memoryLists.get(i).setModel(new DefaultListModel<MemoryInt>());
 		}
 		
 		this.memoryBlocks = null;
@@ -217,22 +225,26 @@ public class GUIMemoryView extends JFrame
 	{
 		switch (eventIdentifier) {
 			case MEMORY_CHANGE:
+				MemoryChange change = (MemoryChange) obj;
+
 				// get memory blocks if not present
 				if (this.memoryBlocks == null)
-					this.memoryBlocks = (ArrayList<MemoryBlock>) obj;
+					this.memoryBlocks = change.getMemoryBlocks();
 			
-				// init if no lists exists
-				if (this.memoryLists == null)
-					initLists();
+				// init if no lists exists or a block has been added
+				if (this.memoryLists == null || this.memoryLists.size() != this.memoryBlocks.size())
+					initLists(change);
 				else
 					// otherwise update existing
-					updateLists();
+					updateLists(change);
 			
 				break;
 			case EMULATOR_CLEAR:
 				clearLists();
 				break;
 			case EMULATOR_READY:
+				if (this.lastChanged == null)
+					break;
 				for (int i = 0; i < this.lastChanged.length; i++)
 					this.lastChanged[i] = -1;
 				break;
@@ -249,11 +261,44 @@ public class GUIMemoryView extends JFrame
 	  dispose();
 	}
 
+	/**
+	 * List model that reads the rows from the memory block when they are
+	 * shown, so a large block doesn't need an object for every word.
+	 */
+	class MemoryListModel extends AbstractListModel<MemoryInt> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final MemoryBlock memBlock;
+
+		public MemoryListModel(MemoryBlock memBlock) {
+			this.memBlock = memBlock;
+		}
+
+		public int getSize() {
+			return (memBlock.getLength() + 3) / 4;
+		}
+
+		public MemoryInt getElementAt(int index) {
+			return memBlock.getMemoryInt(memBlock.getStart() + index * 4);
+		}
+
+		/**
+		 * Tell the list that rows have changed.
+		 *
+		 * @param  first  index of the first row
+		 * @param  last   index of the last row
+		 */
+		public void changed(int first, int last) {
+			fireContentsChanged(this, first, last);
+		}
+	}
+
 	/**
 	 * Custom cell renderer for the lists in the Memory View.
 	 */
 	class MemoryCellRenderer extends JPanel
-												 implements ListCellRenderer {
+												 implements ListCellRenderer<MemoryInt> {
 
 			private MemoryInt memInt;
 
@@ -262,7 +307,7 @@ public class GUIMemoryView extends JFrame
 			private final int width;
 			private final int height;
 
-			public MemoryCellRenderer(JList list) {
+			public MemoryCellRenderer(JList<MemoryInt> list) {
 				super();
 				setOpaque(true);
 				setFont(list.getFont());
@@ -286,13 +331,13 @@ public class GUIMemoryView extends JFrame
 			 * Sets background/foreground color and stores MemoryInt object.
 			 */
 			public Component getListCellRendererComponent(
-																				 JList list,
-																				 Object value,
+																				 JList<? extends MemoryInt> list,
+																				 MemoryInt value,
 																				 int index,
 																				 boolean isSelected,
 																				 boolean cellHasFocus)
 			{
-				this.memInt = (MemoryInt) value;
+				this.memInt = value;
 
 				if (isSelected) { 
 					setBackground(list.getSelectionBackground()); 
@@ -136,6 +136,16 @@ public class GUIMenuBar extends JMenuBar
 		stateManager.addItem(EventManager.EVENT.EMULATOR_STEP_OVER, item);
 		menu.add(item);
 
+		item = createMenuItem("Step Back", EventManager.EVENT.EMULATOR_STEP_BACK.toString(),
+							KeyStroke.getKeyStroke(KeyEvent.VK_F8, ActionEvent.SHIFT_MASK));
+		stateManager.addItem(EventManager.EVENT.EMULATOR_STEP_BACK, item);
+		menu.add(item);
+
+		item = createMenuItem("Run Back", EventManager.EVENT.EMULATOR_RUN_BACK.toString(),
+							KeyStroke.getKeyStroke(KeyEvent.VK_F9, ActionEvent.SHIFT_MASK));
+		stateManager.addItem(EventManager.EVENT.EMULATOR_RUN_BACK, item);
+		menu.add(item);
+
 		item = createMenuItem("Reset", EventManager.EVENT.EMULATOR_RESET.toString(),
 							KeyStroke.getKeyStroke(KeyEvent.VK_F2, ActionEvent.CTRL_MASK));
 		stateManager.addItem(EventManager.EVENT.EMULATOR_RESET, item);
@@ -180,6 +190,12 @@ public class GUIMenuBar extends JMenuBar
 		speedGroup.add(item);
 		submenu.add(item);
 
+		item = new JRadioButtonMenuItem("Real-time");
+		item.setActionCommand(EventManager.EVENT.EMULATOR_SPEED + DELIMITER_CHAR + EmulatorManager.SPEED.REALTIME);
+		item.addActionListener(this);
+		speedGroup.add(item);
+		submenu.add(item);
+
 
 		// View menu
 		menu = new JMenu("View");
@@ -388,6 +404,10 @@ public class GUIMenuBar extends JMenuBar
 				{
 					eventObj = EmulatorManager.SPEED.SLOW;
 				}
+				else if (actionValue.equals(EmulatorManager.SPEED.REALTIME.toString()))
+				{
+					eventObj = EmulatorManager.SPEED.REALTIME;
+				}
 				break;
 		}
 
@@ -95,6 +95,11 @@ public class GUIToolBar extends JToolBar
 												"Step Over");
 		this.add(button);
 
+		button = makeButton("step_back", EventManager.EVENT.EMULATOR_STEP_BACK.toString(),
+												"Step Back. Undo the last executed instruction",
+												"Step Back");
+		this.add(button);
+
 
 		button = makeButton("reset", EventManager.EVENT.EMULATOR_RESET.toString(),
 												"Reset emulator",
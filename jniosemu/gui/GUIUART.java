@@ -5,12 +5,18 @@ import javax.swing.event.*;
 import java.awt.event.*;
 import java.awt.*;
 import javax.swing.border.*;
+import javax.swing.text.*;
 
 import jniosemu.events.*;
 import jniosemu.emulator.*;
 
 /**
  * Creates and manages the GUI component of the serial console.
+ * <p>
+ * Received characters are collected in a buffer by the event thread and
+ * appended to the text area in one piece on the EDT, at most FLUSHRATE
+ * times per second. The text area only keeps the last scrollback
+ * characters.
  */
  public class GUIUART extends JFrame
                       implements ActionListener, EventObserver {
@@ -34,6 +40,32 @@ import jniosemu.emulator.*;
 	private EventManager.EVENT inEvent;
 	private EventManager.EVENT outEvent;
 
+	/**
+	 * Number of times per second received characters are shown
+	 */
+	public static final int FLUSHRATE = 20;
+
+	/**
+	 * Default number of characters kept in the text area.
+	 */
+	public static final int SCROLLBACK = 100000;
+
+	/**
+	 * Max number of characters kept in the text area.
+	 */
+	private volatile int scrollback = SCROLLBACK;
+
+	/**
+	 * Received characters that haven't been shown yet, guarded by itself.
+	 */
+	private StringBuilder received = new StringBuilder();
+
+	/**
+	 * Timer that shows the received characters, started when the
+	 * first one arrives.
+	 */
+	private Timer flushTimer;
+
 	/**
 	 * Create UART window.
 	 *
@@ -51,6 +83,9 @@ import jniosemu.emulator.*;
 		
 		// setup GUI
 		setup();
+
+		flushTimer = new Timer(1000 / FLUSHRATE, this);
+		flushTimer.setRepeats(false);
 		
 		// add events to listen to
 		EventManager.EVENT[] events = {
@@ -151,15 +186,30 @@ import jniosemu.emulator.*;
     contentPane.add(contentPanel, BorderLayout.CENTER);
 	}
 
+	/**
+	 * Set how many characters the text area keeps.
+	 *
+	 * @param  scrollback  max number of characters
+	 */
+	public void setScrollback(int scrollback)
+	{
+		this.scrollback = Math.max(1, scrollback);
+	}
+
 	public void update(EventManager.EVENT eventIdentifier, Object obj)
 	{
 		if (eventIdentifier == this.outEvent)
 		{
-			// append character last
-			recvTextArea.append( ((Character) obj).toString() );
-			
-			// move caret to last position to force scroll
-			recvTextArea.setCaretPosition(recvTextArea.getDocument().getLength());
+			synchronized (received) {
+				if (received.length() == 0)
+					flushTimer.start();
+
+				received.append(((Character) obj).charValue());
+
+				// characters that would be trimmed anyway aren't kept
+				if (received.length() > 2 * scrollback)
+					received.delete(0, received.length() - scrollback);
+			}
 		}
 		else
 		{
@@ -167,19 +217,65 @@ import jniosemu.emulator.*;
 				case EMULATOR_RESET:
 				case EMULATOR_READY:
 				case EMULATOR_CLEAR:
-					recvTextArea.setText("");
-					sendTextArea.setText("");
+					synchronized (received) {
+						received.setLength(0);
+					}
+
+					SwingUtilities.invokeLater(new Runnable() {
+						public void run() {
+							recvTextArea.setText("");
+							sendTextArea.setText("");
+						}
+					});
 					break;
 			}
 		}
 	}
 
 	/**
-	 * Invoked when a GUI action occurs..
+	 * Append the received characters to the text area and trim it
+	 * to scrollback characters, whole lines if possible.
+	 *
+	 * @calledby  actionPerformed()
+	 */
+	private void flush()
+	{
+		String text;
+		synchronized (received) {
+			text = received.toString();
+			received.setLength(0);
+		}
+
+		if (text.length() == 0)
+			return;
+
+		recvTextArea.append(text);
+
+		Document document = recvTextArea.getDocument();
+		int excess = document.getLength() - scrollback;
+		if (excess > 0) {
+			try {
+				int line = recvTextArea.getLineOfOffset(excess);
+				int end = recvTextArea.getLineEndOffset(line);
+				document.remove(0, (end - excess <= scrollback / 10) ? end : excess);
+			} catch (BadLocationException e) {}
+		}
+
+		// move caret to last position to force scroll
+		recvTextArea.setCaretPosition(document.getLength());
+	}
+
+	/**
+	 * Invoked when a GUI action occurs or the flush timer fires.
 	 *
 	 * @param  e  action event object
 	 */
 	public void actionPerformed(ActionEvent e) {
+		if (e.getSource() == flushTimer) {
+			flush();
+			return;
+		}
+
 	  setVisible(false);
 	  dispose();
 	}
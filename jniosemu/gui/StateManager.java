@@ -114,6 +114,8 @@ public class StateManager implements EventObserver
 				setEnabled(EventManager.EVENT.EMULATOR_PAUSE, false);
 				setEnabled(EventManager.EVENT.EMULATOR_STEP, false);
 				setEnabled(EventManager.EVENT.EMULATOR_STEP_OVER, false);
+				setEnabled(EventManager.EVENT.EMULATOR_STEP_BACK, false);
+				setEnabled(EventManager.EVENT.EMULATOR_RUN_BACK, false);
 				setEnabled(EventManager.EVENT.EMULATOR_RESET, false);
 				break;
 			case EMULATOR_END:
@@ -121,6 +123,8 @@ public class StateManager implements EventObserver
 				setEnabled(EventManager.EVENT.EMULATOR_PAUSE, false);
 				setEnabled(EventManager.EVENT.EMULATOR_STEP, false);
 				setEnabled(EventManager.EVENT.EMULATOR_STEP_OVER, false);
+				setEnabled(EventManager.EVENT.EMULATOR_STEP_BACK, true);
+				setEnabled(EventManager.EVENT.EMULATOR_RUN_BACK, true);
 				setEnabled(EventManager.EVENT.EMULATOR_RESET, true);
 				break;
 			case EMULATOR_READY:
@@ -128,6 +132,8 @@ public class StateManager implements EventObserver
 				setEnabled(EventManager.EVENT.EMULATOR_PAUSE, false);
 				setEnabled(EventManager.EVENT.EMULATOR_STEP, true);
 				setEnabled(EventManager.EVENT.EMULATOR_STEP_OVER, true);
+				setEnabled(EventManager.EVENT.EMULATOR_STEP_BACK, true);
+				setEnabled(EventManager.EVENT.EMULATOR_RUN_BACK, true);
 				setEnabled(EventManager.EVENT.EMULATOR_RESET, false);
 				break;
 			case EMULATOR_START:
@@ -135,6 +141,8 @@ public class StateManager implements EventObserver
 				setEnabled(EventManager.EVENT.EMULATOR_PAUSE, true);
 				setEnabled(EventManager.EVENT.EMULATOR_STEP, false);
 				setEnabled(EventManager.EVENT.EMULATOR_STEP_OVER, false);
+				setEnabled(EventManager.EVENT.EMULATOR_STEP_BACK, false);
+				setEnabled(EventManager.EVENT.EMULATOR_RUN_BACK, false);
 				setEnabled(EventManager.EVENT.EMULATOR_RESET, true);
 				break;
 			case EMULATOR_STOP:
@@ -142,6 +150,8 @@ public class StateManager implements EventObserver
 				setEnabled(EventManager.EVENT.EMULATOR_PAUSE, false);
 				setEnabled(EventManager.EVENT.EMULATOR_STEP, true);
 				setEnabled(EventManager.EVENT.EMULATOR_STEP_OVER, true);
+				setEnabled(EventManager.EVENT.EMULATOR_STEP_BACK, true);
+				setEnabled(EventManager.EVENT.EMULATOR_RUN_BACK, true);
 				setEnabled(EventManager.EVENT.EMULATOR_RESET, true);
 				break;
 				
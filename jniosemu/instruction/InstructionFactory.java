@@ -0,0 +1,21 @@
+package jniosemu.instruction;
+
+import jniosemu.instruction.emulator.Instruction;
+
+/**
+ * Creates the emulator instruction for an opcode. One factory is
+ * registered per instruction in InstructionManager so decoding doesn't
+ * need to look up classes by name.
+ */
+public interface InstructionFactory
+{
+	/**
+	 * Create the instruction
+	 *
+	 * @calledby InstructionManager.get()
+	 *
+	 * @param opCode  Opcode of the instruction
+	 * @return New instruction
+	 */
+	public Instruction create(int opCode);
+}
@@ -45,6 +45,10 @@ public class InstructionInfo extends InstructionSyntax
 	 * Syntax of the instruction
 	 */
 	private final Syntax syntax;
+	/**
+	 * Creates the emulator instruction
+	 */
+	private final InstructionFactory factory;
 
 	/**
 	 * Creating Instruction info
@@ -55,19 +59,22 @@ public class InstructionInfo extends InstructionSyntax
 	 * @param opCode  op-code for the instruction
 	 * @param type    sype of instruction
 	 * @param syntax  syntax of the instruction
+	 * @param category  instruction category
+	 * @param factory  creates the emulator instruction, null if not implemented
 	 */
-	public InstructionInfo(String name, int opCode, Type type, Syntax syntax, CATEGORY category) {
+	public InstructionInfo(String name, int opCode, Type type, Syntax syntax, CATEGORY category, InstructionFactory factory) {
 		this.name   = name.toLowerCase();
 		this.opCode = opCode;
 		this.type   = type;
 		this.syntax = syntax;
 		this.category = category;
+		this.factory = factory;
 	}
 
 	/**
 	 * Returns the classname of this instruction.
 	 *
-	 * @calledby InstructionManager.get()
+	 * @calledby DecodeBenchmark
 	 *
 	 * @return Classname of the instruction
 	 */
@@ -108,6 +115,17 @@ public class InstructionInfo extends InstructionSyntax
 		return this.opCode;
 	}
 
+	/**
+	 * Returns the factory that creates the emulator instruction.
+	 *
+	 * @calledby InstructionManager.get().
+	 *
+	 * @return Factory of the instruction, null if it isn't implemented
+	 */
+	public InstructionFactory getFactory() {
+		return this.factory;
+	}
+
 	/**
 	 * Returns the type of the instruction.
 	 *
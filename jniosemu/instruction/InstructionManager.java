@@ -1,6 +1,5 @@
 package jniosemu.instruction;
 
-import java.lang.reflect.Constructor;
 import java.util.HashMap;
 import java.util.ArrayList;
 import jniosemu.instruction.emulator.*;
@@ -13,14 +12,20 @@ import jniosemu.emulator.compiler.macro.MacroManager;
 public class InstructionManager
 {
 	/**
-	 * Used to track if instruction has been populated or not.
+	 * Used to track if instruction has been populated or not. Set last in
+	 * init() so a thread that sees it true also sees the populated tables.
 	 */
-	private static boolean inited = false;
+	private static volatile boolean inited = false;
 	
 	/**
-   * Used for fast getting an InstructionInfo from an opcode
-   */
-	private static HashMap<Integer, InstructionInfo> opCodeHash;
+	 * InstructionInfo indexed by the 6 bit OP field of an opcode
+	 */
+	private static InstructionInfo[] opTable;
+
+	/**
+	 * InstructionInfo indexed by the 6 bit OPX field of an opcode with OP 0x3A
+	 */
+	private static InstructionInfo[] opxTable;
 	
 	/**
 	 * Used for fast getting an InstructionInfo from a name
@@ -39,92 +44,111 @@ public class InstructionManager
 	/**
 	 * Init the InstructionManager by populating the instructions.
 	 *
-	 * @post     Populate instructions, opCodeHash and nameHash.
+	 * @post     Populate instructions, opTable, opxTable and nameHash.
 	 * @calledby EmulatorManager()
-	 * @calls    InstructionInfo()
+	 * @calls    populate()
 	 */
 	private static void init() {
 		if (inited)
 			return;
 
-		opCodeHash = new HashMap<Integer, InstructionInfo>(50);
+		// Emulators may be started in several threads at the same time
+		synchronized (InstructionManager.class) {
+			if (!inited)
+				populate();
+		}
+	}
+
+	/**
+	 * Populate the instructions.
+	 *
+	 * @calledby init()
+	 * @calls    InstructionInfo()
+	 */
+	private static void populate() {
+		opTable = new InstructionInfo[64];
+		opxTable = new InstructionInfo[64];
 		nameHash = new HashMap<String, InstructionInfo>(50);
 		instructions = new ArrayList<InstructionInfo>(50);
 		instructionSyntax = new ArrayList<InstructionSyntax>(70);
 		syntaxNameHash = new HashMap<String, InstructionSyntax>(70);
 
-		addInstruction("ADD",     0x1883A,    InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL);
-		addInstruction("ADDI",    0x04,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL);
-		addInstruction("AND",     0x703A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL);
-		addInstruction("ANDHI",   0x2C,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL);
-		addInstruction("ANDI",    0x0C,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL);
-		addInstruction("BEQ",     0x26,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.BRANCH_COND,  InstructionSyntax.CATEGORY.PROGRAM_CONTROL);
-		addInstruction("BGE",     0x0e,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.BRANCH_COND,  InstructionSyntax.CATEGORY.PROGRAM_CONTROL);
-		addInstruction("BGEU",    0x2e,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.BRANCH_COND,  InstructionSyntax.CATEGORY.PROGRAM_CONTROL);
-		addInstruction("BLT",     0x16,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.BRANCH_COND,  InstructionSyntax.CATEGORY.PROGRAM_CONTROL);
-		addInstruction("BLTU",    0x36,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.BRANCH_COND,  InstructionSyntax.CATEGORY.PROGRAM_CONTROL);
-		addInstruction("BNE",     0x1e,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.BRANCH_COND,  InstructionSyntax.CATEGORY.PROGRAM_CONTROL);
-		addInstruction("BR",      0x06,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.BRANCH,       InstructionSyntax.CATEGORY.PROGRAM_CONTROL);
-		addInstruction("CALL",    0x0,        InstructionInfo.Type.JTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.PROGRAM_CONTROL);
-		addInstruction("CALLR",   0x3EE83A,   InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.CALLJUMP,     InstructionSyntax.CATEGORY.PROGRAM_CONTROL);
-		addInstruction("CMPEQ",   0x1003A,    InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.COMPARISON);
-		addInstruction("CMPEQI",  0x20,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.COMPARISON);
-		addInstruction("CMPGE",   0x403A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.COMPARISON);
-		addInstruction("CMPGEI",  0x08,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.COMPARISON);
-		addInstruction("CMPGEU",  0x1403A,    InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.COMPARISON);
-		addInstruction("CMPGEUI", 0x28,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.COMPARISON);
-		addInstruction("CMPLT",   0x803A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.COMPARISON);
-		addInstruction("CMPLTI",  0x10,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.COMPARISON);
-		addInstruction("CMPLTU",  0x1803A,    InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.COMPARISON);
-		addInstruction("CMPLTUI", 0x30,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.COMPARISON);
-		addInstruction("CMPNE",   0xC03A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.COMPARISON);
-		addInstruction("CMPNEI",  0x18,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.COMPARISON);
-		addInstruction("DIV",     0x1283A,    InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL);
-		addInstruction("DIVU",    0x1203A,    InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL);
-		addInstruction("JMP",     0x683A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.CALLJUMP,     InstructionSyntax.CATEGORY.PROGRAM_CONTROL);
-		addInstruction("LDB",     0x07,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER);
-		addInstruction("LDBIO",   0x27,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER);
-		addInstruction("LDBU",    0x03,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER);
-		addInstruction("LDBUIO",  0x23,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER);
-		addInstruction("LDH",     0x0F,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER);
-		addInstruction("LDHIO",   0x2F,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER);
-		addInstruction("LDHU",    0x0B,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER);
-		addInstruction("LDHUIO",  0x2B,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER);
-		addInstruction("LDW",     0x17,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER);
-		addInstruction("LDWIO",   0x37,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER);
-		addInstruction("MUL",     0x1383A,    InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL);
-		addInstruction("MULI",    0x24,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL);
-		addInstruction("MULXSS",  0xF83A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL);
-		addInstruction("MULXSU",  0xB83A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL);
-		addInstruction("MULXUU",  0x383A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL);
-		addInstruction("NEXTPC",  0xE03A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.PC,           InstructionSyntax.CATEGORY.OTHER);
-		addInstruction("NOR",     0x303A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL);
-		addInstruction("OR",      0xB03A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL);
-		addInstruction("ORHI",    0x34,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL);
-		addInstruction("ORI",     0x14,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL);
-		addInstruction("RET",     0xF800283A, InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.NONE,         InstructionSyntax.CATEGORY.PROGRAM_CONTROL);
-		addInstruction("ROL",     0x183A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.SHIFT_ROTATE);
-		addInstruction("ROLI",    0x83A,      InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.SHIFT,        InstructionSyntax.CATEGORY.SHIFT_ROTATE);
-		addInstruction("ROR",     0x583A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.SHIFT_ROTATE);
-		addInstruction("SLL",     0x983A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.SHIFT_ROTATE);
-		addInstruction("SLLI",    0x903A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.SHIFT,        InstructionSyntax.CATEGORY.SHIFT_ROTATE);
-		addInstruction("SRA",     0x1D83A,    InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.SHIFT_ROTATE);
-		addInstruction("SRAI",    0x1D03A,    InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.SHIFT,        InstructionSyntax.CATEGORY.SHIFT_ROTATE);
-		addInstruction("SRL",     0xD83A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.SHIFT_ROTATE);
-		addInstruction("SRLI",    0xD03A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.SHIFT,        InstructionSyntax.CATEGORY.SHIFT_ROTATE);
-		addInstruction("STB",     0x05,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER);
-		addInstruction("STBIO",   0x25,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER);
-		addInstruction("STH",     0x0D,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER);
-		addInstruction("STHIO",   0x2D,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER);
-		addInstruction("STW",     0x15,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER);
-		addInstruction("STWIO",   0x35,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER);
-		addInstruction("SUB",     0x1C83A,    InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL);
-		addInstruction("XOR",     0xF03A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL);
-		addInstruction("XORHI",   0x3C,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL);
-		addInstruction("XORI",    0x1C,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL);
+		addInstruction("ADD",     0x1883A,    InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL, AddInstruction::new);
+		addInstruction("ADDI",    0x04,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL, AddiInstruction::new);
+		addInstruction("AND",     0x703A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL, AndInstruction::new);
+		addInstruction("ANDHI",   0x2C,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL, AndhiInstruction::new);
+		addInstruction("ANDI",    0x0C,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL, AndiInstruction::new);
+		addInstruction("BEQ",     0x26,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.BRANCH_COND,  InstructionSyntax.CATEGORY.PROGRAM_CONTROL,    BeqInstruction::new);
+		addInstruction("BGE",     0x0e,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.BRANCH_COND,  InstructionSyntax.CATEGORY.PROGRAM_CONTROL,    BgeInstruction::new);
+		addInstruction("BGEU",    0x2e,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.BRANCH_COND,  InstructionSyntax.CATEGORY.PROGRAM_CONTROL,    BgeuInstruction::new);
+		addInstruction("BLT",     0x16,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.BRANCH_COND,  InstructionSyntax.CATEGORY.PROGRAM_CONTROL,    BltInstruction::new);
+		addInstruction("BLTU",    0x36,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.BRANCH_COND,  InstructionSyntax.CATEGORY.PROGRAM_CONTROL,    BltuInstruction::new);
+		addInstruction("BNE",     0x1e,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.BRANCH_COND,  InstructionSyntax.CATEGORY.PROGRAM_CONTROL,    BneInstruction::new);
+		addInstruction("BR",      0x06,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.BRANCH,       InstructionSyntax.CATEGORY.PROGRAM_CONTROL,    BrInstruction::new);
+		addInstruction("CALL",    0x0,        InstructionInfo.Type.JTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.PROGRAM_CONTROL,    CallInstruction::new);
+		addInstruction("CALLR",   0x3EE83A,   InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.CALLJUMP,     InstructionSyntax.CATEGORY.PROGRAM_CONTROL,    CallrInstruction::new);
+		addInstruction("CMPEQ",   0x1003A,    InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.COMPARISON,         CmpeqInstruction::new);
+		addInstruction("CMPEQI",  0x20,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.COMPARISON,         CmpeqiInstruction::new);
+		addInstruction("CMPGE",   0x403A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.COMPARISON,         CmpgeInstruction::new);
+		addInstruction("CMPGEI",  0x08,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.COMPARISON,         CmpgeiInstruction::new);
+		addInstruction("CMPGEU",  0x1403A,    InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.COMPARISON,         CmpgeuInstruction::new);
+		addInstruction("CMPGEUI", 0x28,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.COMPARISON,         CmpgeuiInstruction::new);
+		addInstruction("CMPLT",   0x803A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.COMPARISON,         CmpltInstruction::new);
+		addInstruction("CMPLTI",  0x10,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.COMPARISON,         CmpltiInstruction::new);
+		addInstruction("CMPLTU",  0x1803A,    InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.COMPARISON,         CmpltuInstruction::new);
+		addInstruction("CMPLTUI", 0x30,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.COMPARISON,         CmpltuiInstruction::new);
+		addInstruction("CMPNE",   0xC03A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.COMPARISON,         CmpneInstruction::new);
+		addInstruction("CMPNEI",  0x18,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.COMPARISON,         CmpneiInstruction::new);
+		addInstruction("DIV",     0x1283A,    InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL, DivInstruction::new);
+		addInstruction("DIVU",    0x1203A,    InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL, null);
+		addInstruction("JMP",     0x683A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.CALLJUMP,     InstructionSyntax.CATEGORY.PROGRAM_CONTROL,    JmpInstruction::new);
+		addInstruction("LDB",     0x07,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER,      LdbInstruction::new);
+		addInstruction("LDBIO",   0x27,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER,      LdbioInstruction::new);
+		addInstruction("LDBU",    0x03,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER,      LdbuInstruction::new);
+		addInstruction("LDBUIO",  0x23,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER,      LdbuioInstruction::new);
+		addInstruction("LDH",     0x0F,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER,      LdhInstruction::new);
+		addInstruction("LDHIO",   0x2F,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER,      LdhioInstruction::new);
+		addInstruction("LDHU",    0x0B,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER,      LdhuInstruction::new);
+		addInstruction("LDHUIO",  0x2B,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER,      LdhuioInstruction::new);
+		addInstruction("LDW",     0x17,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER,      LdwInstruction::new);
+		addInstruction("LDWIO",   0x37,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER,      LdwioInstruction::new);
+		addInstruction("MUL",     0x1383A,    InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL, MulInstruction::new);
+		addInstruction("MULI",    0x24,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL, MuliInstruction::new);
+		addInstruction("MULXSS",  0xF83A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL, MulxssInstruction::new);
+		addInstruction("MULXSU",  0xB83A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL, MulxsuInstruction::new);
+		addInstruction("MULXUU",  0x383A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL, MulxuuInstruction::new);
+		addInstruction("NEXTPC",  0xE03A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.PC,           InstructionSyntax.CATEGORY.OTHER,              NextpcInstruction::new);
+		addInstruction("NOR",     0x303A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL, NorInstruction::new);
+		addInstruction("OR",      0xB03A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL, OrInstruction::new);
+		addInstruction("ORHI",    0x34,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL, OrhiInstruction::new);
+		addInstruction("ORI",     0x14,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL, OriInstruction::new);
+		addInstruction("RET",     0xF800283A, InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.NONE,         InstructionSyntax.CATEGORY.PROGRAM_CONTROL,    RetInstruction::new);
+		addInstruction("ROL",     0x183A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.SHIFT_ROTATE,       RolInstruction::new);
+		addInstruction("ROLI",    0x83A,      InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.SHIFT,        InstructionSyntax.CATEGORY.SHIFT_ROTATE,       RoliInstruction::new);
+		addInstruction("ROR",     0x583A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.SHIFT_ROTATE,       RorInstruction::new);
+		addInstruction("SLL",     0x983A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.SHIFT_ROTATE,       SllInstruction::new);
+		addInstruction("SLLI",    0x903A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.SHIFT,        InstructionSyntax.CATEGORY.SHIFT_ROTATE,       SlliInstruction::new);
+		addInstruction("SRA",     0x1D83A,    InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.SHIFT_ROTATE,       SraInstruction::new);
+		addInstruction("SRAI",    0x1D03A,    InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.SHIFT,        InstructionSyntax.CATEGORY.SHIFT_ROTATE,       SraiInstruction::new);
+		addInstruction("SRL",     0xD83A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.SHIFT_ROTATE,       SrlInstruction::new);
+		addInstruction("SRLI",    0xD03A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.SHIFT,        InstructionSyntax.CATEGORY.SHIFT_ROTATE,       SrliInstruction::new);
+		addInstruction("STB",     0x05,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER,      StbInstruction::new);
+		addInstruction("STBIO",   0x25,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER,      StbioInstruction::new);
+		addInstruction("STH",     0x0D,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER,      SthInstruction::new);
+		addInstruction("STHIO",   0x2D,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER,      SthioInstruction::new);
+		addInstruction("STW",     0x15,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER,      StwInstruction::new);
+		addInstruction("STWIO",   0x35,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.MEMORY,       InstructionSyntax.CATEGORY.DATA_TRANSFER,      StwioInstruction::new);
+		addInstruction("SUB",     0x1C83A,    InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL, SubInstruction::new);
+		addInstruction("XOR",     0xF03A,     InstructionInfo.Type.RTYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL, XorInstruction::new);
+		addInstruction("XORHI",   0x3C,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL, XorhiInstruction::new);
+		addInstruction("XORI",    0x1C,       InstructionInfo.Type.ITYPE, InstructionInfo.Syntax.DEFAULT,      InstructionSyntax.CATEGORY.ARITHMETIC_LOGICAL, XoriInstruction::new);
 
 		for (InstructionInfo instruction: instructions) {
-			opCodeHash.put(instruction.getHash(), instruction);
+			int opCode = instruction.getOpCode();
+			if ((opCode & 0x3F) == 0x3A)
+				opxTable[(opCode >>> 11) & 0x3F] = instruction;
+			else
+				opTable[opCode & 0x3F] = instruction;
 			nameHash.put(instruction.getName(), instruction);
 
 			instructionSyntax.add(instruction);
@@ -152,10 +176,11 @@ public class InstructionManager
 	 * @param type      sype of instruction
 	 * @param syntax    syntax of the instruction
 	 * @param category  instruction category
+	 * @param factory   creates the emulator instruction, null if not implemented
 	 */
-	private static void addInstruction(String name, int opCode, InstructionInfo.Type type, InstructionInfo.Syntax syntax, InstructionSyntax.CATEGORY category)
+	private static void addInstruction(String name, int opCode, InstructionInfo.Type type, InstructionInfo.Syntax syntax, InstructionSyntax.CATEGORY category, InstructionFactory factory)
 	{
-		instructions.add(new InstructionInfo(name, opCode, type, syntax, category));
+		instructions.add(new InstructionInfo(name, opCode, type, syntax, category, factory));
 	}
 
 	public static int getHash(int opCode) {
@@ -169,49 +194,34 @@ public class InstructionManager
 	public static InstructionInfo getInfo(int opCode) {
 		init();
 
-		return opCodeHash.get(getHash(opCode));
+		// Check the last 6 bits if it is an opx instruction
+		if ((opCode & 0x3F) == 0x3A)
+			return opxTable[(opCode >>> 11) & 0x3F];
+
+		return opTable[opCode & 0x3F];
 	}
 
 	/**
 	 * Translate an opcode to an instruction.
 	 *
-	 * @pre opCodeHash must be populated.
-	 * @calledby EmulatorManager
-	 * @calls Instruction()
+	 * @pre opTable and opxTable must be populated.
+	 * @calledby MemoryBlock.readInstruction(), SourceCodeLine
+	 * @calls InstructionFactory.create()
 	 *
 	 * @param opCode  Opcode of the instruction
 	 * @return Instruction  The instruction that one requested
-	 * @throws InstructionException  If the instruction don't exists or the instruction class is missing
+	 * @throws InstructionException  If the instruction don't exists or isn't implemented
 	 */
 	public static Instruction get(int opCode) throws InstructionException {
-		init();
-
-		// Check the last 6 bits if it is an opx instruction
-		int op = opCode & 0x3F;
-		if (op == 0x3A)
-			op = op | (opCode & 0x1F800);
-
-		InstructionInfo instruction = opCodeHash.get(op);
+		InstructionInfo instruction = getInfo(opCode);
 		if (instruction == null)
 			throw new InstructionException(opCode);
 
-		try {
-			Constructor c = Class.forName(instruction.getClassName()).getConstructors()[0];
-			Object[] args = new Object[]{opCode};
-			return (Instruction)c.newInstance(args);
-		} 
-		// catch are done per exception instead of one Exception in order to
-		// not by mistake catch RuntimeException that may hide potential bugs
-		catch (ClassNotFoundException e) {
-			throw new InstructionException(opCode, "Class is missing: "+ instruction.getClassName());
-		} catch (InstantiationException e) {
-			// does only happen if trying to make instance of interface or abstract class
-			throw new InstructionException(opCode, "Cannot make instance of class: "+ instruction.getClassName());
-		} catch (IllegalAccessException e) {
-			throw new InstructionException(opCode, "No access to class: "+ instruction.getClassName());
-		} catch (java.lang.reflect.InvocationTargetException e) {
-			throw new InstructionException(opCode, "Invocation target exception: "+ instruction.getClassName());
-		}
+		InstructionFactory factory = instruction.getFactory();
+		if (factory == null)
+			throw new InstructionException(opCode, "Instruction is not implemented: "+ instruction.getName());
+
+		return factory.create(opCode);
 	}
 
 	/**
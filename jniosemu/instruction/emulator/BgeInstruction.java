@@ -13,4 +13,8 @@ public class BgeInstruction extends ITypeInstruction
 		if(em.readRegister(this.rA) >= em.readRegister(this.rB))
 			em.writePC(em.readPC()+this.imm);
 	}
+
+	public boolean isControlFlow() {
+		return true;
+	}
 }
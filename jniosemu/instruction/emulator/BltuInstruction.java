@@ -13,4 +13,8 @@ public class BltuInstruction extends ITypeInstruction
 		if (this.signedToUnsigned(em.readRegister(this.rA)) < this.signedToUnsigned(em.readRegister(this.rB)))
 			em.writePC(em.readPC() + this.imm);
 	}
+
+	public boolean isControlFlow() {
+		return true;
+	}
 }
@@ -12,4 +12,8 @@ public class BrInstruction extends ITypeInstruction
 	public void run(Emulator em) throws EmulatorException {
 		em.writePC(em.readPC() + this.imm);
 	}
+
+	public boolean isControlFlow() {
+		return true;
+	}
 }
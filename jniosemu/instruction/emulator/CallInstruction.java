@@ -13,4 +13,8 @@ public class CallInstruction extends JTypeInstruction
 		em.writeRegister(31, em.readPC() + 4);
 		em.writePC(this.imm * 4 - 4);
 	}
+
+	public boolean isControlFlow() {
+		return true;
+	}
 }
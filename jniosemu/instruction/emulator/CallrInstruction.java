@@ -14,4 +14,8 @@ public class CallrInstruction extends RTypeInstruction
 		int vA = em.readRegister(this.rA);
 		em.writePC(vA - 4);
 	}
+
+	public boolean isControlFlow() {
+		return true;
+	}
 }
@@ -45,6 +45,29 @@ public abstract class Instruction
 	 */
 	public abstract void run(Emulator em) throws EmulatorException;
 
+	/**
+	 * Get the opcode of the instruction
+	 *
+	 * @calledby BlockCompiler
+	 *
+	 * @return Opcode
+	 */
+	public int getOpCode() {
+		return this.opCode;
+	}
+
+	/**
+	 * Check if the instruction may change the program counter. Such
+	 * instructions end a basic block.
+	 *
+	 * @calledby BasicBlock.translate()
+	 *
+	 * @return True if the instruction is a branch, call, jump or return
+	 */
+	public boolean isControlFlow() {
+		return false;
+	}
+
 	/**
 	 * Output the instruction as a String
 	 *
@@ -12,4 +12,8 @@ public class JmpInstruction extends RTypeInstruction
 	public void run(Emulator em) throws EmulatorException {
 		em.writePC(em.readRegister(this.rA) - 4);
 	}
+
+	public boolean isControlFlow() {
+		return true;
+	}
 }
@@ -13,4 +13,8 @@ public class RetInstruction extends RTypeInstruction
 		int ra = em.readRegister(31);
 		em.writePC(ra - 4);
 	}
+
+	public boolean isControlFlow() {
+		return true;
+	}
 }